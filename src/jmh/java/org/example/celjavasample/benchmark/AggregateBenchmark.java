@@ -0,0 +1,86 @@
+package org.example.celjavasample.benchmark;
+
+import dev.cel.compiler.CelCompiler;
+import dev.cel.runtime.CelEvaluationException;
+import dev.cel.runtime.CelRuntime;
+import dev.cel.runtime.CelVariableResolver;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.utils.CelJsonUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Macro forms of the common aggregates against their {@code CelFunctions} equivalents, one
+ * expression per operation. Run with {@code -prof gc} to see the intermediate lists go.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AggregateBenchmark {
+
+    private static final Map<String, String[]> SHAPES = Map.of(
+            "sumProduct", new String[]{
+                    "totalAmount == items.map(i, i.price * i.quantity).sum()",
+                    "totalAmount == sumProduct(items, 'price', 'quantity')"},
+            "sumOf", new String[]{
+                    "totalAmount == paymentMethod.map(p, p.amount).sum()",
+                    "totalAmount == sumOf(paymentMethod, 'amount')"},
+            "countWhere", new String[]{
+                    "size(items.filter(i, i.quantity == 2)) > 0",
+                    "countWhere(items, 'quantity', 2) > 0"},
+            "distinctCount", new String[]{
+                    "items.all(i, size(items.filter(j, j.id == i.id)) == 1)",
+                    "distinctCount(items, 'id') == size(items)"});
+
+    @Param({"sumProduct", "sumOf", "countWhere", "distinctCount"})
+    public String shape;
+
+    @Param({"2", "50", "500"})
+    public int items;
+
+    private CelRuntime.Program macro;
+
+    private CelRuntime.Program function;
+
+    private CelVariableResolver input;
+
+    @Setup
+    public void setUp() throws Exception {
+        CelConfig config = new CelConfig();
+        CelCompiler compiler = config.celCompiler(CelSchema.untyped());
+        CelRuntime runtime = config.celRuntime(-1);
+        String[] expressions = SHAPES.get(shape);
+        macro = runtime.createProgram(compiler.compile(expressions[0]).getAst());
+        function = runtime.createProgram(compiler.compile(expressions[1]).getAst());
+        input = CelJsonUtils.variableResolver(CelJsonUtils.jsonToCelInput(Orders.json(items)));
+        if (!macro.eval(input).equals(function.eval(input))) {
+            throw new IllegalStateException(shape + ": the two forms disagree");
+        }
+    }
+
+    @Benchmark
+    public Object macro() throws CelEvaluationException {
+        return macro.eval(input);
+    }
+
+    @Benchmark
+    public Object function() throws CelEvaluationException {
+        return function.eval(input);
+    }
+}
@@ -0,0 +1,119 @@
+package org.example.celjavasample.benchmark;
+
+import dev.cel.common.CelAbstractSyntaxTree;
+import dev.cel.compiler.CelCompiler;
+import dev.cel.runtime.CelEvaluationException;
+import dev.cel.runtime.CelRuntime;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.service.CompiledRule;
+import org.example.celjavasample.service.VectorizedRules;
+import org.example.celjavasample.utils.CelJsonUtils;
+import org.example.celjavasample.utils.ColumnarBatch;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scalar rules over a batch of orders, run order by order through the runtime against the same
+ * rules as column loops, building the columns included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColumnarBenchmark {
+
+    private static final String[] RULES = {
+            "totalAmount >= 500000.0",
+            "channel == 'In-Person' && totalAmount > 100000.0",
+            "channel in ['Online', 'Marketplace'] || salespersonId.startsWith('AKG')",
+            "totalAmount * 0.01 > 2500.0 && transactionDate >= '2025-12-01'",
+    };
+
+    private static final Map<String, ColumnarBatch.Type> SCHEMA = Map.of(
+            "totalAmount", ColumnarBatch.Type.DOUBLE,
+            "transactionDate", ColumnarBatch.Type.STRING,
+            "channel", ColumnarBatch.Type.STRING,
+            "salespersonId", ColumnarBatch.Type.STRING);
+
+    @Param({"1000"})
+    public int orders;
+
+    private List<CelRuntime.Program> programs;
+
+    private VectorizedRules vectorized;
+
+    private List<Map<String, Object>> batch;
+
+    @Setup
+    public void setUp() throws Exception {
+        CelConfig config = new CelConfig();
+        CelCompiler compiler = config.celCompiler(CelSchema.untyped());
+        CelRuntime runtime = config.celRuntime(-1);
+        programs = new ArrayList<>();
+        List<CompiledRule> rules = new ArrayList<>();
+        for (int i = 0; i < RULES.length; i++) {
+            CelAbstractSyntaxTree ast = compiler.compile(RULES[i]).getAst();
+            CelRuntime.Program program = runtime.createProgram(ast);
+            programs.add(program);
+            rules.add(new CompiledRule((long) i, 1L, "rule-" + i, RULES[i], "FIXED", null, null, 1.0,
+                    ast, program, Set.of(), Set.of()));
+        }
+        vectorized = VectorizedRules.compile(rules, SCHEMA);
+        if (vectorized.size() != RULES.length) {
+            throw new IllegalStateException("Only " + vectorized.size() + " rules vectorized");
+        }
+
+        Random random = new Random(42);
+        String[] channels = {"In-Person", "Online", "Marketplace"};
+        batch = new ArrayList<>();
+        for (int i = 0; i < orders; i++) {
+            Map<String, Object> order = new HashMap<>();
+            order.put("totalAmount", random.nextDouble() * 1_000_000);
+            order.put("transactionDate", "2025-12-" + String.format("%02d", 1 + random.nextInt(28)));
+            order.put("channel", channels[random.nextInt(channels.length)]);
+            order.put("salespersonId", (random.nextBoolean() ? "AKG-" : "BDG-") + random.nextInt(100));
+            batch.add(order);
+        }
+    }
+
+    @Benchmark
+    public long runtime() throws CelEvaluationException {
+        long matched = 0;
+        for (Map<String, Object> order : batch) {
+            var input = CelJsonUtils.variableResolver(order);
+            for (CelRuntime.Program program : programs) {
+                matched += Boolean.TRUE.equals(program.eval(input)) ? 1 : 0;
+            }
+        }
+        return matched;
+    }
+
+    @Benchmark
+    public long columnar() {
+        long matched = 0;
+        for (VectorizedRules.Result result : vectorized.evaluate(ColumnarBatch.of(batch, SCHEMA))) {
+            matched += result.matched().cardinality();
+        }
+        return matched;
+    }
+}
@@ -0,0 +1,51 @@
+package org.example.celjavasample.benchmark;
+
+import dev.cel.common.CelValidationException;
+import dev.cel.compiler.CelCompiler;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@code CelCompiler.compile} for the kinds of rules the rule set holds: a plain
+ * comparison, a macro over the items and a compound reward rule.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompileBenchmark {
+
+    @Param({
+            "totalAmount >= 500000",
+            "items.exists(i, i.sku == 'OLI123' && i.quantity >= 2)",
+            "additional_info.channel == 'In-Person' && sponsorCode in ['AUTO2000', 'HONDA'] && totalAmount > 100000"
+    })
+    public String expression;
+
+    private CelCompiler compiler;
+
+    @Setup
+    public void setUp() {
+        compiler = new CelConfig().celCompiler(CelSchema.untyped());
+    }
+
+    @Benchmark
+    public Object compile() throws CelValidationException {
+        return compiler.compile(expression).getAst();
+    }
+}
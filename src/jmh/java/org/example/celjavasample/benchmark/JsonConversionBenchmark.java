@@ -0,0 +1,56 @@
+package org.example.celjavasample.benchmark;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.celjavasample.utils.CelJsonUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning an order payload into CEL input: the streaming reader behind
+ * {@link CelJsonUtils#jsonToCelInput} against {@link CelJsonUtils#convertNumbers} applied to a
+ * Jackson-bound map, the way input used to be built.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonConversionBenchmark {
+
+    @Param({"2", "50", "500"})
+    public int items;
+
+    private String json;
+
+    private Map<?, ?> bound;
+
+    @Setup
+    public void setUp() throws JsonProcessingException {
+        json = Orders.json(items);
+        bound = new ObjectMapper().readValue(json, Map.class);
+    }
+
+    @Benchmark
+    public Object jsonToCelInput() throws JsonProcessingException {
+        return CelJsonUtils.jsonToCelInput(json);
+    }
+
+    @Benchmark
+    public Object convertNumbers() {
+        return CelJsonUtils.convertNumbers(bound);
+    }
+}
@@ -0,0 +1,57 @@
+package org.example.celjavasample.benchmark;
+
+/**
+ * Order payloads in the POS feed shape, sized by item count.
+ */
+final class Orders {
+
+    private Orders() {
+    }
+
+    static String json(int items) {
+        StringBuilder json = new StringBuilder(256 + items * 80);
+        long total = 0;
+        json.append("{\"orderId\":\"ORD-001\",\"sponsorCode\":\"AUTO2000\",\"branch\":{\"code\":\"AHASS-LBKBULUS\"},")
+                .append("\"transactionDate\":\"2025-12-10\",\"customer\":{\"phoneNumber\":\"081234567890\"},\"items\":[");
+        for (int i = 0; i < items; i++) {
+            int quantity = i % 3 + 1;
+            long price = 50000 + (i % 7) * 25000L;
+            total += quantity * price;
+            json.append(i == 0 ? "" : ",")
+                    .append("{\"id\":\"ITM-").append(i).append("\",\"sku\":\"")
+                    .append(i % 2 == 0 ? "OLI123" : "SERV001").append(i)
+                    .append("\",\"quantity\":").append(quantity)
+                    .append(",\"price\":").append(price).append('}');
+        }
+        json.append("],\"totalAmount\":").append(total)
+                .append(",\"paymentMethod\":[{\"method\":\"QRIS\",\"amount\":").append(total - 15000)
+                .append("},{\"method\":\"CASH\",\"amount\":15000}],")
+                .append("\"additional_info\":{\"source_sales_person_id\":\"AKG-1234\",\"channel\":\"In-Person\"}}");
+        return json.toString();
+    }
+
+    // The rule list of OrderValidationTest
+    static final String[] VALIDATION_RULES = {
+            "orderId != null && size(orderId) > 0",
+            "sponsorCode != null && size(sponsorCode) > 0",
+            "totalAmount != null && totalAmount > 0",
+            "branch != null && branch.code != null && size(branch.code) > 0",
+            "transactionDate != null && size(transactionDate) > 0",
+            "customer != null && customer.phoneNumber != null && size(customer.phoneNumber) > 0",
+            "items != null && size(items) > 0",
+            "paymentMethod != null && size(paymentMethod) > 0",
+            "items.all(i, i.id != null && size(i.id) > 0)",
+            "items.all(i, i.sku != null && size(i.sku) > 0)",
+            "items.all(i, i.quantity != null && i.quantity > 0 && i.quantity <= 10)",
+            "items.all(i, i.price != null && i.price > 0)",
+            "size(items.map(i, i.id)) == size(items.map(i, i.id).unique())",
+            "paymentMethod.all(p, p.method != null && size(p.method) > 0)",
+            "paymentMethod.all(p, p.amount != null && p.amount > 0)",
+            "paymentMethod.all(p, p.method in ['QRIS', 'CASH', 'CREDIT_CARD', 'DEBIT_CARD'])",
+            "size(paymentMethod.map(p, p.method)) == size(paymentMethod.map(p, p.method).unique())",
+            "totalAmount == items.map(i, i.price * i.quantity).sum()",
+            "totalAmount == paymentMethod.map(p, p.amount).sum()",
+            "sponsorCode != 'AUTO2000' || totalAmount >= 500000",
+            "paymentMethod.filter(p, p.method == 'CASH').all(p, p.amount <= 2000000)"
+    };
+}
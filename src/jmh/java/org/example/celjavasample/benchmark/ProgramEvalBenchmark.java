@@ -0,0 +1,73 @@
+package org.example.celjavasample.benchmark;
+
+import dev.cel.common.CelValidationResult;
+import dev.cel.compiler.CelCompiler;
+import dev.cel.runtime.CelEvaluationException;
+import dev.cel.runtime.CelRuntime;
+import dev.cel.runtime.CelVariableResolver;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.utils.CelJsonUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code Program.eval} of the {@code OrderValidationTest} rules against one converted order, i.e.
+ * the interpreter alone. Rules the standard environment cannot compile are left out, as the test
+ * does; an operation is one pass over all remaining rules.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProgramEvalBenchmark {
+
+    @Param({"2", "50", "500"})
+    public int items;
+
+    private List<CelRuntime.Program> programs;
+
+    private CelVariableResolver input;
+
+    @Setup
+    public void setUp() throws Exception {
+        CelConfig config = new CelConfig();
+        CelCompiler compiler = config.celCompiler(CelSchema.untyped());
+        CelRuntime runtime = config.celRuntime(-1);
+        programs = new ArrayList<>();
+        for (String rule : Orders.VALIDATION_RULES) {
+            CelValidationResult result = compiler.compile(rule);
+            if (!result.hasError()) {
+                programs.add(runtime.createProgram(result.getAst()));
+            }
+        }
+        input = CelJsonUtils.variableResolver(CelJsonUtils.jsonToCelInput(Orders.json(items)));
+    }
+
+    @Benchmark
+    public void evalAll(Blackhole blackhole) {
+        for (CelRuntime.Program program : programs) {
+            try {
+                blackhole.consume(program.eval(input));
+            } catch (CelEvaluationException e) {
+                blackhole.consume(e);
+            }
+        }
+    }
+}
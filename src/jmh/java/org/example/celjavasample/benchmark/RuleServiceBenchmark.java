@@ -0,0 +1,65 @@
+package org.example.celjavasample.benchmark;
+
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.service.EvaluationBudget;
+import org.example.celjavasample.service.OrderHistory;
+import org.example.celjavasample.service.ProgramCache;
+import org.example.celjavasample.service.RuleMetrics;
+import org.example.celjavasample.service.RuleResultCache;
+import org.example.celjavasample.service.RuleService;
+import org.example.celjavasample.utils.CelJsonReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end {@link RuleService#eval}: program cache lookup, payload parsing and evaluation of one
+ * ad-hoc expression per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RuleServiceBenchmark {
+
+    @Param({"2", "50", "500"})
+    public int items;
+
+    @Param({
+            "sponsorCode != 'AUTO2000' || totalAmount >= 500000",
+            "items.exists(i, i.sku == 'OLI123' && i.quantity >= 2)"
+    })
+    public String expression;
+
+    private RuleService ruleService;
+
+    private String json;
+
+    @Setup
+    public void setUp() {
+        CelConfig config = new CelConfig();
+        // eval(expr, json) does not touch the active rule set
+        ruleService = new RuleService(config.celCompiler(CelSchema.untyped()), config.celRuntime(-1),
+                new CelJsonReader(), new ProgramCache(100), null, RuleMetrics.disabled(),
+                EvaluationBudget.unlimited(), RuleResultCache.disabled(), OrderHistory.inMemory());
+        json = Orders.json(items);
+    }
+
+    @Benchmark
+    public Object eval() throws Exception {
+        return ruleService.eval(expression, json);
+    }
+}
@@ -1,36 +1,138 @@
 package org.example.celjavasample.config;
 
-import dev.cel.common.types.ListType;
-import dev.cel.common.types.MapType;
-import dev.cel.common.types.SimpleType;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.cel.common.CelOptions;
 import dev.cel.compiler.CelCompiler;
 import dev.cel.compiler.CelCompilerFactory;
 import dev.cel.parser.CelStandardMacro;
 import dev.cel.runtime.CelRuntime;
 import dev.cel.runtime.CelRuntimeFactory;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.example.celjavasample.service.OrderHistory;
+import org.example.celjavasample.service.ProgramCache;
+import org.example.celjavasample.service.RuleResultCache;
+import org.example.celjavasample.service.RuleSetService;
+import org.example.celjavasample.utils.CelJsonReader;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ResourceLoader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 @Configuration
 public class CelConfig {
 
     @Bean
-    public CelCompiler celCompiler() {
-        MapType itemType = MapType.create(
-                SimpleType.STRING,
-                SimpleType.DYN
-        );
+    public CelSchema celSchema(ResourceLoader resourceLoader,
+                               ObjectMapper mapper,
+                               @Value("${cel.schema.samples:}") List<String> samples,
+                               @Value("${cel.schema.json-schema:}") String jsonSchema,
+                               @Value("${cel.schema.type-prefix:order}") String typePrefix) throws IOException {
+        if (!jsonSchema.isBlank()) {
+            return CelSchema.fromJsonSchema(typePrefix, readJson(resourceLoader, mapper, jsonSchema));
+        }
+        if (!samples.isEmpty()) {
+            List<JsonNode> nodes = new ArrayList<>();
+            for (String sample : samples) {
+                nodes.add(readJson(resourceLoader, mapper, sample));
+            }
+            return CelSchema.inferFromSamples(typePrefix, nodes);
+        }
+        return CelSchema.untyped();
+    }
 
-        ListType itemsListType = ListType.create(itemType);
+    private static JsonNode readJson(ResourceLoader resourceLoader, ObjectMapper mapper, String location) throws IOException {
+        try (InputStream in = resourceLoader.getResource(location.trim()).getInputStream()) {
+            return mapper.readTree(in);
+        }
+    }
 
-        return CelCompilerFactory.standardCelCompilerBuilder()
-                .setStandardMacros(CelStandardMacro.STANDARD_MACROS)
-                .addVar("items", itemsListType)
+    @Bean
+    public CelCompiler celCompiler(CelSchema schema) {
+        return schema.applyTo(CelCompilerFactory.standardCelCompilerBuilder()
+                        .setStandardMacros(CelStandardMacro.STANDARD_MACROS)
+                        .addFunctionDeclarations(CelFunctions.declarations())
+                        .addVar(OrderHistory.VARIABLE, OrderHistory.TYPE))
                 .build();
     }
 
+    /**
+     * Runtime whose evaluations stop after {@code cel.eval.max-iterations} comprehension
+     * iterations in total (unlimited when negative).
+     */
+    @Bean
+    public CelRuntime celRuntime(@Value("${cel.eval.max-iterations:-1}") int maxIterations) {
+        return CelRuntimeFactory.standardCelRuntimeBuilder()
+                .setOptions(CelOptions.current().comprehensionMaxIterations(maxIterations).build())
+                .addFunctionBindings(CelFunctions.bindings())
+                .build();
+    }
+
+    @Bean
+    public ProgramCache programCache(@Value("${cel.program-cache.max-size:1000}") int maxSize) {
+        return new ProgramCache(maxSize);
+    }
+
+    /**
+     * Result cache for single-order evaluations, off unless {@code cel.result-cache.max-size} is
+     * positive. Answers served from it can be up to {@code cel.result-cache.ttl} old.
+     */
+    @Bean
+    public RuleResultCache ruleResultCache(@Value("${cel.result-cache.max-size:0}") int maxSize,
+                                           @Value("${cel.result-cache.ttl:5m}") Duration ttl) {
+        return new RuleResultCache(maxSize, ttl);
+    }
+
+    /**
+     * Program and result cache statistics in Micrometer's cache naming, plus the shape of the
+     * active rule set.
+     */
+    @Bean
+    public MeterBinder celMeters(ProgramCache programCache, RuleResultCache resultCache, RuleSetService ruleSetService) {
+        return registry -> {
+            FunctionCounter.builder("cache.gets", programCache, c -> c.stats().hits())
+                    .tags("cache", "cel-programs", "result", "hit").register(registry);
+            FunctionCounter.builder("cache.gets", programCache, c -> c.stats().misses())
+                    .tags("cache", "cel-programs", "result", "miss").register(registry);
+            FunctionCounter.builder("cache.evictions", programCache, c -> c.stats().evictions())
+                    .tag("cache", "cel-programs").register(registry);
+            Gauge.builder("cache.size", programCache, ProgramCache::size)
+                    .tag("cache", "cel-programs").register(registry);
+            FunctionTimer.builder("cel.program.compile", programCache,
+                            c -> c.stats().misses(), ProgramCache::compileNanos, TimeUnit.NANOSECONDS)
+                    .description("Compilations of ad-hoc expressions on program cache misses")
+                    .register(registry);
+            FunctionCounter.builder("cache.gets", resultCache, c -> c.stats().hits())
+                    .tags("cache", "cel-results", "result", "hit").register(registry);
+            FunctionCounter.builder("cache.gets", resultCache, c -> c.stats().misses())
+                    .tags("cache", "cel-results", "result", "miss").register(registry);
+            FunctionCounter.builder("cache.evictions", resultCache, c -> c.stats().evictions())
+                    .tag("cache", "cel-results").register(registry);
+            Gauge.builder("cache.size", resultCache, RuleResultCache::size)
+                    .tag("cache", "cel-results").register(registry);
+
+            Gauge.builder("cel.ruleset.version", ruleSetService, s -> s.current().version()).register(registry);
+            Gauge.builder("cel.ruleset.rules", ruleSetService, s -> s.current().size()).register(registry);
+            Gauge.builder("cel.ruleset.errors", ruleSetService, s -> s.current().errors().size()).register(registry);
+            Gauge.builder("cel.ruleset.index.skip.ratio", ruleSetService, s -> s.current().index().stats().skipRatio())
+                    .description("Share of rule evaluations skipped by the rule index since the last reload")
+                    .register(registry);
+        };
+    }
+
     @Bean
-    public CelRuntime celRuntime() {
-        return CelRuntimeFactory.standardCelRuntimeBuilder().build();
+    public CelJsonReader celJsonReader(ObjectMapper mapper,
+                                       @Value("${cel.json.immutable-maps:false}") boolean immutableMaps) {
+        return new CelJsonReader(mapper.getFactory(), immutableMaps);
     }
 }
@@ -0,0 +1,255 @@
+package org.example.celjavasample.config;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import dev.cel.common.CelErrorCode;
+import dev.cel.common.CelFunctionDecl;
+import dev.cel.common.CelOverloadDecl;
+import dev.cel.common.types.CelType;
+import dev.cel.common.types.ListType;
+import dev.cel.common.types.SimpleType;
+import dev.cel.runtime.CelEvaluationException;
+import dev.cel.runtime.CelEvaluationExceptionBuilder;
+import dev.cel.runtime.CelFunctionBinding;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Aggregates over lists of order objects, for the {@code items.map(i, ...).sum()} shapes rules are
+ * full of. Each is a single loop over the list with a running total, where the macro form builds
+ * an intermediate list per evaluation first.
+ * <ul>
+ *     <li>{@code list.sum()}: sum of a list of numbers</li>
+ *     <li>{@code sumOf(list, 'f')}: sum of {@code e.f}</li>
+ *     <li>{@code sumProduct(list, 'f', 'g')}: sum of {@code e.f * e.g}</li>
+ *     <li>{@code countWhere(list, 'f', value)}: number of elements with {@code e.f == value}</li>
+ *     <li>{@code distinctCount(list, 'f')}: number of distinct {@code e.f}</li>
+ *     <li>{@code maxOf(list, 'f')}, {@code minOf(list, 'f')}: largest and smallest {@code e.f}</li>
+ * </ul>
+ * A field missing from an element is an error, as {@code e.f} would be. Sums stay {@code int}
+ * while every term is one and overflow is an error; a {@code double} term makes the result a
+ * {@code double}. Unlike CEL arithmetic, ints and doubles mix, so {@code sumProduct(items, 'price',
+ * 'quantity')} works whichever way the price was written.
+ */
+public final class CelFunctions {
+
+    private static final CelType LIST = ListType.create(SimpleType.DYN);
+
+    /**
+     * Functions whose cost is a scan of their first argument (or receiver, for {@code sum}).
+     */
+    public static final Set<String> LIST_SCANS =
+            ImmutableSet.of("sum", "sumOf", "sumProduct", "countWhere", "distinctCount", "maxOf", "minOf");
+
+    private CelFunctions() {
+    }
+
+    public static List<CelFunctionDecl> declarations() {
+        return List.of(
+                CelFunctionDecl.newFunctionDeclaration("sum",
+                        CelOverloadDecl.newMemberOverload("list_sum", SimpleType.DYN, LIST)),
+                CelFunctionDecl.newFunctionDeclaration("sumOf",
+                        CelOverloadDecl.newGlobalOverload("sumOf_list_string", SimpleType.DYN, LIST, SimpleType.STRING)),
+                CelFunctionDecl.newFunctionDeclaration("sumProduct",
+                        CelOverloadDecl.newGlobalOverload("sumProduct_list_string_string", SimpleType.DYN,
+                                LIST, SimpleType.STRING, SimpleType.STRING)),
+                CelFunctionDecl.newFunctionDeclaration("countWhere",
+                        CelOverloadDecl.newGlobalOverload("countWhere_list_string_dyn", SimpleType.INT,
+                                LIST, SimpleType.STRING, SimpleType.DYN)),
+                CelFunctionDecl.newFunctionDeclaration("distinctCount",
+                        CelOverloadDecl.newGlobalOverload("distinctCount_list_string", SimpleType.INT, LIST, SimpleType.STRING)),
+                CelFunctionDecl.newFunctionDeclaration("maxOf",
+                        CelOverloadDecl.newGlobalOverload("maxOf_list_string", SimpleType.DYN, LIST, SimpleType.STRING)),
+                CelFunctionDecl.newFunctionDeclaration("minOf",
+                        CelOverloadDecl.newGlobalOverload("minOf_list_string", SimpleType.DYN, LIST, SimpleType.STRING)));
+    }
+
+    public static List<CelFunctionBinding> bindings() {
+        return List.of(
+                CelFunctionBinding.from("list_sum", List.class, CelFunctions::sum),
+                CelFunctionBinding.from("sumOf_list_string", List.class, String.class, CelFunctions::sumOf),
+                CelFunctionBinding.from("sumProduct_list_string_string",
+                        ImmutableList.of(List.class, String.class, String.class),
+                        args -> sumProduct((List<?>) args[0], (String) args[1], (String) args[2])),
+                CelFunctionBinding.from("countWhere_list_string_dyn",
+                        ImmutableList.of(List.class, String.class, Object.class),
+                        args -> countWhere((List<?>) args[0], (String) args[1], args[2])),
+                CelFunctionBinding.from("distinctCount_list_string", List.class, String.class, CelFunctions::distinctCount),
+                CelFunctionBinding.from("maxOf_list_string", List.class, String.class, (list, field) -> extreme("maxOf", list, field, 1)),
+                CelFunctionBinding.from("minOf_list_string", List.class, String.class, (list, field) -> extreme("minOf", list, field, -1)));
+    }
+
+    static Object sum(List<?> list) throws CelEvaluationException {
+        Sum sum = new Sum("sum");
+        for (Object value : list) {
+            sum.add(value);
+        }
+        return sum.result();
+    }
+
+    static Object sumOf(List<?> list, String field) throws CelEvaluationException {
+        Sum sum = new Sum("sumOf");
+        for (int i = 0, n = list.size(); i < n; i++) {
+            sum.add(field(list.get(i), field, i, "sumOf"));
+        }
+        return sum.result();
+    }
+
+    static Object sumProduct(List<?> list, String first, String second) throws CelEvaluationException {
+        Sum sum = new Sum("sumProduct");
+        for (int i = 0, n = list.size(); i < n; i++) {
+            Object element = list.get(i);
+            sum.addProduct(field(element, first, i, "sumProduct"), field(element, second, i, "sumProduct"));
+        }
+        return sum.result();
+    }
+
+    static long countWhere(List<?> list, String field, Object value) throws CelEvaluationException {
+        long count = 0;
+        for (int i = 0, n = list.size(); i < n; i++) {
+            if (same(field(list.get(i), field, i, "countWhere"), value)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    static long distinctCount(List<?> list, String field) throws CelEvaluationException {
+        Set<Object> seen = new HashSet<>();
+        for (int i = 0, n = list.size(); i < n; i++) {
+            seen.add(normalize(field(list.get(i), field, i, "distinctCount")));
+        }
+        return seen.size();
+    }
+
+    private static Object extreme(String function, List<?> list, String field, int sign) throws CelEvaluationException {
+        if (list.isEmpty()) {
+            throw error(CelErrorCode.INVALID_ARGUMENT, "%s of an empty list", function);
+        }
+        Object best = null;
+        for (int i = 0, n = list.size(); i < n; i++) {
+            Object value = number(function, field(list.get(i), field, i, function));
+            if (best == null || sign * compare(value, best) > 0) {
+                best = value;
+            }
+        }
+        return best;
+    }
+
+    private static Object field(Object element, String field, int index, String function) throws CelEvaluationException {
+        if (!(element instanceof Map<?, ?> map)) {
+            throw error(CelErrorCode.INVALID_ARGUMENT, "%s: element %d is not an object", function, index);
+        }
+        Object value = map.get(field);
+        if (value == null && !map.containsKey(field)) {
+            throw error(CelErrorCode.ATTRIBUTE_NOT_FOUND, "%s: no field '%s' in element %d", function, field, index);
+        }
+        return value;
+    }
+
+    private static Object number(String function, Object value) throws CelEvaluationException {
+        if (value instanceof Long || value instanceof Double) {
+            return value;
+        }
+        throw error(CelErrorCode.INVALID_ARGUMENT, "%s: expected a number, got %s", function,
+                value == null ? "null" : value.getClass().getSimpleName());
+    }
+
+    // CEL equality, where 2 == 2.0
+    private static boolean same(Object a, Object b) {
+        if (a instanceof Long l && b instanceof Double d) {
+            return l.doubleValue() == d;
+        }
+        if (a instanceof Double d && b instanceof Long l) {
+            return l.doubleValue() == d;
+        }
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static Object normalize(Object value) {
+        if (value instanceof Double d && d == Math.rint(d) && Math.abs(d) < 0x1p63) {
+            return d.longValue();
+        }
+        return value;
+    }
+
+    private static int compare(Object a, Object b) {
+        if (a instanceof Long x && b instanceof Long y) {
+            return Long.compare(x, y);
+        }
+        return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+    }
+
+    private static CelEvaluationException error(CelErrorCode code, String format, Object... args) {
+        return CelEvaluationExceptionBuilder.newBuilder(format, args).setErrorCode(code).build();
+    }
+
+    /**
+     * Running total that stays a long until a double shows up.
+     */
+    private static final class Sum {
+
+        private final String function;
+
+        private long longs;
+
+        private double doubles;
+
+        private boolean isDouble;
+
+        private Sum(String function) {
+            this.function = function;
+        }
+
+        void add(Object value) throws CelEvaluationException {
+            if (value instanceof Long l) {
+                addLong(l);
+            } else {
+                addDouble(((Number) number(function, value)).doubleValue());
+            }
+        }
+
+        void addProduct(Object a, Object b) throws CelEvaluationException {
+            if (a instanceof Long x && b instanceof Long y) {
+                try {
+                    addLong(Math.multiplyExact(x, y));
+                } catch (ArithmeticException e) {
+                    throw overflow();
+                }
+            } else {
+                addDouble(((Number) number(function, a)).doubleValue() * ((Number) number(function, b)).doubleValue());
+            }
+        }
+
+        private void addLong(long value) throws CelEvaluationException {
+            if (isDouble) {
+                doubles += value;
+                return;
+            }
+            try {
+                longs = Math.addExact(longs, value);
+            } catch (ArithmeticException e) {
+                throw overflow();
+            }
+        }
+
+        private void addDouble(double value) {
+            if (!isDouble) {
+                isDouble = true;
+                doubles = longs;
+            }
+            doubles += value;
+        }
+
+        private CelEvaluationException overflow() {
+            return error(CelErrorCode.NUMERIC_OVERFLOW, "%s: int overflow", function);
+        }
+
+        Object result() {
+            return isDouble ? (Object) doubles : (Object) longs;
+        }
+    }
+}
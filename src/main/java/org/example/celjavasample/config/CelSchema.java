@@ -0,0 +1,236 @@
+package org.example.celjavasample.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import dev.cel.common.types.CelType;
+import dev.cel.common.types.CelTypeProvider;
+import dev.cel.common.types.ListType;
+import dev.cel.common.types.MapType;
+import dev.cel.common.types.NullableType;
+import dev.cel.common.types.SimpleType;
+import dev.cel.common.types.StructType;
+import dev.cel.compiler.CelCompilerBuilder;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Variable and type declarations for the order payload.
+ * <p>
+ * {@link #untyped()} is the historical environment where every field is {@code dyn}. The typed
+ * schemas produced by {@link #inferFromSamples} and {@link #fromJsonSchema} declare JSON objects as
+ * struct types, so selecting a field that doesn't exist is a compile error instead of a runtime
+ * one, and scalars as nullable primitives, so {@code x != null} guards still type-check. Lists are
+ * declared as plain lists: CEL can't compare a typed list against {@code null}, use
+ * {@code size(x) > 0} instead.
+ * <p>
+ * Numbers in samples are declared {@code dyn}, like a JSON Schema {@code number}: a sample only
+ * shows one value, and the payload reader turns whole numbers into {@code int} and decimals into
+ * {@code double}, so a field sampled as {@code 750000} may well arrive as {@code 750000.5}. Only a
+ * JSON Schema {@code integer} is declared as {@code int}.
+ */
+public class CelSchema implements CelTypeProvider {
+
+    private final Map<String, CelType> variables;
+
+    private final Map<String, StructType> types;
+
+    private CelSchema(Map<String, CelType> variables, Map<String, StructType> types) {
+        this.variables = Map.copyOf(variables);
+        this.types = Map.copyOf(types);
+    }
+
+    public static CelSchema untyped() {
+        Map<String, CelType> variables = new LinkedHashMap<>();
+        variables.put("orderId", SimpleType.DYN);
+        variables.put("sponsorCode", SimpleType.DYN);
+        variables.put("totalAmount", SimpleType.DYN);
+        variables.put("branch", SimpleType.DYN);
+        variables.put("transactionDate", SimpleType.DYN);
+        variables.put("customer", SimpleType.DYN);
+        variables.put("items", ListType.create(MapType.create(SimpleType.STRING, SimpleType.DYN)));
+        variables.put("paymentMethod", SimpleType.DYN);
+        variables.put("additional_info", SimpleType.DYN);
+        variables.put("channel", SimpleType.DYN);
+        variables.put("salespersonId", SimpleType.DYN);
+        return new CelSchema(variables, Map.of());
+    }
+
+    public static CelSchema inferFromSamples(String typePrefix, List<JsonNode> samples) {
+        Shape root = null;
+        for (JsonNode sample : samples) {
+            if (!sample.isObject()) {
+                throw new IllegalArgumentException("Schema samples must be JSON objects, got " + sample.getNodeType());
+            }
+            root = Shape.unify(root, Shape.of(sample));
+        }
+        if (!(root instanceof Shape.Obj obj)) {
+            throw new IllegalArgumentException("At least one schema sample is required");
+        }
+        return build(typePrefix, obj);
+    }
+
+    public static CelSchema fromJsonSchema(String typePrefix, JsonNode schema) {
+        if (!(Shape.ofJsonSchema(schema) instanceof Shape.Obj obj)) {
+            throw new IllegalArgumentException("JSON Schema root must be an object with properties");
+        }
+        return build(typePrefix, obj);
+    }
+
+    private static CelSchema build(String typePrefix, Shape.Obj root) {
+        Map<String, StructType> types = new LinkedHashMap<>();
+        Map<String, CelType> variables = new LinkedHashMap<>();
+        root.fields().forEach((name, shape) -> variables.put(name, toCelType(typePrefix + "." + name, shape, types)));
+        return new CelSchema(variables, types);
+    }
+
+    private static CelType toCelType(String name, Shape shape, Map<String, StructType> types) {
+        if (shape instanceof Shape.Scalar scalar) {
+            return scalar.type() == SimpleType.DYN ? SimpleType.DYN : NullableType.create(scalar.type());
+        }
+        if (shape instanceof Shape.Arr arr) {
+            return ListType.create(arr.element() == null ? SimpleType.DYN : toCelType(name, arr.element(), types));
+        }
+        if (shape instanceof Shape.Obj obj) {
+            if (obj.fields().isEmpty()) {
+                return MapType.create(SimpleType.STRING, SimpleType.DYN);
+            }
+            Map<String, CelType> fields = new LinkedHashMap<>();
+            obj.fields().forEach((field, fieldShape) -> fields.put(field, toCelType(name + "." + field, fieldShape, types)));
+            StructType type = StructType.create(name, ImmutableSet.copyOf(fields.keySet()), f -> Optional.ofNullable(fields.get(f)));
+            types.put(name, type);
+            return type;
+        }
+        // Only ever seen as null
+        return SimpleType.DYN;
+    }
+
+    public Map<String, CelType> variables() {
+        return variables;
+    }
+
+    public CelCompilerBuilder applyTo(CelCompilerBuilder builder) {
+        if (!types.isEmpty()) {
+            builder.setTypeProvider(this);
+        }
+        variables.forEach(builder::addVar);
+        return builder;
+    }
+
+    @Override
+    public ImmutableList<CelType> types() {
+        return ImmutableList.copyOf(types.values());
+    }
+
+    @Override
+    public Optional<CelType> findType(String typeName) {
+        return Optional.ofNullable(types.get(typeName));
+    }
+
+    /**
+     * Structural shape of sample JSON values, merged across samples before being turned into CEL types.
+     */
+    private sealed interface Shape {
+
+        record Scalar(CelType type) implements Shape {
+        }
+
+        record Arr(Shape element) implements Shape {
+        }
+
+        record Obj(Map<String, Shape> fields) implements Shape {
+        }
+
+        record Null() implements Shape {
+        }
+
+        Shape NULL = new Null();
+
+        Shape DYN = new Scalar(SimpleType.DYN);
+
+        static Shape of(JsonNode node) {
+            return switch (node.getNodeType()) {
+                case OBJECT -> {
+                    Map<String, Shape> fields = new LinkedHashMap<>();
+                    for (Map.Entry<String, JsonNode> field : node.properties()) {
+                        fields.put(field.getKey(), of(field.getValue()));
+                    }
+                    yield new Obj(fields);
+                }
+                case ARRAY -> {
+                    Shape element = null;
+                    for (JsonNode child : node) {
+                        element = unify(element, of(child));
+                    }
+                    yield new Arr(element);
+                }
+                case STRING -> new Scalar(SimpleType.STRING);
+                case BOOLEAN -> new Scalar(SimpleType.BOOL);
+                // Either kind of number can show up at runtime whatever the sample held
+                case NUMBER -> DYN;
+                case NULL, MISSING -> NULL;
+                default -> DYN;
+            };
+        }
+
+        static Shape ofJsonSchema(JsonNode schema) {
+            String type = schemaType(schema);
+            return switch (type) {
+                case "object" -> {
+                    Map<String, Shape> fields = new LinkedHashMap<>();
+                    for (Map.Entry<String, JsonNode> property : schema.path("properties").properties()) {
+                        fields.put(property.getKey(), ofJsonSchema(property.getValue()));
+                    }
+                    yield new Obj(fields);
+                }
+                case "array" -> new Arr(schema.has("items") ? ofJsonSchema(schema.get("items")) : null);
+                case "string" -> new Scalar(SimpleType.STRING);
+                case "boolean" -> new Scalar(SimpleType.BOOL);
+                case "integer" -> new Scalar(SimpleType.INT);
+                default -> DYN;
+            };
+        }
+
+        private static String schemaType(JsonNode schema) {
+            JsonNode type = schema.get("type");
+            if (type == null) {
+                return schema.has("properties") ? "object" : "";
+            }
+            if (type.isArray()) {
+                // ["string", "null"] style nullability; anything wider than one real type is dyn
+                String single = null;
+                for (JsonNode t : type) {
+                    if (!"null".equals(t.asText())) {
+                        if (single != null) {
+                            return "";
+                        }
+                        single = t.asText();
+                    }
+                }
+                return single == null ? "" : single;
+            }
+            return type.asText();
+        }
+
+        static Shape unify(Shape a, Shape b) {
+            if (a == null || a instanceof Null) {
+                return b == null ? a : b;
+            }
+            if (b == null || b instanceof Null || a.equals(b)) {
+                return a;
+            }
+            if (a instanceof Arr x && b instanceof Arr y) {
+                return new Arr(unify(x.element(), y.element()));
+            }
+            if (a instanceof Obj x && b instanceof Obj y) {
+                Map<String, Shape> fields = new LinkedHashMap<>(x.fields());
+                y.fields().forEach((name, shape) -> fields.merge(name, shape, Shape::unify));
+                return new Obj(fields);
+            }
+            return DYN;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.celjavasample.controller;
+
+import org.example.celjavasample.entity.Rule;
+import org.example.celjavasample.service.BacktestReport;
+import org.example.celjavasample.service.BacktestService;
+import org.example.celjavasample.service.OrderArchiveExporter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Backtests candidate rules against order archives kept under {@code cel.backtest.archive-dir}.
+ * Archives are addressed by file name only.
+ */
+@RestController
+@RequestMapping("/api/backtests")
+public class BacktestController {
+
+    private final BacktestService backtestService;
+
+    private final OrderArchiveExporter exporter;
+
+    private final Path archiveDir;
+
+    public BacktestController(BacktestService backtestService,
+                              OrderArchiveExporter exporter,
+                              @Value("${cel.backtest.archive-dir:archives}") Path archiveDir) {
+        this.backtestService = backtestService;
+        this.exporter = exporter;
+        this.archiveDir = archiveDir.toAbsolutePath().normalize();
+    }
+
+    @PostMapping("/{archive}")
+    public BacktestReport backtest(@PathVariable String archive, @RequestBody List<Rule> candidates) throws IOException {
+        Path file = resolve(archive);
+        if (!Files.isRegularFile(file)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No archive " + archive);
+        }
+        return backtestService.run(file, candidates);
+    }
+
+    /**
+     * Exports the orders table into a new archive, optionally only orders since a transaction date.
+     */
+    @PostMapping("/archives/{archive}")
+    public Map<String, Object> export(@PathVariable String archive,
+                                      @RequestParam(required = false) String since) throws IOException {
+        Path file = resolve(archive);
+        Files.createDirectories(archiveDir);
+        long orders = exporter.export(file, since);
+        return Map.of("archive", archive, "orders", orders);
+    }
+
+    private Path resolve(String archive) {
+        Path file = archiveDir.resolve(archive).normalize();
+        if (!file.getParent().equals(archiveDir)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid archive name " + archive);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,32 @@
+package org.example.celjavasample.controller;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.example.celjavasample.service.OrderIngestionService;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+@RestController
+@RequestMapping("/api/orders")
+@RequiredArgsConstructor
+public class OrderController {
+
+    private final OrderIngestionService ingestionService;
+
+    /**
+     * Stores an NDJSON feed of POS orders, one per line, scoring each with the active rules.
+     */
+    @PostMapping(path = "/ingest", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public OrderIngestionService.IngestSummary ingest(HttpServletRequest request) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8))) {
+            return ingestionService.ingest(reader.lines().filter(line -> !line.isBlank()).iterator());
+        }
+    }
+}
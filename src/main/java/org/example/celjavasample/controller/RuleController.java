@@ -0,0 +1,52 @@
+package org.example.celjavasample.controller;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import dev.cel.common.CelValidationException;
+import dev.cel.runtime.CelEvaluationException;
+import lombok.RequiredArgsConstructor;
+import org.example.celjavasample.entity.Rule;
+import org.example.celjavasample.repository.RuleRepository;
+import org.example.celjavasample.service.RuleProfiler;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.util.List;
+
+@RestController
+@RequestMapping("/api/rules")
+@RequiredArgsConstructor
+public class RuleController {
+
+    private final RuleRepository ruleRepository;
+
+    private final RuleProfiler ruleProfiler;
+
+    /**
+     * Profiles a rule node by node against the sample of orders in the body.
+     */
+    @PostMapping(path = "/{id}/profile", produces = MediaType.APPLICATION_JSON_VALUE)
+    public RuleProfiler.Profile profile(@PathVariable Long id, @RequestBody List<JsonNode> orders) throws IOException {
+        Rule rule = ruleRepository.findById(id)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "No rule " + id));
+        try {
+            return ruleProfiler.profile(rule.getCelExpression(), orders.stream().map(JsonNode::toString).toList());
+        } catch (CelValidationException | CelEvaluationException e) {
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * The same profile as collapsed stacks only, e.g. {@code curl ... | flamegraph.pl > rule.svg}.
+     */
+    @PostMapping(path = "/{id}/profile", produces = MediaType.TEXT_PLAIN_VALUE)
+    public String profileCollapsed(@PathVariable Long id, @RequestBody List<JsonNode> orders) throws IOException {
+        return profile(id, orders).collapsed();
+    }
+}
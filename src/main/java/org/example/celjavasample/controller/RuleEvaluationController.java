@@ -0,0 +1,170 @@
+package org.example.celjavasample.controller;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.AbstractIterator;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.example.celjavasample.service.BulkEvaluationService;
+import org.example.celjavasample.service.BulkEvaluationService.BulkResult;
+import org.example.celjavasample.service.OrderRescoringService;
+import org.example.celjavasample.service.RuleEvaluation;
+import org.example.celjavasample.service.RuleService;
+import org.example.celjavasample.utils.JsonNodeActivation;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+@RestController
+@RequestMapping("/api/evaluations")
+@RequiredArgsConstructor
+public class RuleEvaluationController {
+
+    private static final int FLUSH_EVERY = 64;
+
+    private final RuleService ruleService;
+
+    private final BulkEvaluationService bulkEvaluationService;
+
+    private final OrderRescoringService rescoringService;
+
+    private final ObjectMapper objectMapper;
+
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
+    public RuleEvaluation evaluate(@RequestBody String order) throws JsonProcessingException {
+        return ruleService.evaluateAll(order);
+    }
+
+    public record Amendment(RuleEvaluation previous, JsonNode before, JsonNode after) {
+    }
+
+    /**
+     * Re-scores an amended order from its previous version and result, re-running only the rules
+     * that read something the amendment changed. Rewards are always computed here; a previous
+     * result naming rules the active set doesn't have is rejected.
+     */
+    @PostMapping(path = "/amended", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public RuleEvaluation reevaluate(@RequestBody Amendment amendment) {
+        try {
+            return ruleService.reevaluate(amendment.previous(),
+                    new JsonNodeActivation(amendment.before()), new JsonNodeActivation(amendment.after()));
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Re-scores every stored order with the active rules and stores the rewards.
+     */
+    @PostMapping("/rescore")
+    public OrderRescoringService.RescoreSummary rescore() {
+        return rescoringService.rescoreAll();
+    }
+
+    /**
+     * Evaluates an NDJSON stream of orders, one per line, and streams back one result per line in
+     * the same order. Blank lines are skipped.
+     */
+    @PostMapping(path = "/bulk", consumes = MediaType.APPLICATION_NDJSON_VALUE, produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> evaluateNdjson(HttpServletRequest request) throws IOException {
+        InputStream body = request.getInputStream();
+        StreamingResponseBody response = out -> {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+            JsonGenerator generator = objectMapper.createGenerator(out);
+            generator.setRootValueSeparator(new SerializedString("\n"));
+            if (bulkEvaluationService.evaluateJson(lines(reader), result -> write(generator, out, result)) > 0) {
+                generator.writeRaw('\n');
+            }
+            generator.flush();
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(response);
+    }
+
+    /**
+     * Evaluates a JSON array of orders and streams back a JSON array of results in the same order.
+     * Neither array is held in memory whole.
+     */
+    @PostMapping(path = "/bulk", consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> evaluateArray(HttpServletRequest request) throws IOException {
+        JsonParser parser = objectMapper.createParser(request.getInputStream());
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            parser.close();
+            return ResponseEntity.badRequest().build();
+        }
+        StreamingResponseBody response = out -> {
+            try (parser; JsonGenerator generator = objectMapper.createGenerator(out)) {
+                generator.writeStartArray();
+                bulkEvaluationService.evaluateNodes(elements(parser), result -> write(generator, out, result));
+                generator.writeEndArray();
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(response);
+    }
+
+    private static void write(JsonGenerator generator, OutputStream out, BulkResult result) {
+        try {
+            generator.writePOJO(result);
+            // Push results out in small chunks rather than letting the whole response buffer up
+            if (result.index() % FLUSH_EVERY == FLUSH_EVERY - 1) {
+                generator.flush();
+                out.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Iterator<String> lines(BufferedReader reader) {
+        return new AbstractIterator<>() {
+            @Override
+            protected String computeNext() {
+                try {
+                    String line;
+                    do {
+                        line = reader.readLine();
+                    } while (line != null && line.isBlank());
+                    return line != null ? line : endOfData();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    private static Iterator<JsonNode> elements(JsonParser parser) {
+        return new AbstractIterator<>() {
+            @Override
+            protected JsonNode computeNext() {
+                try {
+                    JsonToken token = parser.nextToken();
+                    if (token == null || token == JsonToken.END_ARRAY) {
+                        return endOfData();
+                    }
+                    return parser.readValueAsTree();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+}
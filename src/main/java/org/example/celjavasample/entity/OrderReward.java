@@ -0,0 +1,27 @@
+package org.example.celjavasample.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * Latest reward computed for a stored order. Written in bulk by the re-scoring job, keyed by the
+ * {@code orders.id} it belongs to.
+ */
+@Data
+@Entity
+@Table(name = "order_rewards")
+public class OrderReward {
+    @Id
+    private Long orderId;
+
+    private Long ruleSetVersion;
+
+    // Comma-separated ids of the rules the order matched
+    @Column(columnDefinition = "TEXT")
+    private String matchedRules;
+
+    private Double totalReward;
+    private Instant scoredAt;
+}
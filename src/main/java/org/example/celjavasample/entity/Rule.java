@@ -23,4 +23,17 @@ public class Rule {
     private Double maxCap;
     private Double fixedAmount;
     private Boolean active = true;
+
+    // Serialized CheckedExpr of celExpression, valid only for the compiler environment in envHash
+    // and for the expression hashed in expressionHash
+    private byte[] checkedAst;
+
+    private String envHash;
+
+    private String expressionHash;
+
+    // Bumped on every write, by Hibernate or by the rules_notify_change trigger for writes made outside the app
+    @Version
+    @Column(columnDefinition = "bigint default 0")
+    private Long version;
 }
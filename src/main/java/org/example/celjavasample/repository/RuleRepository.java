@@ -3,6 +3,7 @@ package org.example.celjavasample.repository;
 
 import org.example.celjavasample.entity.Rule;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
@@ -12,4 +13,14 @@ public interface RuleRepository extends JpaRepository<Rule, Long> {
 
     List<Rule> findByActiveTrue();
 
+    @Query("select new org.example.celjavasample.repository.RuleVersion(r.id, r.version) from Rule r where r.active = true")
+    List<RuleVersion> findActiveVersions();
+
+    // Must match RuleSet.checksum()
+    @Query(value = """
+            SELECT md5(coalesce(string_agg(id || ':' || coalesce(version, 0), ',' ORDER BY id), ''))
+            FROM rules WHERE active
+            """, nativeQuery = true)
+    String activeVersionsChecksum();
+
 }
@@ -0,0 +1,4 @@
+package org.example.celjavasample.repository;
+
+public record RuleVersion(Long id, Long version) {
+}
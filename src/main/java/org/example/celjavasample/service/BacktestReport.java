@@ -0,0 +1,17 @@
+package org.example.celjavasample.service;
+
+import java.util.List;
+
+/**
+ * How a set of candidate rules would have scored an archive of past orders. {@code malformed}
+ * counts archive records that could not be read as orders.
+ */
+public record BacktestReport(long orders,
+                             long malformed,
+                             long elapsedMillis,
+                             List<RuleStats> rules,
+                             List<RuleSet.RuleCompileError> errors) {
+
+    public record RuleStats(Long ruleId, String name, long matches, double totalReward, long errors) {
+    }
+}
@@ -0,0 +1,167 @@
+package org.example.celjavasample.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.celjavasample.entity.Rule;
+import org.example.celjavasample.utils.CelJsonReader;
+import org.example.celjavasample.utils.CelJsonUtils;
+import org.example.celjavasample.utils.MappedNdjson;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Replays an NDJSON order archive (see {@link OrderArchiveExporter}) against candidate rules that
+ * need not be active. The archive is memory-mapped in segments cut on record boundaries, and the
+ * segments are evaluated in parallel on the common fork/join pool.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BacktestService {
+
+    private static final long MIN_SEGMENT_SIZE = 1L << 20;
+
+    private final RuleSetService ruleSetService;
+
+    private final RuleService ruleService;
+
+    private final CelJsonReader jsonReader;
+
+    public BacktestReport run(Path archive, List<Rule> candidates) throws IOException {
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            // A few segments per worker keeps the cores busy when some segments run slower
+            long target = channel.size() / (ForkJoinPool.getCommonPoolParallelism() * 4L);
+            return run(archive, candidates, Math.clamp(target, MIN_SEGMENT_SIZE, MappedNdjson.MAX_SEGMENT_SIZE));
+        }
+    }
+
+    public BacktestReport run(Path archive, List<Rule> candidates, long segmentSize) throws IOException {
+        long started = System.nanoTime();
+        RuleSet ruleSet = ruleSetService.preview(candidates);
+
+        Tally tally;
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.READ)) {
+            List<MappedNdjson.Segment> segments = MappedNdjson.split(channel, segmentSize);
+            tally = segments.isEmpty()
+                    ? new Tally(ruleSet.size())
+                    : ForkJoinPool.commonPool().invoke(new ReplayTask(channel, segments, 0, segments.size(), ruleSet));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        List<BacktestReport.RuleStats> stats = new ArrayList<>(ruleSet.size());
+        for (int i = 0; i < ruleSet.size(); i++) {
+            CompiledRule rule = ruleSet.rules().get(i);
+            stats.add(new BacktestReport.RuleStats(rule.id(), rule.name(), tally.matches[i], tally.rewards[i], tally.errors[i]));
+        }
+        long elapsed = (System.nanoTime() - started) / 1_000_000;
+        log.info("Backtested {} rules over {} orders from {} in {} ms", ruleSet.size(), tally.orders, archive, elapsed);
+        return new BacktestReport(tally.orders, tally.malformed, elapsed, stats, ruleSet.errors());
+    }
+
+    private final class ReplayTask extends RecursiveTask<Tally> {
+
+        private final FileChannel channel;
+
+        private final List<MappedNdjson.Segment> segments;
+
+        private final int from;
+
+        private final int to;
+
+        private final RuleSet ruleSet;
+
+        private ReplayTask(FileChannel channel, List<MappedNdjson.Segment> segments, int from, int to, RuleSet ruleSet) {
+            this.channel = channel;
+            this.segments = segments;
+            this.from = from;
+            this.to = to;
+            this.ruleSet = ruleSet;
+        }
+
+        @Override
+        protected Tally compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                ReplayTask left = new ReplayTask(channel, segments, from, mid, ruleSet);
+                left.fork();
+                Tally right = new ReplayTask(channel, segments, mid, to, ruleSet).compute();
+                return left.join().add(right);
+            }
+
+            Tally tally = new Tally(ruleSet.size());
+            try {
+                MappedNdjson.forEachRecord(MappedNdjson.map(channel, segments.get(from)),
+                        (buffer, offset, length) -> replay(buffer, offset, length, tally));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return tally;
+        }
+
+        private void replay(byte[] buffer, int offset, int length, Tally tally) {
+            Map<String, Object> order;
+            try {
+                // The projection keeps totalAmount, so MULTIPLIER candidates are paid even if no rule reads it
+                order = jsonReader.readObject(buffer, offset, length, ruleSet.variables());
+            } catch (JsonProcessingException e) {
+                tally.malformed++;
+                return;
+            }
+            tally.orders++;
+            List<RuleOutcome> outcomes = ruleService.evaluateCandidates(ruleSet, CelJsonUtils.variableResolver(order)).outcomes();
+            for (int i = 0; i < outcomes.size(); i++) {
+                RuleOutcome outcome = outcomes.get(i);
+                if (outcome.error() != null) {
+                    tally.errors[i]++;
+                } else if (outcome.matched()) {
+                    tally.matches[i]++;
+                    if (outcome.reward() != null) {
+                        tally.rewards[i] += outcome.reward();
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Tally {
+
+        private long orders;
+
+        private long malformed;
+
+        private final long[] matches;
+
+        private final double[] rewards;
+
+        private final long[] errors;
+
+        private Tally(int rules) {
+            matches = new long[rules];
+            rewards = new double[rules];
+            errors = new long[rules];
+        }
+
+        private Tally add(Tally other) {
+            orders += other.orders;
+            malformed += other.malformed;
+            for (int i = 0; i < matches.length; i++) {
+                matches[i] += other.matches[i];
+                rewards[i] += other.rewards[i];
+                errors[i] += other.errors[i];
+            }
+            return this;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.example.celjavasample.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Evaluates batches of orders against the active rules, one virtual thread per order. At most
+ * {@code cel.bulk.max-concurrency} orders are in flight: the producer reads the next order only
+ * once there is room, so a large batch is never held in memory whole. Results are handed to the
+ * sink in input order as soon as every earlier order has finished.
+ */
+@Slf4j
+@Service
+public class BulkEvaluationService {
+
+    private final RuleService ruleService;
+
+    private final int maxConcurrency;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public BulkEvaluationService(RuleService ruleService,
+                                @Value("${cel.bulk.max-concurrency:256}") int maxConcurrency) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("cel.bulk.max-concurrency must be at least 1: " + maxConcurrency);
+        }
+        this.ruleService = ruleService;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * Evaluates raw JSON orders, e.g. the lines of an NDJSON stream. Returns the number of orders read.
+     */
+    public long evaluateJson(Iterator<String> orders, Consumer<BulkResult> sink) {
+        return evaluate(orders, ruleService::evaluateAll, sink);
+    }
+
+    public long evaluateNodes(Iterator<JsonNode> orders, Consumer<BulkResult> sink) {
+        return evaluate(orders, ruleService::evaluateAll, sink);
+    }
+
+    /**
+     * Evaluates every order the iterator yields and passes the results to {@code sink}, in input
+     * order, on the calling thread. The iterator is also consumed on the calling thread. A failing
+     * order produces a result carrying the error; a failing sink or iterator stops the batch and
+     * cancels the orders still in flight.
+     */
+    public <T> long evaluate(Iterator<T> orders, Evaluator<T> evaluator, Consumer<BulkResult> sink) {
+        Deque<CompletableFuture<BulkResult>> inFlight = new ArrayDeque<>(Math.min(maxConcurrency, 1024));
+        long count = 0;
+        try {
+            while (orders.hasNext()) {
+                if (inFlight.size() >= maxConcurrency) {
+                    sink.accept(inFlight.removeFirst().join());
+                }
+                T order = orders.next();
+                long index = count++;
+                inFlight.addLast(CompletableFuture.supplyAsync(() -> evaluate(index, order, evaluator), executor));
+                // Hand over whatever is already done without waiting
+                while (!inFlight.isEmpty() && inFlight.peekFirst().isDone()) {
+                    sink.accept(inFlight.removeFirst().join());
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                sink.accept(inFlight.removeFirst().join());
+            }
+            return count;
+        } finally {
+            if (!inFlight.isEmpty()) {
+                log.warn("Bulk evaluation stopped after {} orders, cancelling {} in flight", count, inFlight.size());
+                inFlight.forEach(f -> f.cancel(true));
+            }
+        }
+    }
+
+    private static <T> BulkResult evaluate(long index, T order, Evaluator<T> evaluator) {
+        try {
+            return new BulkResult(index, evaluator.evaluate(order), null);
+        } catch (Exception e) {
+            return new BulkResult(index, null, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @FunctionalInterface
+    public interface Evaluator<T> {
+        RuleEvaluation evaluate(T order) throws Exception;
+    }
+
+    /**
+     * Result for the order at {@code index} (0-based) in the batch: its evaluation, or the error
+     * that kept it from being evaluated, such as malformed JSON.
+     */
+    public record BulkResult(long index, RuleEvaluation evaluation, String error) {
+    }
+}
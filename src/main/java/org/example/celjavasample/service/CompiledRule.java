@@ -0,0 +1,47 @@
+package org.example.celjavasample.service;
+
+import dev.cel.common.CelAbstractSyntaxTree;
+import dev.cel.runtime.CelRuntime;
+
+import java.util.Set;
+
+public record CompiledRule(
+        Long id,
+        Long version,
+        String name,
+        String expression,
+        String rewardType,
+        Double multiplier,
+        Double maxCap,
+        Double fixedAmount,
+        CelAbstractSyntaxTree ast,
+        CelRuntime.Program program,
+        Set<String> variables,
+        // Input paths the rule reads, see CelAstUtils.referencedPaths
+        Set<String> dependencies
+) {
+
+    public static final String REWARD_FIXED = "FIXED";
+    public static final String REWARD_MULTIPLIER = "MULTIPLIER";
+
+    // Input field MULTIPLIER rewards are paid on
+    public static final String BASE_AMOUNT = "totalAmount";
+
+    /**
+     * Reward earned by an order that matched this rule. FIXED rules pay {@code fixedAmount};
+     * MULTIPLIER rules pay {@code baseAmount * multiplier}, capped at {@code maxCap} when set.
+     */
+    public Double reward(Double baseAmount) {
+        if (REWARD_FIXED.equalsIgnoreCase(rewardType)) {
+            return fixedAmount;
+        }
+        if (REWARD_MULTIPLIER.equalsIgnoreCase(rewardType)) {
+            if (baseAmount == null || multiplier == null) {
+                return null;
+            }
+            double reward = baseAmount * multiplier;
+            return maxCap != null ? Math.min(reward, maxCap) : reward;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,96 @@
+package org.example.celjavasample.service;
+
+import dev.cel.common.CelErrorCode;
+import dev.cel.common.ast.CelExpr;
+import dev.cel.runtime.CelEvaluationException;
+import dev.cel.runtime.CelEvaluationListener;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Wall-clock budget for a single rule evaluation. cel-java cannot cancel an evaluation, so a
+ * budgeted rule runs through {@code Program.trace} with a listener that checks the clock every
+ * few nodes and aborts the evaluation once it is over time. Shared subexpressions run under the
+ * same budget, see {@link SharedSubexpressions#bind(dev.cel.runtime.CelVariableResolver, EvaluationBudget)}.
+ * <p>
+ * Tracing calls the listener on every node, which costs enough on the hot path that the budget is
+ * off by default ({@code 0ms}) and unbudgeted evaluations run through {@code Program.eval}. Turn
+ * it on where rules are not vetted on save by the cost limits ({@code cel.cost.max}).
+ * <p>
+ * The iteration limit ({@code cel.eval.max-iterations}) is enforced by the runtime itself; both
+ * surface as {@link RuleOutcome.Status#BUDGET_EXCEEDED}.
+ */
+@Component
+public class EvaluationBudget {
+
+    // Checking the clock on every node would cost more than most nodes do
+    private static final int CHECK_EVERY = 32;
+
+    private final long budgetNanos;
+
+    public EvaluationBudget(@Value("${cel.eval.time-budget:0ms}") Duration budget) {
+        this.budgetNanos = budget.toNanos();
+    }
+
+    public static EvaluationBudget unlimited() {
+        return new EvaluationBudget(Duration.ZERO);
+    }
+
+    public boolean enabled() {
+        return budgetNanos > 0;
+    }
+
+    /**
+     * A listener that aborts the evaluation it is passed to once the budget, counted from now, is
+     * spent. One per evaluation.
+     */
+    public CelEvaluationListener start() {
+        return new Deadline(System.nanoTime() + budgetNanos, budgetNanos);
+    }
+
+    public static boolean isExceeded(CelEvaluationException e) {
+        // A shared value over budget reaches the rule reading it as the cause of its error
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof BudgetExceededException
+                    || t instanceof CelEvaluationException c && c.getErrorCode() == CelErrorCode.ITERATION_BUDGET_EXCEEDED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Deadline implements CelEvaluationListener {
+
+        private final long deadline;
+
+        private final long budgetNanos;
+
+        private int nodes;
+
+        private boolean expired;
+
+        private Deadline(long deadline, long budgetNanos) {
+            this.deadline = deadline;
+            this.budgetNanos = budgetNanos;
+        }
+
+        @Override
+        public void callback(CelExpr expr, Object result) {
+            // Comprehensions absorb a failed step as an error value and keep iterating, so once
+            // expired every further node has to fail for the evaluation to actually stop
+            if (expired || (++nodes % CHECK_EVERY == 0 && System.nanoTime() - deadline > 0)) {
+                expired = true;
+                throw new BudgetExceededException(budgetNanos);
+            }
+        }
+    }
+
+    private static final class BudgetExceededException extends RuntimeException {
+
+        private BudgetExceededException(long budgetNanos) {
+            super("Time budget of " + Duration.ofNanos(budgetNanos).toMillis() + " ms exceeded", null, false, false);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package org.example.celjavasample.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Exports the {@code orders} and {@code order_items} tables into an NDJSON archive for
+ * {@link BacktestService}. Each line is one order in the shape {@link org.example.celjavasample.utils.OrderActivation}
+ * presents a stored order to CEL, so a backtest scores archived orders the way a re-score of the
+ * entity would.
+ * <p>
+ * Orders and their items are read in one pass over a server-side cursor, ordered by order, and
+ * written as they arrive. The archive is written to a temporary file and moved into place when
+ * complete.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class OrderArchiveExporter {
+
+    private static final int FETCH_SIZE = 5000;
+
+    private static final String SELECT = """
+            SELECT o.id, o.order_id, o.total_amount, o.transaction_date, o.channel, o.salesperson_id,
+                   i.id AS item_pk, i.item_id, i.sku, i.quantity, i.price, i.amount
+            FROM orders o
+            LEFT JOIN order_items i ON i.order_id = o.id
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Writes every order with a transaction date on or after {@code since} (ISO date, compared as
+     * stored; all orders when {@code null}) to {@code target}. Returns the number of orders written.
+     */
+    @Transactional(readOnly = true)
+    public long export(Path target, String since) throws IOException {
+        String sql = SELECT + (since != null ? "WHERE o.transaction_date >= ?\n" : "") + "ORDER BY o.id, i.id";
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".part");
+        try {
+            long count;
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16);
+                 JsonGenerator generator = objectMapper.createGenerator(out)) {
+                generator.setRootValueSeparator(new SerializedString("\n"));
+                ArchiveWriter writer = new ArchiveWriter(generator);
+                jdbcTemplate.query(con -> {
+                    // PostgreSQL only streams with a fetch size inside a transaction
+                    PreparedStatement statement = con.prepareStatement(sql);
+                    statement.setFetchSize(FETCH_SIZE);
+                    if (since != null) {
+                        statement.setString(1, since);
+                    }
+                    return statement;
+                }, writer::row);
+                count = writer.finish();
+                generator.writeRaw('\n');
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.info("Exported {} orders to {}", count, target);
+            return count;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static final class ArchiveWriter {
+
+        private final JsonGenerator generator;
+
+        private Long current;
+
+        private long count;
+
+        private ArchiveWriter(JsonGenerator generator) {
+            this.generator = generator;
+        }
+
+        private void row(ResultSet rs) throws SQLException {
+            try {
+                long id = rs.getLong("id");
+                if (current == null || current != id) {
+                    endOrder();
+                    startOrder(rs);
+                    current = id;
+                }
+                rs.getLong("item_pk");
+                if (!rs.wasNull()) {
+                    writeItem(rs);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void startOrder(ResultSet rs) throws SQLException, IOException {
+            String channel = rs.getString("channel");
+            String salespersonId = rs.getString("salesperson_id");
+            generator.writeStartObject();
+            generator.writeStringField("orderId", rs.getString("order_id"));
+            writeDouble("totalAmount", rs, "total_amount");
+            generator.writeStringField("transactionDate", rs.getString("transaction_date"));
+            generator.writeStringField("channel", channel);
+            generator.writeStringField("salespersonId", salespersonId);
+            generator.writeObjectFieldStart("additional_info");
+            generator.writeStringField("channel", channel);
+            generator.writeStringField("source_sales_person_id", salespersonId);
+            generator.writeEndObject();
+            generator.writeArrayFieldStart("items");
+        }
+
+        private void writeItem(ResultSet rs) throws SQLException, IOException {
+            generator.writeStartObject();
+            generator.writeStringField("id", rs.getString("item_id"));
+            generator.writeStringField("sku", rs.getString("sku"));
+            int quantity = rs.getInt("quantity");
+            if (rs.wasNull()) {
+                generator.writeNullField("quantity");
+            } else {
+                generator.writeNumberField("quantity", quantity);
+            }
+            writeDouble("price", rs, "price");
+            writeDouble("amount", rs, "amount");
+            generator.writeEndObject();
+        }
+
+        private void writeDouble(String field, ResultSet rs, String column) throws SQLException, IOException {
+            double value = rs.getDouble(column);
+            if (rs.wasNull()) {
+                generator.writeNullField(field);
+            } else {
+                generator.writeNumberField(field, value);
+            }
+        }
+
+        private void endOrder() throws IOException {
+            if (current != null) {
+                generator.writeEndArray();
+                generator.writeEndObject();
+                count++;
+            }
+        }
+
+        private long finish() {
+            try {
+                endOrder();
+                current = null;
+                return count;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package org.example.celjavasample.service;
+
+import dev.cel.common.types.CelType;
+import dev.cel.common.types.MapType;
+import dev.cel.common.types.SimpleType;
+import dev.cel.runtime.CelVariableResolver;
+import lombok.extern.slf4j.Slf4j;
+import org.example.celjavasample.entity.Order;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.sql.PreparedStatement;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Rolling order totals and counts per salesperson and per channel, kept in memory so rules can
+ * read them without a database round-trip. Rules see them as the {@value #VARIABLE} variable:
+ * <pre>
+ * history.salesperson.month.total > 50000000.0
+ * history.channel.week.count >= 2
+ * </pre>
+ * with {@code day}, {@code week} (ISO, from Monday) and {@code month} windows of {@code total}
+ * (double) and {@code count} (int). Windows are calendar periods of the order's
+ * {@code transactionDate} and cover the orders recorded so far on or before that date, so the
+ * order being scored is not part of its own history until it has been ingested. Keys are read
+ * like {@code OrderIngestionService} maps them: top-level {@code salespersonId} and
+ * {@code channel}, falling back to {@code additional_info}.
+ * <p>
+ * Each key holds one bucket per day for the last {@value #DAYS} days. The store is rebuilt from
+ * the {@code orders} table at startup and fed by ingestion; orders ingested by other replicas are
+ * only seen after this node's next rebuild.
+ */
+@Slf4j
+@Service
+public class OrderHistory {
+
+    public static final String VARIABLE = "history";
+
+    // history.<dimension>.<window>.<field>
+    public static final CelType TYPE =
+            MapType.create(SimpleType.STRING, MapType.create(SimpleType.STRING, MapType.create(SimpleType.STRING, SimpleType.DYN)));
+
+    /**
+     * Top-level fields the history of an order is looked up by, read whenever a rule reads {@value #VARIABLE}.
+     */
+    public static final Set<String> INPUTS = Set.of("salespersonId", "channel", "additional_info", "transactionDate");
+
+    // A power of two, and more than a month plus the days an order may arrive late
+    static final int DAYS = 64;
+
+    private static final String SELECT_ORDERS = """
+            SELECT id, salesperson_id, channel, transaction_date, total_amount FROM orders
+            WHERE transaction_date >= ?
+            """;
+
+    private static final int FETCH_SIZE = 1_000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private volatile Store store = new Store();
+
+    // Orders recorded while a rebuild runs, by id, applied on top of it once it is done
+    private Map<Long, Order> pending;
+
+    public OrderHistory(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * History that starts empty and is only fed through {@link #record}.
+     */
+    public static OrderHistory inMemory() {
+        return new OrderHistory(null);
+    }
+
+    /**
+     * Adds the variables a rule set reads when it reads {@value #VARIABLE} to that set.
+     */
+    public static Set<String> withInputs(Set<String> variables) {
+        if (!variables.contains(VARIABLE)) {
+            return variables;
+        }
+        Set<String> all = new HashSet<>(variables);
+        all.addAll(INPUTS);
+        return all;
+    }
+
+    public void record(Order order) {
+        synchronized (this) {
+            if (pending != null && order.getId() != null) {
+                pending.put(order.getId(), order);
+                return;
+            }
+        }
+        store.add(order);
+    }
+
+    /**
+     * Replaces the store with one read from the {@code orders} table. Orders recorded meanwhile
+     * are added on top of it, and the scan skips those it reads after they were recorded.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void rebuild() {
+        if (jdbcTemplate == null) {
+            return;
+        }
+        long started = System.nanoTime();
+        Map<Long, Order> recorded = new ConcurrentHashMap<>();
+        synchronized (this) {
+            pending = recorded;
+        }
+        Store rebuilt = new Store();
+        long[] rows = new long[1];
+        try {
+            String since = LocalDate.now().minusDays(DAYS - 1).toString();
+            jdbcTemplate.query(con -> {
+                // PostgreSQL only streams with a fetch size inside a transaction
+                PreparedStatement statement = con.prepareStatement(SELECT_ORDERS);
+                statement.setFetchSize(FETCH_SIZE);
+                statement.setString(1, since);
+                return statement;
+            }, rs -> {
+                if (!recorded.containsKey(rs.getLong("id"))) {
+                    rebuilt.add(rs.getString("salesperson_id"), rs.getString("channel"),
+                            rs.getString("transaction_date"), rs.getObject("total_amount", Double.class));
+                    rows[0]++;
+                }
+            });
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                pending = null;
+                recorded.values().forEach(store::add);
+            }
+            throw e;
+        }
+        synchronized (this) {
+            pending = null;
+            recorded.values().forEach(rebuilt::add);
+            store = rebuilt;
+        }
+        log.info("Rebuilt order history from {} orders in {} ms", rows[0], (System.nanoTime() - started) / 1_000_000);
+    }
+
+    public record Window(double total, long count) {
+    }
+
+    public Window salesperson(String salespersonId, LocalDate date, Period period) {
+        return store.window(store.salespeople, salespersonId, date, period);
+    }
+
+    public Window channel(String channel, LocalDate date, Period period) {
+        return store.window(store.channels, channel, date, period);
+    }
+
+    public enum Period {
+        DAY, WEEK, MONTH;
+
+        LocalDate start(LocalDate date) {
+            return switch (this) {
+                case DAY -> date;
+                case WEEK -> date.with(DayOfWeek.MONDAY);
+                case MONTH -> date.withDayOfMonth(1);
+            };
+        }
+    }
+
+    /**
+     * The input with {@value #VARIABLE} resolved for the order it holds, computed on first read.
+     * Inputs that already have it are returned as they are.
+     */
+    public CelVariableResolver bind(CelVariableResolver input) {
+        return input instanceof Bound ? input : new Bound(input);
+    }
+
+    private final class Bound implements CelVariableResolver {
+
+        private final CelVariableResolver input;
+
+        private Map<String, Object> history;
+
+        private Bound(CelVariableResolver input) {
+            this.input = input;
+        }
+
+        @Override
+        public Optional<Object> find(String name) {
+            if (!VARIABLE.equals(name)) {
+                return input.find(name);
+            }
+            if (history == null) {
+                LocalDate date = date(text(input.find("transactionDate").orElse(null)));
+                Store current = store;
+                String salespersonId = key("salespersonId", "source_sales_person_id");
+                history = Map.of(
+                        "salesperson", windows(current, current.salespeople, salespersonId, date),
+                        "channel", windows(current, current.channels, key("channel", "channel"), date));
+            }
+            return Optional.of(history);
+        }
+
+        private String key(String field, String additionalInfoField) {
+            String value = text(input.find(field).orElse(null));
+            if (value == null && input.find("additional_info").orElse(null) instanceof Map<?, ?> info) {
+                value = text(info.get(additionalInfoField));
+            }
+            return value;
+        }
+
+        private static Map<String, Object> windows(Store store, Map<String, Series> series, String key, LocalDate date) {
+            Map<String, Object> windows = new HashMap<>();
+            for (Period period : Period.values()) {
+                Window window = store.window(series, key, date, period);
+                windows.put(period.name().toLowerCase(Locale.ROOT), Map.of("total", window.total(), "count", window.count()));
+            }
+            return windows;
+        }
+
+        private static String text(Object value) {
+            return value == null ? null : value.toString();
+        }
+    }
+
+    private static LocalDate date(String transactionDate) {
+        LocalDate date = parse(transactionDate);
+        return date != null ? date : LocalDate.now();
+    }
+
+    private static LocalDate parse(String transactionDate) {
+        if (transactionDate == null || transactionDate.length() < 10) {
+            return null;
+        }
+        try {
+            return LocalDate.parse(transactionDate.substring(0, 10));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static final class Store {
+
+        private final Map<String, Series> salespeople = new ConcurrentHashMap<>();
+
+        private final Map<String, Series> channels = new ConcurrentHashMap<>();
+
+        void add(Order order) {
+            add(order.getSalespersonId(), order.getChannel(), order.getTransactionDate(), order.getTotalAmount());
+        }
+
+        void add(String salespersonId, String channel, String transactionDate, Double amount) {
+            LocalDate date = parse(transactionDate);
+            if (date == null) {
+                return;
+            }
+            double value = amount == null ? 0 : amount;
+            if (salespersonId != null) {
+                salespeople.computeIfAbsent(salespersonId, k -> new Series()).add(date.toEpochDay(), value);
+            }
+            if (channel != null) {
+                channels.computeIfAbsent(channel, k -> new Series()).add(date.toEpochDay(), value);
+            }
+        }
+
+        Window window(Map<String, Series> series, String key, LocalDate date, Period period) {
+            Series s = key == null ? null : series.get(key);
+            return s == null ? new Window(0, 0) : s.sum(period.start(date).toEpochDay(), date.toEpochDay());
+        }
+    }
+
+    /**
+     * Daily buckets of one key, in a ring of {@value #DAYS} slots indexed by epoch day. A slot holds
+     * the day it was last written for, so a bucket left over from {@value #DAYS} days earlier reads
+     * as empty.
+     */
+    private static final class Series {
+
+        private final long[] days = new long[DAYS];
+        private final double[] totals = new double[DAYS];
+        private final long[] counts = new long[DAYS];
+
+        private long latest = Long.MIN_VALUE;
+
+        private Series() {
+            Arrays.fill(days, Long.MIN_VALUE);
+        }
+
+        synchronized void add(long day, double amount) {
+            if (latest != Long.MIN_VALUE && day <= latest - DAYS) {
+                // Older than anything kept
+                return;
+            }
+            latest = Math.max(latest, day);
+            int slot = (int) (day & (DAYS - 1));
+            if (days[slot] != day) {
+                days[slot] = day;
+                totals[slot] = 0;
+                counts[slot] = 0;
+            }
+            totals[slot] += amount;
+            counts[slot]++;
+        }
+
+        synchronized Window sum(long from, long to) {
+            double total = 0;
+            long count = 0;
+            for (long day = Math.max(from, to - DAYS + 1); day <= to; day++) {
+                int slot = (int) (day & (DAYS - 1));
+                if (days[slot] == day) {
+                    total += totals[slot];
+                    count += counts[slot];
+                }
+            }
+            return new Window(total, count);
+        }
+    }
+}
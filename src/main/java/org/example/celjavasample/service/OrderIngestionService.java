@@ -0,0 +1,226 @@
+package org.example.celjavasample.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import lombok.extern.slf4j.Slf4j;
+import org.example.celjavasample.entity.Order;
+import org.example.celjavasample.entity.OrderItem;
+import org.example.celjavasample.entity.OrderReward;
+import org.example.celjavasample.utils.OrderActivation;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Ingests orders from the POS feeds, one JSON order per element, and scores each with the active
+ * rules on the way in. An order is parsed once into its entity, evaluated through
+ * {@link OrderActivation} and persisted together with its {@link OrderReward}.
+ * <p>
+ * Orders are written in chunks of {@code cel.ingest.chunk-size}, one transaction per chunk, and the
+ * persistence context is flushed and cleared after each. Ids come from pooled sequences, so
+ * Hibernate can group the inserts of a chunk into JDBC batches of
+ * {@code hibernate.jdbc.batch_size} rows per table instead of one round-trip per row.
+ */
+@Slf4j
+@Service
+public class OrderIngestionService {
+
+    // Moves a sequence past ids handed out while the tables still used identity columns; never moves it back
+    private static final String ALIGN_SEQUENCE = """
+            SELECT setval('%1$s', m) FROM (SELECT MAX(id) AS m FROM %2$s) t
+            WHERE m IS NOT NULL AND m >= (SELECT last_value FROM %1$s)
+            """;
+
+    private final EntityManager entityManager;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final RuleSetService ruleSetService;
+
+    private final BulkEvaluationService bulkEvaluationService;
+
+    private final RuleService ruleService;
+
+    private final ObjectMapper objectMapper;
+
+    private final OrderHistory orderHistory;
+
+    private final int chunkSize;
+
+    public OrderIngestionService(EntityManager entityManager,
+                                 PlatformTransactionManager transactionManager,
+                                 JdbcTemplate jdbcTemplate,
+                                 RuleSetService ruleSetService,
+                                 BulkEvaluationService bulkEvaluationService,
+                                 RuleService ruleService,
+                                 ObjectMapper objectMapper,
+                                 OrderHistory orderHistory,
+                                 @Value("${cel.ingest.chunk-size:500}") int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("cel.ingest.chunk-size must be at least 1: " + chunkSize);
+        }
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.jdbcTemplate = jdbcTemplate;
+        this.ruleSetService = ruleSetService;
+        this.bulkEvaluationService = bulkEvaluationService;
+        this.ruleService = ruleService;
+        this.objectMapper = objectMapper;
+        this.orderHistory = orderHistory;
+        this.chunkSize = chunkSize;
+    }
+
+    public record IngestSummary(long ruleSetVersion, long orders, long malformed, long chunks, double totalReward, long elapsedMillis) {
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void alignSequences() {
+        jdbcTemplate.queryForList(ALIGN_SEQUENCE.formatted("orders_seq", "orders"));
+        jdbcTemplate.queryForList(ALIGN_SEQUENCE.formatted("order_items_seq", "order_items"));
+    }
+
+    /**
+     * Stores every order the iterator yields, e.g. the lines of an NDJSON feed. Orders that are not
+     * valid JSON objects are logged and skipped. All orders of one call are scored with the rule set
+     * active when it starts; chunks already committed stay committed if a later chunk fails.
+     */
+    public IngestSummary ingest(Iterator<String> orders) {
+        long started = System.nanoTime();
+        RuleSet ruleSet = ruleSetService.current();
+        long stored = 0;
+        long malformed = 0;
+        long chunks = 0;
+        double totalReward = 0;
+        long line = 0;
+
+        List<Order> chunk = new ArrayList<>(chunkSize);
+        while (orders.hasNext()) {
+            String json = orders.next();
+            line++;
+            Order order = parse(json, line);
+            if (order == null) {
+                malformed++;
+            } else {
+                chunk.add(order);
+            }
+            if (chunk.size() == chunkSize || (!orders.hasNext() && !chunk.isEmpty())) {
+                totalReward += store(chunk, ruleSet);
+                stored += chunk.size();
+                chunks++;
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+
+        long elapsed = (System.nanoTime() - started) / 1_000_000;
+        log.info("Ingested {} orders in {} chunks with rule set v{} in {} ms, {} malformed",
+                stored, chunks, ruleSet.version(), elapsed, malformed);
+        return new IngestSummary(ruleSet.version(), stored, malformed, chunks, totalReward, elapsed);
+    }
+
+    private double store(List<Order> chunk, RuleSet ruleSet) {
+        RuleEvaluation[] evaluations = new RuleEvaluation[chunk.size()];
+        bulkEvaluationService.evaluate(chunk.iterator(),
+                order -> ruleService.evaluateAll(ruleSet, new OrderActivation(order)),
+                result -> evaluations[(int) result.index()] = result.evaluation());
+
+        Instant scoredAt = Instant.now();
+        double total = transactionTemplate.execute(status -> {
+            double reward = 0;
+            for (int i = 0; i < chunk.size(); i++) {
+                Order order = chunk.get(i);
+                // The id is assigned here from the pooled block, without a round-trip
+                entityManager.persist(order);
+                if (evaluations[i] != null) {
+                    entityManager.persist(reward(order.getId(), evaluations[i], scoredAt));
+                    reward += evaluations[i].totalReward();
+                } else {
+                    log.warn("Order {} could not be scored", order.getOrderId());
+                }
+            }
+            entityManager.flush();
+            entityManager.clear();
+            return reward;
+        });
+        // Only once committed, so a failed chunk leaves no trace in the history either
+        chunk.forEach(orderHistory::record);
+        return total;
+    }
+
+    private static OrderReward reward(Long orderId, RuleEvaluation evaluation, Instant scoredAt) {
+        OrderReward reward = new OrderReward();
+        reward.setOrderId(orderId);
+        reward.setRuleSetVersion(evaluation.ruleSetVersion());
+        reward.setMatchedRules(evaluation.matched().stream()
+                .map(o -> String.valueOf(o.ruleId()))
+                .collect(Collectors.joining(",")));
+        reward.setTotalReward(evaluation.totalReward());
+        reward.setScoredAt(scoredAt);
+        return reward;
+    }
+
+    private Order parse(String json, long line) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(json);
+        } catch (Exception e) {
+            log.warn("Skipping malformed order on line {}: {}", line, e.getMessage());
+            return null;
+        }
+        if (node == null || !node.isObject()) {
+            log.warn("Skipping line {}: not a JSON object", line);
+            return null;
+        }
+        return toOrder(node);
+    }
+
+    /**
+     * Maps a POS order payload onto the entity. {@code channel} and {@code salespersonId} are taken
+     * from the top level or, as the POS feeds send them, from {@code additional_info}.
+     */
+    static Order toOrder(JsonNode node) {
+        JsonNode additionalInfo = node.path("additional_info");
+        Order order = new Order();
+        order.setOrderId(text(node, "orderId"));
+        order.setTotalAmount(number(node, "totalAmount"));
+        order.setTransactionDate(text(node, "transactionDate"));
+        order.setChannel(node.hasNonNull("channel") ? text(node, "channel") : text(additionalInfo, "channel"));
+        order.setSalespersonId(node.hasNonNull("salespersonId")
+                ? text(node, "salespersonId")
+                : text(additionalInfo, "source_sales_person_id"));
+        for (JsonNode itemNode : node.path("items")) {
+            OrderItem item = new OrderItem();
+            item.setItemId(text(itemNode, "id"));
+            item.setSku(text(itemNode, "sku"));
+            JsonNode quantity = itemNode.get("quantity");
+            item.setQuantity(quantity != null && quantity.isNumber() ? quantity.intValue() : null);
+            item.setPrice(number(itemNode, "price"));
+            item.setAmount(number(itemNode, "amount"));
+            item.setOrder(order);
+            order.getItems().add(item);
+        }
+        return order;
+    }
+
+    private static String text(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+    private static Double number(JsonNode node, String field) {
+        JsonNode value = node.get(field);
+        return value != null && value.isNumber() ? value.doubleValue() : null;
+    }
+}
@@ -0,0 +1,210 @@
+package org.example.celjavasample.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.celjavasample.utils.CelJsonUtils;
+import org.example.celjavasample.utils.ColumnarBatch;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Re-scores every stored order against the active rules and writes the results to
+ * {@code order_rewards}. Orders are read in keyset-paginated chunks and the items of a whole chunk
+ * are loaded with one range query, so the job issues two selects and one batch upsert per chunk
+ * whatever the table size, and holds no more than one chunk in memory.
+ * <p>
+ * Rows are projected straight into CEL input in the shape {@link org.example.celjavasample.utils.OrderActivation}
+ * gives an entity, without going through JPA. With {@code cel.rescore.columnar} on, the scalar
+ * columns of each chunk are also laid out as a {@link ColumnarBatch}, so rules over those alone
+ * are settled for the whole chunk at once and only the remaining rules run order by order.
+ */
+@Slf4j
+@Service
+public class OrderRescoringService {
+
+    private static final String SELECT_ORDERS = """
+            SELECT id, order_id, total_amount, transaction_date, channel, salesperson_id
+            FROM orders
+            WHERE id > ?
+            ORDER BY id
+            LIMIT ?
+            """;
+
+    private static final String SELECT_ITEMS = """
+            SELECT order_id, item_id, sku, quantity, price, amount
+            FROM order_items
+            WHERE order_id BETWEEN ? AND ?
+            ORDER BY order_id, id
+            """;
+
+    // Top-level scalars of the input toOrder builds
+    private static final Map<String, ColumnarBatch.Type> COLUMNS = Map.of(
+            "totalAmount", ColumnarBatch.Type.DOUBLE,
+            "orderId", ColumnarBatch.Type.STRING,
+            "transactionDate", ColumnarBatch.Type.STRING,
+            "channel", ColumnarBatch.Type.STRING,
+            "salespersonId", ColumnarBatch.Type.STRING);
+
+    private static final String UPSERT_REWARD = """
+            INSERT INTO order_rewards (order_id, rule_set_version, matched_rules, total_reward, scored_at)
+            VALUES (?, ?, ?, ?, ?)
+            ON CONFLICT (order_id) DO UPDATE SET
+                rule_set_version = EXCLUDED.rule_set_version,
+                matched_rules = EXCLUDED.matched_rules,
+                total_reward = EXCLUDED.total_reward,
+                scored_at = EXCLUDED.scored_at
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final RuleSetService ruleSetService;
+
+    private final RuleService ruleService;
+
+    private final BulkEvaluationService bulkEvaluationService;
+
+    private final int chunkSize;
+
+    private final boolean columnar;
+
+    public OrderRescoringService(JdbcTemplate jdbcTemplate,
+                                 RuleSetService ruleSetService,
+                                 RuleService ruleService,
+                                 BulkEvaluationService bulkEvaluationService,
+                                 @Value("${cel.rescore.chunk-size:1000}") int chunkSize,
+                                 @Value("${cel.rescore.columnar:true}") boolean columnar) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.ruleSetService = ruleSetService;
+        this.ruleService = ruleService;
+        this.bulkEvaluationService = bulkEvaluationService;
+        this.chunkSize = chunkSize;
+        this.columnar = columnar;
+    }
+
+    public record RescoreSummary(long ruleSetVersion, long orders, long failed, long chunks, double totalReward, long elapsedMillis) {
+    }
+
+    /**
+     * Scores all orders with the rule set active when the job starts, so every order in one run is
+     * scored by the same version even if rules are reloaded meanwhile.
+     */
+    public RescoreSummary rescoreAll() {
+        long started = System.nanoTime();
+        RuleSet ruleSet = ruleSetService.current();
+        long orders = 0;
+        long failed = 0;
+        long chunks = 0;
+        double totalReward = 0;
+
+        long lastId = 0;
+        List<StoredOrder> chunk;
+        while (!(chunk = loadChunk(lastId)).isEmpty()) {
+            lastId = chunk.getLast().id();
+            List<Object[]> rows = new ArrayList<>(chunk.size());
+            Timestamp scoredAt = Timestamp.from(Instant.now());
+            List<StoredOrder> current = chunk;
+            RuleOutcome[][] settled = columnar
+                    ? ruleService.settle(ruleSet, ColumnarBatch.of(current.stream().map(StoredOrder::input).toList(), COLUMNS))
+                    : new RuleOutcome[current.size()][];
+            bulkEvaluationService.evaluate(IntStream.range(0, current.size()).iterator(),
+                    i -> ruleService.evaluateAll(ruleSet, CelJsonUtils.variableResolver(current.get(i).input()), settled[i]),
+                    result -> {
+                        if (result.evaluation() == null) {
+                            log.warn("Order {} could not be scored: {}", current.get((int) result.index()).id(), result.error());
+                            return;
+                        }
+                        rows.add(rewardRow(current.get((int) result.index()).id(), result.evaluation(), scoredAt));
+                    });
+            jdbcTemplate.batchUpdate(UPSERT_REWARD, rows);
+
+            orders += chunk.size();
+            failed += chunk.size() - rows.size();
+            chunks++;
+            for (Object[] row : rows) {
+                totalReward += (double) row[3];
+            }
+        }
+
+        long elapsed = (System.nanoTime() - started) / 1_000_000;
+        log.info("Re-scored {} orders in {} chunks with rule set v{} in {} ms, {} failed",
+                orders, chunks, ruleSet.version(), elapsed, failed);
+        return new RescoreSummary(ruleSet.version(), orders, failed, chunks, totalReward, elapsed);
+    }
+
+    private static Object[] rewardRow(long orderId, RuleEvaluation evaluation, Timestamp scoredAt) {
+        String matched = evaluation.matched().stream()
+                .map(o -> String.valueOf(o.ruleId()))
+                .collect(Collectors.joining(","));
+        return new Object[]{orderId, evaluation.ruleSetVersion(), matched, evaluation.totalReward(), scoredAt};
+    }
+
+    private List<StoredOrder> loadChunk(long afterId) {
+        List<StoredOrder> orders = jdbcTemplate.query(SELECT_ORDERS, (rs, n) -> toOrder(rs), afterId, chunkSize);
+        if (orders.isEmpty()) {
+            return orders;
+        }
+
+        // The chunk holds every order in its id range, so one range scan finds all of their items
+        Map<Long, List<Object>> itemsByOrder = new HashMap<>(orders.size() * 2);
+        for (StoredOrder order : orders) {
+            itemsByOrder.put(order.id(), order.items());
+        }
+        jdbcTemplate.query(SELECT_ITEMS, rs -> {
+            List<Object> items = itemsByOrder.get(rs.getLong("order_id"));
+            if (items != null) {
+                items.add(toItem(rs));
+            }
+        }, orders.getFirst().id(), orders.getLast().id());
+        return orders;
+    }
+
+    private static StoredOrder toOrder(ResultSet rs) throws SQLException {
+        String channel = rs.getString("channel");
+        String salespersonId = rs.getString("salesperson_id");
+        List<Object> items = new ArrayList<>();
+
+        Map<String, Object> additionalInfo = new HashMap<>(4);
+        additionalInfo.put("channel", channel);
+        additionalInfo.put("source_sales_person_id", salespersonId);
+
+        Map<String, Object> input = new HashMap<>(16);
+        input.put("orderId", rs.getString("order_id"));
+        input.put("totalAmount", getDouble(rs, "total_amount"));
+        input.put("transactionDate", rs.getString("transaction_date"));
+        input.put("channel", channel);
+        input.put("salespersonId", salespersonId);
+        input.put("items", items);
+        input.put("additional_info", additionalInfo);
+        return new StoredOrder(rs.getLong("id"), input, items);
+    }
+
+    private static Map<String, Object> toItem(ResultSet rs) throws SQLException {
+        Map<String, Object> item = new HashMap<>(8);
+        item.put("id", rs.getString("item_id"));
+        item.put("sku", rs.getString("sku"));
+        long quantity = rs.getLong("quantity");
+        item.put("quantity", rs.wasNull() ? null : quantity);
+        item.put("price", getDouble(rs, "price"));
+        item.put("amount", getDouble(rs, "amount"));
+        return item;
+    }
+
+    private static Double getDouble(ResultSet rs, String column) throws SQLException {
+        double value = rs.getDouble(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    private record StoredOrder(long id, Map<String, Object> input, List<Object> items) {
+    }
+}
@@ -0,0 +1,129 @@
+package org.example.celjavasample.service;
+
+import dev.cel.common.CelValidationException;
+import dev.cel.compiler.CelCompiler;
+import dev.cel.runtime.CelEvaluationException;
+import dev.cel.runtime.CelRuntime;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded LRU cache of compiled programs keyed by expression text and the compiler/runtime pair
+ * that produced them. Concurrent callers asking for the same cold expression wait on a single
+ * compilation instead of each compiling it themselves.
+ */
+public class ProgramCache {
+
+    private final int maxSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder compileNanos = new LongAdder();
+
+    private final Map<Key, FutureTask<CelRuntime.Program>> entries;
+
+    public ProgramCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, FutureTask<CelRuntime.Program>> eldest) {
+                if (size() > ProgramCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public CelRuntime.Program get(CelCompiler compiler, CelRuntime runtime, String expr)
+            throws CelValidationException, CelEvaluationException {
+        Key key = new Key(compiler, runtime, expr);
+        FutureTask<CelRuntime.Program> task;
+        boolean owner = false;
+        synchronized (entries) {
+            task = entries.get(key);
+            if (task == null) {
+                task = new FutureTask<>(() -> compile(compiler, runtime, expr));
+                entries.put(key, task);
+                owner = true;
+            }
+        }
+        if (owner) {
+            misses.increment();
+            task.run();
+        } else {
+            hits.increment();
+        }
+
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            // Don't keep failures around, the next caller gets a fresh attempt
+            synchronized (entries) {
+                entries.remove(key, task);
+            }
+            Throwable cause = e.getCause();
+            if (cause instanceof CelValidationException ve) {
+                throw ve;
+            }
+            if (cause instanceof CelEvaluationException ee) {
+                throw ee;
+            }
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for compilation of: " + expr, e);
+        }
+    }
+
+    private CelRuntime.Program compile(CelCompiler compiler, CelRuntime runtime, String expr)
+            throws CelValidationException, CelEvaluationException {
+        long started = System.nanoTime();
+        try {
+            return runtime.createProgram(compiler.compile(expr).getAst());
+        } finally {
+            compileNanos.add(System.nanoTime() - started);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), size());
+    }
+
+    /**
+     * Time spent compiling on misses, failed compilations included.
+     */
+    public long compileNanos() {
+        return compileNanos.sum();
+    }
+
+    public record Stats(long hits, long misses, long evictions, int size) {
+    }
+
+    private record Key(CelCompiler compiler, CelRuntime runtime, String expr) {
+    }
+}
@@ -0,0 +1,225 @@
+package org.example.celjavasample.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the rule set of this node in step with the {@code rules} table across replicas. A trigger
+ * on the table bumps {@code version} on writes that did not, drops the stored checked AST of an
+ * expression changed without a new one, and sends a {@code NOTIFY} on
+ * {@value #CHANNEL} with the id, version and operation of every changed row once the writing
+ * transaction commits. Each node holds a connection that {@code LISTEN}s on the channel and
+ * refreshes only the rules named in the notifications it receives.
+ * <p>
+ * Notifications are not queued for a node that is not listening, so the listener reconciles by
+ * version checksum whenever it (re)connects and every {@code cel.rules.reconcile-interval}. The
+ * listening connection is taken from the pool and held for as long as the node runs.
+ */
+@Slf4j
+@Service
+public class RuleChangeListener {
+
+    public static final String CHANNEL = "rule_changes";
+
+    private static final String INSTALL_TRIGGER = """
+            CREATE OR REPLACE FUNCTION rules_notify_change() RETURNS trigger AS $$
+            DECLARE
+                changed rules;
+            BEGIN
+                IF TG_OP = 'DELETE' THEN
+                    changed := OLD;
+                ELSE
+                    IF TG_OP = 'UPDATE' AND NEW.version IS NOT DISTINCT FROM OLD.version THEN
+                        NEW.version := coalesce(OLD.version, 0) + 1;
+                    END IF;
+                    -- The app stores a new AST and expression hash with a new expression, SQL edits do not
+                    IF TG_OP = 'UPDATE' AND NEW.cel_expression IS DISTINCT FROM OLD.cel_expression
+                            AND NEW.expression_hash IS NOT DISTINCT FROM OLD.expression_hash THEN
+                        NEW.checked_ast := NULL;
+                        NEW.env_hash := NULL;
+                        NEW.expression_hash := NULL;
+                    END IF;
+                    changed := NEW;
+                END IF;
+                PERFORM pg_notify('%1$s', json_build_object('id', changed.id, 'version', changed.version, 'op', TG_OP)::text);
+                RETURN changed;
+            END
+            $$ LANGUAGE plpgsql;
+            DROP TRIGGER IF EXISTS rules_notify_change ON rules;
+            CREATE TRIGGER rules_notify_change BEFORE INSERT OR UPDATE OR DELETE ON rules
+                FOR EACH ROW EXECUTE FUNCTION rules_notify_change();
+            """.formatted(CHANNEL);
+
+    private static final long RETRY_MILLIS = 5_000;
+
+    private final DataSource dataSource;
+
+    private final RuleSetService ruleSetService;
+
+    private final ObjectMapper objectMapper;
+
+    private final boolean enabled;
+
+    private final long reconcileMillis;
+
+    private final int pollMillis;
+
+    private volatile boolean running;
+
+    private Thread thread;
+
+    public RuleChangeListener(DataSource dataSource,
+                              RuleSetService ruleSetService,
+                              ObjectMapper objectMapper,
+                              @Value("${cel.rules.listen.enabled:false}") boolean enabled,
+                              @Value("${cel.rules.reconcile-interval:60s}") Duration reconcileInterval,
+                              @Value("${cel.rules.listen.poll-interval:500ms}") Duration pollInterval) {
+        this.dataSource = dataSource;
+        this.ruleSetService = ruleSetService;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.reconcileMillis = reconcileInterval.toMillis();
+        this.pollMillis = (int) Math.max(pollInterval.toMillis(), 1);
+    }
+
+    public record RuleChange(long ruleId, Long version, String operation) {
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!enabled || running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "rule-change-listener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public synchronized void stop() throws InterruptedException {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread.join(pollMillis * 4L);
+            thread = null;
+        }
+    }
+
+    private void run() {
+        boolean installed = false;
+        while (running) {
+            try (Connection connection = dataSource.getConnection()) {
+                connection.setAutoCommit(true);
+                try (Statement statement = connection.createStatement()) {
+                    if (!installed) {
+                        statement.execute(INSTALL_TRIGGER);
+                        installed = true;
+                    }
+                    statement.execute("LISTEN " + CHANNEL);
+                }
+                log.info("Listening for rule changes on {}", CHANNEL);
+                listen(connection.unwrap(PGConnection.class));
+            } catch (SQLException e) {
+                if (running) {
+                    log.warn("Rule change listener lost its connection, retrying in {} ms: {}", RETRY_MILLIS, e.getMessage());
+                    sleep(RETRY_MILLIS);
+                }
+            } catch (RuntimeException e) {
+                log.error("Rule change listener failed, retrying in {} ms", RETRY_MILLIS, e);
+                sleep(RETRY_MILLIS);
+            }
+        }
+    }
+
+    private void listen(PGConnection connection) throws SQLException {
+        // Anything written while this node was not listening is only found by reconciling
+        reconcile();
+        long nextReconcile = System.currentTimeMillis() + reconcileMillis;
+        while (running) {
+            PGNotification[] notifications = connection.getNotifications(pollMillis);
+            if (notifications != null && notifications.length > 0) {
+                apply(notifications);
+            }
+            if (System.currentTimeMillis() >= nextReconcile) {
+                reconcile();
+                nextReconcile = System.currentTimeMillis() + reconcileMillis;
+            }
+        }
+    }
+
+    /**
+     * Refreshes the rules a batch of notifications names, skipping those the current snapshot
+     * already holds at the notified version, such as this node's own saves.
+     */
+    public void apply(PGNotification... notifications) {
+        Map<Long, Long> loaded = ruleSetService.current().ruleVersions();
+        Set<Long> changed = new LinkedHashSet<>();
+        for (PGNotification notification : notifications) {
+            RuleChange change = parse(notification);
+            if (change == null) {
+                continue;
+            }
+            boolean current = "DELETE".equals(change.operation())
+                    ? !loaded.containsKey(change.ruleId())
+                    : change.version() != null && change.version().equals(loaded.get(change.ruleId()));
+            if (!current) {
+                changed.add(change.ruleId());
+            }
+        }
+        if (!changed.isEmpty()) {
+            log.debug("Rules {} changed, refreshing", changed);
+            ruleSetService.refresh(changed).join();
+        }
+    }
+
+    private void reconcile() {
+        try {
+            ruleSetService.reconcile().join();
+        } catch (RuntimeException e) {
+            log.warn("Rule set reconciliation failed: {}", e.getMessage());
+        }
+    }
+
+    private RuleChange parse(PGNotification notification) {
+        if (!CHANNEL.equals(notification.getName())) {
+            return null;
+        }
+        try {
+            JsonNode payload = objectMapper.readTree(notification.getParameter());
+            JsonNode version = payload.path("version");
+            return new RuleChange(payload.path("id").asLong(),
+                    version.isIntegralNumber() ? version.asLong() : null,
+                    payload.path("op").asText());
+        } catch (Exception e) {
+            log.warn("Ignoring malformed rule change notification {}: {}", notification.getParameter(), e.getMessage());
+            return null;
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+}
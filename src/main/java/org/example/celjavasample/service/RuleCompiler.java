@@ -0,0 +1,196 @@
+package org.example.celjavasample.service;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import dev.cel.common.CelAbstractSyntaxTree;
+import dev.cel.common.CelProtoAbstractSyntaxTree;
+import dev.cel.common.CelValidationException;
+import dev.cel.common.internal.EnvVisitable;
+import dev.cel.common.internal.EnvVisitor;
+import dev.cel.common.types.CelType;
+import dev.cel.common.types.CelTypes;
+import dev.cel.common.types.StructType;
+import dev.cel.compiler.CelCompiler;
+import dev.cel.expr.CheckedExpr;
+import dev.cel.expr.Decl;
+import dev.cel.parser.CelMacro;
+import dev.cel.runtime.CelEvaluationException;
+import dev.cel.runtime.CelRuntime;
+import lombok.extern.slf4j.Slf4j;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.entity.Rule;
+import org.example.celjavasample.utils.CelAstUtils;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+@Slf4j
+@Component
+public class RuleCompiler {
+
+    private final CelCompiler compiler;
+
+    private final CelRuntime runtime;
+
+    private final RuleOptimizer optimizer;
+
+    private final RuleCostEstimator costEstimator;
+
+    private final String environmentHash;
+
+    public RuleCompiler(CelCompiler compiler, CelRuntime runtime, CelSchema schema, RuleOptimizer optimizer,
+                        RuleCostEstimator costEstimator) {
+        this.compiler = compiler;
+        this.runtime = runtime;
+        this.optimizer = optimizer;
+        this.costEstimator = costEstimator;
+        this.environmentHash = environmentHash(compiler, schema, optimizer);
+    }
+
+    public String environmentHash() {
+        return environmentHash;
+    }
+
+    /**
+     * Compiles a rule for evaluation. When the rule carries a checked AST stored under the current
+     * environment hash and the hash of its current expression, parsing, type-checking and
+     * optimization are skipped and the program is built from it. An expression changed without
+     * going through {@link #prepare}, e.g. by SQL, is thus compiled afresh.
+     */
+    public CompiledRule compile(Rule rule) throws CelValidationException, CelEvaluationException {
+        CelAbstractSyntaxTree ast = storedAst(rule);
+        if (ast == null) {
+            ast = optimize(rule, compiler.compile(rule.getCelExpression()).getAst());
+        }
+        costEstimator.checkForLoad(rule, ast);
+        return toCompiledRule(rule, ast);
+    }
+
+    /**
+     * Compiles and optimizes a rule from its expression and stores the resulting AST, the
+     * environment hash and the expression hash on the entity, ready to be persisted. Rules whose estimated cost is above
+     * the configured limit are rejected with an {@link IllegalArgumentException}.
+     */
+    public CompiledRule prepare(Rule rule) throws CelValidationException, CelEvaluationException {
+        CelAbstractSyntaxTree ast = optimize(rule, compiler.compile(rule.getCelExpression()).getAst());
+        costEstimator.checkForSave(rule, ast);
+        rule.setCheckedAst(CelProtoAbstractSyntaxTree.fromCelAst(ast).toCheckedExpr().toByteArray());
+        rule.setEnvHash(environmentHash);
+        rule.setExpressionHash(expressionHash(rule.getCelExpression()));
+        return toCompiledRule(rule, ast);
+    }
+
+    /**
+     * Finds the subexpressions the compiled rules have in common so a rule set can evaluate each
+     * of them once per order. Disabled together with the per-rule optimizer.
+     */
+    public SharedSubexpressions share(List<CompiledRule> rules) throws CelEvaluationException {
+        if (!optimizer.enabled()) {
+            return SharedSubexpressions.none();
+        }
+        SharedSubexpressions shared = SharedSubexpressions.analyze(rules, runtime);
+        log.debug("{} subexpressions shared across {} rules", shared.size(), shared.rewrittenRules());
+        return shared;
+    }
+
+    private CelAbstractSyntaxTree optimize(Rule rule, CelAbstractSyntaxTree ast) {
+        RuleOptimizer.Result result = optimizer.optimize(ast);
+        log.debug("Rule {} ({}) optimized from {} to {} nodes",
+                rule.getId(), rule.getName(), result.nodesBefore(), result.nodesAfter());
+        return result.ast();
+    }
+
+    private CelAbstractSyntaxTree storedAst(Rule rule) {
+        if (rule.getCheckedAst() == null || !environmentHash.equals(rule.getEnvHash())) {
+            return null;
+        }
+        if (!expressionHash(rule.getCelExpression()).equals(rule.getExpressionHash())) {
+            log.debug("Rule {} ({}) has a stored AST of another expression, recompiling", rule.getId(), rule.getName());
+            return null;
+        }
+        try {
+            return CelProtoAbstractSyntaxTree.fromCheckedExpr(CheckedExpr.parseFrom(rule.getCheckedAst())).getAst();
+        } catch (InvalidProtocolBufferException e) {
+            log.warn("Rule {} has an unreadable stored AST, recompiling: {}", rule.getId(), e.getMessage());
+            return null;
+        }
+    }
+
+    private CompiledRule toCompiledRule(Rule rule, CelAbstractSyntaxTree ast) throws CelEvaluationException {
+        var program = runtime.createProgram(ast);
+        return new CompiledRule(
+                rule.getId(),
+                rule.getVersion(),
+                rule.getName(),
+                rule.getCelExpression(),
+                rule.getRewardType(),
+                rule.getMultiplier(),
+                rule.getMaxCap(),
+                rule.getFixedAmount(),
+                ast,
+                program,
+                CelAstUtils.referencedVariables(ast),
+                CelAstUtils.referencedPaths(ast)
+        );
+    }
+
+    static String expressionHash(String expression) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(String.valueOf(expression).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Hash over everything that affects how an expression is checked: declared variables,
+     * functions and macros, plus the fields of schema struct types. The declarations are read
+     * through cel-java's environment visitor, which is marked internal but is the only complete view.
+     * The optimizer passes are included too, as the stored AST is the optimized one.
+     */
+    static String environmentHash(CelCompiler compiler, CelSchema schema, RuleOptimizer optimizer) {
+        Map<String, String> entries = new TreeMap<>();
+        entries.put("optimizer", optimizer.passes());
+        if (compiler instanceof EnvVisitable visitable) {
+            visitable.accept(new EnvVisitor() {
+                @Override
+                public void visitDecl(String name, List<Decl> decls) {
+                    entries.put("decl:" + name, decls.toString());
+                }
+
+                @Override
+                public void visitMacro(CelMacro macro) {
+                    entries.put("macro:" + macro.getKey(), macro.getKey());
+                }
+            });
+        }
+        for (CelType type : schema.types()) {
+            if (type instanceof StructType struct) {
+                for (String field : struct.fieldNames()) {
+                    entries.put("type:" + struct.name() + "." + field,
+                            struct.findField(field).map(f -> CelTypes.format(f.type())).orElse(""));
+                }
+            }
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            entries.forEach((key, value) -> {
+                digest.update(key.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(value.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            });
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.example.celjavasample.service;
+
+import com.google.common.math.LongMath;
+import dev.cel.common.CelAbstractSyntaxTree;
+import dev.cel.common.ast.CelExpr;
+import lombok.extern.slf4j.Slf4j;
+import org.example.celjavasample.config.CelFunctions;
+import org.example.celjavasample.entity.Rule;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Static cost estimate of a checked expression, in interpreter steps for one evaluation. Every
+ * node costs one step; a comprehension costs its loop body once per element of the list it
+ * iterates, taken to hold {@code cel.cost.assumed-list-size} elements unless it is a literal.
+ * Nested macros therefore multiply, which is what the estimate is for: {@code a.all(x, b.exists(y, ...))}
+ * costs about the square of the assumed size.
+ * <p>
+ * Rules above {@code cel.cost.warn-threshold} are logged; rules above {@code cel.cost.max} are
+ * rejected when saved. Rules already stored are only warned about when loaded, so raising the
+ * limit never requires touching the data.
+ */
+@Slf4j
+@Component
+public class RuleCostEstimator {
+
+    private final long assumedListSize;
+
+    private final long warnThreshold;
+
+    private final long max;
+
+    public RuleCostEstimator(@Value("${cel.cost.assumed-list-size:100}") long assumedListSize,
+                             @Value("${cel.cost.warn-threshold:0}") long warnThreshold,
+                             @Value("${cel.cost.max:0}") long max) {
+        this.assumedListSize = assumedListSize;
+        this.warnThreshold = warnThreshold;
+        this.max = max;
+    }
+
+    /**
+     * Estimates without any thresholds.
+     */
+    public static RuleCostEstimator unlimited() {
+        return new RuleCostEstimator(100, 0, 0);
+    }
+
+    public long estimate(CelAbstractSyntaxTree ast) {
+        return cost(ast.getExpr());
+    }
+
+    /**
+     * Checks a rule about to be saved. Throws if its estimate is above {@code cel.cost.max}.
+     */
+    public long checkForSave(Rule rule, CelAbstractSyntaxTree ast) {
+        long cost = estimate(ast);
+        if (max > 0 && cost > max) {
+            throw new IllegalArgumentException("Rule " + rule.getName() + " has an estimated cost of " + cost
+                    + " steps per evaluation, above the limit of " + max + ": " + rule.getCelExpression());
+        }
+        warnIfExpensive(rule, cost);
+        return cost;
+    }
+
+    public long checkForLoad(Rule rule, CelAbstractSyntaxTree ast) {
+        long cost = estimate(ast);
+        warnIfExpensive(rule, cost);
+        return cost;
+    }
+
+    private void warnIfExpensive(Rule rule, long cost) {
+        if (warnThreshold > 0 && cost > warnThreshold) {
+            log.warn("Rule {} ({}) has an estimated cost of {} steps per evaluation: {}",
+                    rule.getId(), rule.getName(), cost, rule.getCelExpression());
+        }
+    }
+
+    private long cost(CelExpr expr) {
+        return switch (expr.getKind()) {
+            case SELECT -> 1 + cost(expr.select().operand());
+            case CALL -> {
+                long cost = 1 + expr.call().target().map(this::cost).orElse(0L);
+                for (CelExpr arg : expr.call().args()) {
+                    cost = LongMath.saturatedAdd(cost, cost(arg));
+                }
+                // Membership in a list that is not a literal scans it, as do the aggregate functions
+                if (expr.call().function().equals("@in") && expr.call().args().size() == 2
+                        && expr.call().args().get(1).getKind() != CelExpr.ExprKind.Kind.LIST
+                        || CelFunctions.LIST_SCANS.contains(expr.call().function())) {
+                    cost = LongMath.saturatedAdd(cost, assumedListSize);
+                }
+                yield cost;
+            }
+            case LIST -> expr.list().elements().stream().mapToLong(this::cost).reduce(1, LongMath::saturatedAdd);
+            case MAP -> expr.map().entries().stream()
+                    .mapToLong(e -> LongMath.saturatedAdd(cost(e.key()), cost(e.value())))
+                    .reduce(1, LongMath::saturatedAdd);
+            case STRUCT -> expr.struct().entries().stream().mapToLong(e -> cost(e.value())).reduce(1, LongMath::saturatedAdd);
+            case COMPREHENSION -> {
+                var c = expr.comprehension();
+                CelExpr range = c.iterRange();
+                long iterations = range.getKind() == CelExpr.ExprKind.Kind.LIST ? range.list().elements().size() : assumedListSize;
+                long body = LongMath.saturatedAdd(cost(c.loopCondition()), cost(c.loopStep()));
+                long cost = LongMath.saturatedAdd(1 + cost(range), cost(c.accuInit()));
+                cost = LongMath.saturatedAdd(cost, cost(c.result()));
+                yield LongMath.saturatedAdd(cost, LongMath.saturatedMultiply(iterations, body));
+            }
+            default -> 1;
+        };
+    }
+}
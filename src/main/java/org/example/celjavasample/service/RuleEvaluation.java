@@ -0,0 +1,20 @@
+package org.example.celjavasample.service;
+
+import java.util.List;
+import java.util.Objects;
+
+public record RuleEvaluation(long ruleSetVersion, List<RuleOutcome> outcomes) {
+
+    public List<RuleOutcome> matched() {
+        return outcomes.stream().filter(RuleOutcome::matched).toList();
+    }
+
+    public double totalReward() {
+        return outcomes.stream()
+                .filter(RuleOutcome::matched)
+                .map(RuleOutcome::reward)
+                .filter(Objects::nonNull)
+                .mapToDouble(Double::doubleValue)
+                .sum();
+    }
+}
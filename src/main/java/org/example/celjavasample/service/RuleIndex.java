@@ -0,0 +1,497 @@
+package org.example.celjavasample.service;
+
+import com.google.common.primitives.UnsignedLong;
+import dev.cel.common.ast.CelConstant;
+import dev.cel.common.ast.CelExpr;
+import dev.cel.common.types.CelType;
+import dev.cel.runtime.CelVariableResolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Discrimination index over the simple guards that gate most rules: top-level conjuncts such as
+ * {@code sponsorCode == 'AUTO2000'}, {@code additional_info.channel in ['In-Person', 'Online']} or
+ * {@code totalAmount >= 500000}. Per order, each guarded field is read once and looked up in a hash
+ * index (equality and membership) or an interval index (ranges), and only rules whose guards can
+ * all hold are evaluated. A rule skipped this way has a false conjunct, so it evaluates to false.
+ * <p>
+ * The index errs towards evaluating: when a guarded field is missing or of an unexpected type the
+ * guard is treated as passing and CEL decides, including whether that is an error. The same goes
+ * for an int field compared with a double constant and the like. Range bounds are compared as
+ * doubles and inclusively, which can let through a rule its guard rejects but never skips one it
+ * accepts.
+ */
+public final class RuleIndex {
+
+    private static final RuleIndex NONE = new RuleIndex(0, new int[0], List.of());
+
+    private final int size;
+
+    private final int[] guardCounts;
+
+    private final List<FieldIndex> fields;
+
+    private final LongAdder evaluated = new LongAdder();
+
+    private final LongAdder skipped = new LongAdder();
+
+    private RuleIndex(int size, int[] guardCounts, List<FieldIndex> fields) {
+        this.size = size;
+        this.guardCounts = guardCounts;
+        this.fields = fields;
+    }
+
+    public static RuleIndex none() {
+        return NONE;
+    }
+
+    public static RuleIndex build(List<CompiledRule> rules) {
+        Map<List<String>, FieldIndex> fields = new LinkedHashMap<>();
+        int[] guardCounts = new int[rules.size()];
+        for (int i = 0; i < rules.size(); i++) {
+            Map<List<String>, Guard> guards = guards(rules.get(i));
+            guardCounts[i] = guards.size();
+            for (var entry : guards.entrySet()) {
+                fields.computeIfAbsent(entry.getKey(), FieldIndex::new).add(i, entry.getValue());
+            }
+        }
+        if (fields.isEmpty()) {
+            return new RuleIndex(rules.size(), guardCounts, List.of());
+        }
+        fields.values().forEach(FieldIndex::seal);
+        return new RuleIndex(rules.size(), guardCounts, List.copyOf(fields.values()));
+    }
+
+    /**
+     * Indices, into the rule set's rule list, of the rules that have to be evaluated for this input.
+     */
+    public BitSet candidates(CelVariableResolver input) {
+        BitSet candidates = new BitSet(size);
+        if (fields.isEmpty()) {
+            candidates.set(0, size);
+            evaluated.add(size);
+            return candidates;
+        }
+
+        int[] passed = new int[size];
+        for (FieldIndex field : fields) {
+            field.match(read(input, field.path), passed);
+        }
+        for (int i = 0; i < size; i++) {
+            if (passed[i] == guardCounts[i]) {
+                candidates.set(i);
+            }
+        }
+        int count = candidates.cardinality();
+        evaluated.add(count);
+        skipped.add(size - count);
+        return candidates;
+    }
+
+    /**
+     * Number of rules with at least one indexed guard.
+     */
+    public int indexedRules() {
+        return (int) Arrays.stream(guardCounts).filter(c -> c > 0).count();
+    }
+
+    /**
+     * Guarded fields, as dotted paths.
+     */
+    public List<String> fields() {
+        return fields.stream().map(f -> String.join(".", f.path)).toList();
+    }
+
+    public Stats stats() {
+        return new Stats(evaluated.sum(), skipped.sum());
+    }
+
+    public record Stats(long evaluated, long skipped) {
+
+        public double skipRatio() {
+            long total = evaluated + skipped;
+            return total == 0 ? 0 : (double) skipped / total;
+        }
+    }
+
+    private static Object read(CelVariableResolver input, List<String> path) {
+        Optional<Object> root = input.find(path.get(0));
+        if (root.isEmpty()) {
+            return null;
+        }
+        Object value = root.get();
+        for (int i = 1; i < path.size(); i++) {
+            if (!(value instanceof Map<?, ?> map)) {
+                return null;
+            }
+            value = map.get(path.get(i));
+        }
+        return value;
+    }
+
+    // -- Guards ---------------------------------------------------------------------------------
+
+    /**
+     * What a rule requires of one field: membership in a set of values, a numeric interval, or both.
+     */
+    private static final class Guard {
+
+        private Set<Object> values;
+
+        private double lower = Double.NEGATIVE_INFINITY;
+
+        private double upper = Double.POSITIVE_INFINITY;
+
+        private Class<?> rangeType;
+
+        private boolean mixed;
+
+        private void restrictTo(Set<Object> allowed) {
+            if (values == null) {
+                values = new HashSet<>(allowed);
+            } else {
+                values.retainAll(allowed);
+            }
+        }
+
+        private void atLeast(Number bound) {
+            bound(bound);
+            lower = Math.max(lower, bound.doubleValue());
+        }
+
+        private void atMost(Number bound) {
+            bound(bound);
+            upper = Math.min(upper, bound.doubleValue());
+        }
+
+        private void bound(Number bound) {
+            mixed |= rangeType != null && rangeType != bound.getClass();
+            rangeType = bound.getClass();
+        }
+
+        private boolean inRange(Object value) {
+            double d = ((Number) value).doubleValue();
+            return d >= lower && d <= upper;
+        }
+
+        /**
+         * The one runtime type this guard compares against, or {@code null} when it mixes types.
+         * CEL has no overloads comparing, say, an int with a double, so such a comparison is an
+         * error rather than false, and only the interpreter should decide it.
+         */
+        private Class<?> type() {
+            Class<?> type = rangeType;
+            if (values != null) {
+                for (Object value : values) {
+                    if (type != null && type != value.getClass()) {
+                        return null;
+                    }
+                    type = value.getClass();
+                }
+            }
+            return mixed ? null : type != null ? type : Object.class;
+        }
+    }
+
+    /**
+     * Collects the indexable guards among the top-level conjuncts of a rule, keyed by field path.
+     * Optimized rules are wrapped in a {@code cel.@block}; its body is analyzed and {@code @indexN}
+     * references are followed to the hoisted subexpressions.
+     */
+    private static Map<List<String>, Guard> guards(CompiledRule rule) {
+        CelExpr root = rule.ast().getExpr();
+        List<CelExpr> block = List.of();
+        if (root.getKind() == CelExpr.ExprKind.Kind.CALL && root.call().function().equals("cel.@block")) {
+            block = root.call().args().get(0).list().elements();
+            root = root.call().args().get(1);
+        }
+
+        List<CelExpr> conjuncts = new ArrayList<>();
+        flattenAnd(root, block, conjuncts);
+
+        Map<List<String>, Guard> guards = new LinkedHashMap<>();
+        for (CelExpr conjunct : conjuncts) {
+            addGuard(conjunct, block, rule, guards);
+        }
+        guards.values().removeIf(guard -> guard.type() == null);
+        return guards;
+    }
+
+    private static void flattenAnd(CelExpr expr, List<CelExpr> block, List<CelExpr> conjuncts) {
+        expr = inline(expr, block);
+        if (expr.getKind() == CelExpr.ExprKind.Kind.CALL && expr.call().function().equals("_&&_")) {
+            expr.call().args().forEach(a -> flattenAnd(a, block, conjuncts));
+        } else {
+            conjuncts.add(expr);
+        }
+    }
+
+    private static CelExpr inline(CelExpr expr, List<CelExpr> block) {
+        while (expr.getKind() == CelExpr.ExprKind.Kind.IDENT && expr.ident().name().startsWith("@index")) {
+            int index = Integer.parseInt(expr.ident().name().substring("@index".length()));
+            expr = block.get(index);
+        }
+        return expr;
+    }
+
+    private static void addGuard(CelExpr conjunct, List<CelExpr> block, CompiledRule rule, Map<List<String>, Guard> guards) {
+        if (conjunct.getKind() != CelExpr.ExprKind.Kind.CALL || conjunct.call().target().isPresent()
+                || conjunct.call().args().size() != 2) {
+            return;
+        }
+        String function = conjunct.call().function();
+        CelExpr left = inline(conjunct.call().args().get(0), block);
+        CelExpr right = inline(conjunct.call().args().get(1), block);
+
+        List<String> path = path(left, rule);
+        CelExpr operand = right;
+        if (path == null && !function.equals("@in")) {
+            path = path(right, rule);
+            operand = left;
+            function = mirror(function);
+        }
+        if (path == null) {
+            return;
+        }
+
+        List<String> field = path;
+        switch (function) {
+            case "_==_" -> key(operand).ifPresent(k -> guards.computeIfAbsent(field, f -> new Guard()).restrictTo(Set.of(k)));
+            case "@in" -> {
+                if (operand.getKind() != CelExpr.ExprKind.Kind.LIST || !operand.list().optionalIndices().isEmpty()) {
+                    return;
+                }
+                Set<Object> keys = new HashSet<>();
+                for (CelExpr element : operand.list().elements()) {
+                    Optional<Object> k = key(element);
+                    if (k.isEmpty()) {
+                        return;
+                    }
+                    keys.add(k.get());
+                }
+                guards.computeIfAbsent(field, f -> new Guard()).restrictTo(keys);
+            }
+            case "_>=_", "_>_" -> number(operand).ifPresent(n -> guards.computeIfAbsent(field, f -> new Guard()).atLeast(n));
+            case "_<=_", "_<_" -> number(operand).ifPresent(n -> guards.computeIfAbsent(field, f -> new Guard()).atMost(n));
+            default -> {
+            }
+        }
+    }
+
+    private static String mirror(String function) {
+        return switch (function) {
+            case "_>=_" -> "_<=_";
+            case "_>_" -> "_<_";
+            case "_<=_" -> "_>=_";
+            case "_<_" -> "_>_";
+            default -> function;
+        };
+    }
+
+    /**
+     * Field path of a top-level variable or a chain of field selections on one, such as
+     * {@code additional_info.channel}. Only scalar-typed or dynamic paths qualify.
+     */
+    private static List<String> path(CelExpr expr, CompiledRule rule) {
+        List<String> reversed = new ArrayList<>();
+        CelExpr current = expr;
+        while (current.getKind() == CelExpr.ExprKind.Kind.SELECT && !current.select().testOnly()) {
+            reversed.add(current.select().field());
+            current = current.select().operand();
+        }
+        if (current.getKind() != CelExpr.ExprKind.Kind.IDENT || current.ident().name().startsWith("@")
+                || !rule.variables().contains(current.ident().name())) {
+            return null;
+        }
+        Optional<CelType> type = rule.ast().getType(expr.id());
+        if (type.isPresent() && !isScalarOrDyn(type.get())) {
+            return null;
+        }
+        reversed.add(current.ident().name());
+        return List.copyOf(reversed.reversed());
+    }
+
+    private static boolean isScalarOrDyn(CelType type) {
+        return switch (type.kind()) {
+            case DYN, ANY, STRING, INT, UINT, DOUBLE, BOOL -> true;
+            default -> false;
+        };
+    }
+
+    private static Optional<Object> key(CelExpr expr) {
+        if (expr.getKind() != CelExpr.ExprKind.Kind.CONSTANT) {
+            return Optional.empty();
+        }
+        CelConstant constant = expr.constant();
+        return switch (constant.getKind()) {
+            case STRING_VALUE -> Optional.of(constant.stringValue());
+            case BOOLEAN_VALUE -> Optional.of(constant.booleanValue());
+            case INT64_VALUE, UINT64_VALUE, DOUBLE_VALUE -> number(expr).map(RuleIndex::valueKey);
+            default -> Optional.empty();
+        };
+    }
+
+    private static Optional<Number> number(CelExpr expr) {
+        if (expr.getKind() != CelExpr.ExprKind.Kind.CONSTANT) {
+            return Optional.empty();
+        }
+        CelConstant constant = expr.constant();
+        return switch (constant.getKind()) {
+            case INT64_VALUE -> Optional.of(constant.int64Value());
+            case UINT64_VALUE -> Optional.of(constant.uint64Value());
+            case DOUBLE_VALUE -> Double.isNaN(constant.doubleValue()) ? Optional.empty() : Optional.of(constant.doubleValue());
+            default -> Optional.empty();
+        };
+    }
+
+    /**
+     * Key a runtime value is looked up by, typed the way CEL sees it: ints as {@code Long},
+     * doubles as {@code Double} (one zero), uints as {@code UnsignedLong}. {@code null} for
+     * anything the index does not handle.
+     */
+    private static Object valueKey(Object value) {
+        return switch (value) {
+            case String s -> s;
+            case Boolean b -> b;
+            case Long l -> l;
+            case Integer i -> (long) i;
+            case Double d -> d == 0 ? 0.0 : d;
+            case Float f -> f == 0 ? 0.0 : f.doubleValue();
+            case UnsignedLong u -> u;
+            case null, default -> null;
+        };
+    }
+
+    // -- Per-field index ------------------------------------------------------------------------
+
+    private static final class FieldIndex {
+
+        private final List<String> path;
+
+        private final Map<Object, List<Integer>> byValue = new HashMap<>();
+
+        private final Map<Class<?>, List<Integer>> byType = new HashMap<>();
+
+        private final Map<Class<?>, List<Interval>> intervals = new HashMap<>();
+
+        private int[] guarded;
+
+        private Map<Object, int[]> rulesByValue;
+
+        private Map<Class<?>, int[]> rulesByType;
+
+        private Map<Class<?>, Interval[]> sortedIntervals;
+
+        private FieldIndex(List<String> path) {
+            this.path = path;
+        }
+
+        private void add(int rule, Guard guard) {
+            if (guard.values != null) {
+                // Range bounds on an equality guard narrow the accepted values up front
+                for (Object value : guard.values) {
+                    if (guard.rangeType == null || guard.inRange(value)) {
+                        byValue.computeIfAbsent(value, v -> new ArrayList<>()).add(rule);
+                    }
+                }
+                byType.computeIfAbsent(guard.type(), t -> new ArrayList<>()).add(rule);
+            } else {
+                intervals.computeIfAbsent(guard.type(), t -> new ArrayList<>()).add(new Interval(guard.lower, guard.upper, rule));
+            }
+        }
+
+        private void seal() {
+            List<Integer> all = new ArrayList<>();
+            byType.values().forEach(all::addAll);
+            intervals.values().forEach(list -> list.forEach(interval -> all.add(interval.rule)));
+            guarded = toArray(all);
+
+            rulesByValue = new HashMap<>();
+            byValue.forEach((value, rules) -> rulesByValue.put(value, toArray(rules)));
+            rulesByType = new HashMap<>();
+            byType.forEach((type, rules) -> rulesByType.put(type, toArray(rules)));
+            sortedIntervals = new HashMap<>();
+            intervals.forEach((type, list) -> sortedIntervals.put(type, list.stream()
+                    .sorted(Comparator.comparingDouble(Interval::lower))
+                    .toArray(Interval[]::new)));
+        }
+
+        /**
+         * Counts this field's guard as passed for every rule it does not exclude.
+         */
+        private void match(Object value, int[] passed) {
+            Object key = valueKey(value);
+            if (key == null) {
+                for (int rule : guarded) {
+                    passed[rule]++;
+                }
+                return;
+            }
+
+            // Guards comparing against another type are left for CEL to reject
+            for (var entry : rulesByType.entrySet()) {
+                if (entry.getKey() != key.getClass()) {
+                    for (int rule : entry.getValue()) {
+                        passed[rule]++;
+                    }
+                }
+            }
+            int[] matching = rulesByValue.get(key);
+            if (matching != null) {
+                for (int rule : matching) {
+                    passed[rule]++;
+                }
+            }
+
+            for (var entry : sortedIntervals.entrySet()) {
+                Interval[] sorted = entry.getValue();
+                if (entry.getKey() != key.getClass()) {
+                    for (Interval interval : sorted) {
+                        passed[interval.rule]++;
+                    }
+                    continue;
+                }
+                double d = ((Number) key).doubleValue();
+                int end = upperBound(sorted, d);
+                for (int i = 0; i < end; i++) {
+                    if (d <= sorted[i].upper) {
+                        passed[sorted[i].rule]++;
+                    }
+                }
+            }
+        }
+
+        // Number of intervals whose lower bound is <= value
+        private static int upperBound(Interval[] sorted, double value) {
+            int low = 0;
+            int high = sorted.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sorted[mid].lower <= value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private static int[] toArray(List<Integer> rules) {
+            return rules.stream().mapToInt(Integer::intValue).toArray();
+        }
+    }
+
+    private record Interval(double lower, double upper, int rule) {
+    }
+}
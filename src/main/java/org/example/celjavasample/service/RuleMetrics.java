@@ -0,0 +1,144 @@
+package org.example.celjavasample.service;
+
+import dev.cel.common.CelErrorCode;
+import dev.cel.runtime.CelEvaluationException;
+import dev.cel.runtime.CelVariableResolver;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-rule evaluation metrics. Evaluation timers ({@code cel.rule.evaluation}, tagged by rule id
+ * and name) are recorded for a sample of orders, {@code cel.metrics.sample-rate} of them, and the
+ * decision is made once per order so an unsampled order costs a single random draw. Errors
+ * ({@code cel.rule.errors}, tagged by rule and {@link CelErrorCode}) are always counted.
+ * <p>
+ * With {@code cel.metrics.slow-rule-threshold} set, every evaluation is timed and the ones above
+ * the threshold are logged with the expression and a hash of the variables the rule reads, so
+ * the offending order can be found without logging its content.
+ */
+@Slf4j
+@Component
+public class RuleMetrics {
+
+    public static final String EVALUATION_TIMER = "cel.rule.evaluation";
+
+    public static final String ERROR_COUNTER = "cel.rule.errors";
+
+    private static final RuleMetrics NONE = new RuleMetrics(null, 0, Duration.ZERO);
+
+    // Null for none()
+    private final MeterRegistry registry;
+
+    private final double sampleRate;
+
+    private final long slowThresholdNanos;
+
+    private final Map<RuleKey, Timer> timers = new ConcurrentHashMap<>();
+
+    private final Map<ErrorKey, Counter> errors = new ConcurrentHashMap<>();
+
+    public RuleMetrics(MeterRegistry registry,
+                       @Value("${cel.metrics.sample-rate:0}") double sampleRate,
+                       @Value("${cel.metrics.slow-rule-threshold:0ms}") Duration slowThreshold) {
+        if (sampleRate < 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("cel.metrics.sample-rate must be between 0 and 1: " + sampleRate);
+        }
+        this.registry = registry;
+        this.sampleRate = sampleRate;
+        this.slowThresholdNanos = slowThreshold.toNanos();
+    }
+
+    /**
+     * Records nothing but errors, for callers outside the application context.
+     */
+    public static RuleMetrics disabled() {
+        return new RuleMetrics(new SimpleMeterRegistry(), 0, Duration.ZERO);
+    }
+
+    /**
+     * Records nothing at all, for rules that are not in production.
+     */
+    public static RuleMetrics none() {
+        return NONE;
+    }
+
+    /**
+     * Whether the rule evaluations of the next order go into the timers.
+     */
+    public boolean sample() {
+        return sampleRate > 0 && (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    /**
+     * Whether evaluations need timing at all, for the timers or for slow-rule detection.
+     */
+    public boolean timing(boolean sampled) {
+        return sampled || slowThresholdNanos > 0;
+    }
+
+    public void recordEvaluation(CompiledRule rule, long nanos, boolean sampled, CelVariableResolver input) {
+        if (sampled) {
+            timers.computeIfAbsent(new RuleKey(rule.id(), rule.name()), this::timer).record(nanos, TimeUnit.NANOSECONDS);
+        }
+        if (slowThresholdNanos > 0 && nanos > slowThresholdNanos) {
+            log.warn("Slow rule {} ({}) took {} µs on input {}: {}", rule.id(), rule.name(),
+                    nanos / 1_000, inputHash(rule, input), rule.expression());
+        }
+    }
+
+    public void recordError(CompiledRule rule, CelEvaluationException e) {
+        if (registry == null) {
+            return;
+        }
+        CelErrorCode code = e.getErrorCode();
+        errors.computeIfAbsent(new ErrorKey(rule.id(), rule.name(), code != null ? code.name() : "UNKNOWN"), this::counter)
+                .increment();
+    }
+
+    private Timer timer(RuleKey key) {
+        return Timer.builder(EVALUATION_TIMER)
+                .description("Time to evaluate one rule against one order")
+                .tag("rule.id", String.valueOf(key.id()))
+                .tag("rule.name", String.valueOf(key.name()))
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(1_000))
+                .maximumExpectedValue(Duration.ofSeconds(1))
+                .register(registry);
+    }
+
+    private Counter counter(ErrorKey key) {
+        return Counter.builder(ERROR_COUNTER)
+                .description("Rule evaluations that failed, by CEL error category")
+                .tag("rule.id", String.valueOf(key.id()))
+                .tag("rule.name", String.valueOf(key.name()))
+                .tag("category", key.category())
+                .register(registry);
+    }
+
+    // Hash of the values the rule reads, enough to correlate repeated slow inputs
+    private static String inputHash(CompiledRule rule, CelVariableResolver input) {
+        int hash = 1;
+        for (String variable : rule.variables()) {
+            hash = 31 * hash + Objects.hash(variable, input.find(variable).orElse(null));
+        }
+        return String.format("%08x", hash);
+    }
+
+    private record RuleKey(Long id, String name) {
+    }
+
+    private record ErrorKey(Long id, String name, String category) {
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.celjavasample.service;
+
+import dev.cel.common.CelAbstractSyntaxTree;
+import dev.cel.common.navigation.CelNavigableAst;
+import dev.cel.compiler.CelCompiler;
+import dev.cel.optimizer.CelOptimizationException;
+import dev.cel.optimizer.CelOptimizer;
+import dev.cel.optimizer.CelOptimizerFactory;
+import dev.cel.optimizer.optimizers.ConstantFoldingOptimizer;
+import dev.cel.optimizer.optimizers.SubexpressionOptimizer;
+import dev.cel.runtime.CelRuntime;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs constant folding and common subexpression elimination over checked rule ASTs before they
+ * are turned into programs. Repeated subexpressions are hoisted into a {@code cel.@block} so they
+ * are evaluated once per evaluation.
+ */
+@Slf4j
+@Component
+public class RuleOptimizer {
+
+    // Names the passes built below for the environment hash, so stored ASTs are redone when they change
+    private static final String PASSES = "constant-folding,subexpressions(cel-block)";
+
+    private final CelOptimizer optimizer;
+
+    private final boolean enabled;
+
+    public RuleOptimizer(CelCompiler compiler,
+                         CelRuntime runtime,
+                         @Value("${cel.optimizer.enabled:true}") boolean enabled) {
+        this.enabled = enabled;
+        this.optimizer = CelOptimizerFactory.standardCelOptimizerBuilder(compiler, runtime)
+                .addAstOptimizers(
+                        ConstantFoldingOptimizer.getInstance(),
+                        SubexpressionOptimizer.newInstance(SubexpressionOptimizer.SubexpressionOptimizerOptions.newBuilder()
+                                .enableCelBlock(true)
+                                .build()))
+                .build();
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * The passes rules go through, {@code none} when disabled.
+     */
+    public String passes() {
+        return enabled ? PASSES : "none";
+    }
+
+    public Result optimize(CelAbstractSyntaxTree ast) {
+        int before = nodeCount(ast);
+        if (!enabled) {
+            return new Result(ast, before, before);
+        }
+        try {
+            CelAbstractSyntaxTree optimized = optimizer.optimize(ast);
+            int after = nodeCount(optimized);
+            // Hoisting a subexpression that is only shared once can cost more nodes than it saves
+            return after <= before ? new Result(optimized, before, after) : new Result(ast, before, before);
+        } catch (CelOptimizationException e) {
+            log.warn("Optimization failed, keeping the checked AST: {}", e.getMessage());
+            return new Result(ast, before, before);
+        }
+    }
+
+    public static int nodeCount(CelAbstractSyntaxTree ast) {
+        return (int) CelNavigableAst.fromAst(ast).getRoot().allNodes().count();
+    }
+
+    public record Result(CelAbstractSyntaxTree ast, int nodesBefore, int nodesAfter) {
+    }
+}
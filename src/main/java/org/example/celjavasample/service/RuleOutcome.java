@@ -0,0 +1,32 @@
+package org.example.celjavasample.service;
+
+public record RuleOutcome(Long ruleId, String name, boolean matched, Object result, Double reward, String error,
+                          Status status) {
+
+    public enum Status {
+        EVALUATED,
+        SKIPPED,
+        FAILED,
+        // Stopped by the iteration limit or the time budget
+        BUDGET_EXCEEDED
+    }
+
+    public RuleOutcome(Long ruleId, String name, boolean matched, Object result, Double reward, String error) {
+        this(ruleId, name, matched, result, reward, error, error == null ? Status.EVALUATED : Status.FAILED);
+    }
+
+    public static RuleOutcome failed(CompiledRule rule, String error) {
+        return new RuleOutcome(rule.id(), rule.name(), false, null, null, error, Status.FAILED);
+    }
+
+    public static RuleOutcome budgetExceeded(CompiledRule rule, String error) {
+        return new RuleOutcome(rule.id(), rule.name(), false, null, null, error, Status.BUDGET_EXCEEDED);
+    }
+
+    /**
+     * Outcome of a rule the index ruled out: one of its guards is false, and so is the rule.
+     */
+    public static RuleOutcome skipped(CompiledRule rule) {
+        return new RuleOutcome(rule.id(), rule.name(), false, false, null, null, Status.SKIPPED);
+    }
+}
@@ -0,0 +1,290 @@
+package org.example.celjavasample.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import dev.cel.common.CelAbstractSyntaxTree;
+import dev.cel.common.CelValidationException;
+import dev.cel.common.ast.CelExpr;
+import dev.cel.compiler.CelCompiler;
+import dev.cel.runtime.CelEvaluationException;
+import dev.cel.runtime.CelEvaluationListener;
+import dev.cel.runtime.CelRuntime;
+import dev.cel.runtime.CelVariableResolver;
+import lombok.RequiredArgsConstructor;
+import org.example.celjavasample.utils.CelJsonReader;
+import org.example.celjavasample.utils.CelJsonUtils;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Profiles a single expression node by node over a sample of orders. The expression is compiled
+ * into its own unoptimized program and evaluated with {@link CelRuntime.Program#trace}, so node
+ * ids and source offsets are those of the text as written and the regular evaluation path never
+ * sees a listener.
+ * <p>
+ * CEL reports a node only once it has been evaluated, so a node's start is taken to be the end
+ * of the event just before its first evaluated descendant (or before itself, for a leaf). Work the
+ * interpreter does between two events is charged to the later node. Times include the listener's
+ * own overhead and are meant for comparing the parts of one expression, not as absolute costs.
+ */
+@Service
+@RequiredArgsConstructor
+public class RuleProfiler {
+
+    private final CelCompiler compiler;
+
+    private final CelRuntime runtime;
+
+    private final CelJsonReader jsonReader;
+
+    /**
+     * Per-node statistics. {@code offset} is the position of the node in the expression text, or
+     * -1 for nodes a macro expansion introduced without one.
+     */
+    public record NodeProfile(long id, String label, int offset, int depth, long count, long totalNanos, long selfNanos) {
+    }
+
+    /**
+     * {@code collapsed} holds one line per node in collapsed-stack format
+     * ({@code root;child;node selfNanos}), ready for flamegraph.pl or speedscope.
+     */
+    public record Profile(String expression, int orders, int errors, long totalNanos,
+                          List<NodeProfile> nodes, String collapsed) {
+    }
+
+    public Profile profile(String expression, List<String> orders)
+            throws CelValidationException, CelEvaluationException, JsonProcessingException {
+        CelAbstractSyntaxTree ast = compiler.compile(expression).getAst();
+        CelRuntime.Program program = runtime.createProgram(ast);
+        List<CelVariableResolver> inputs = new ArrayList<>(orders.size());
+        for (String order : orders) {
+            inputs.add(CelJsonUtils.variableResolver(jsonReader.readObject(order)));
+        }
+
+        Tree tree = new Tree(ast, expression);
+        Recorder recorder = new Recorder(tree);
+        int errors = 0;
+        long total = 0;
+        for (CelVariableResolver input : inputs) {
+            long started = recorder.start();
+            try {
+                program.trace(input, recorder);
+            } catch (CelEvaluationException e) {
+                errors++;
+            }
+            total += System.nanoTime() - started;
+        }
+        return recorder.report(expression, inputs.size(), errors, total);
+    }
+
+    private static final class Recorder implements CelEvaluationListener {
+
+        private final Tree tree;
+
+        private final long[] counts;
+
+        private final long[] totalNanos;
+
+        private final long[] selfNanos;
+
+        // Nodes already reported whose parent has not been yet: {node, start, end}
+        private final Deque<long[]> pending = new ArrayDeque<>();
+
+        private long last;
+
+        private Recorder(Tree tree) {
+            this.tree = tree;
+            this.counts = new long[tree.size()];
+            this.totalNanos = new long[tree.size()];
+            this.selfNanos = new long[tree.size()];
+        }
+
+        private long start() {
+            pending.clear();
+            last = System.nanoTime();
+            return last;
+        }
+
+        @Override
+        public void callback(CelExpr expr, Object result) {
+            long now = System.nanoTime();
+            Integer node = tree.index(expr.id());
+            if (node == null) {
+                return;
+            }
+            long start = last;
+            long children = 0;
+            while (!pending.isEmpty() && tree.isDescendant((int) pending.peek()[0], node)) {
+                long[] child = pending.pop();
+                start = child[1];
+                children += child[2] - child[1];
+            }
+            long inclusive = now - start;
+            counts[node]++;
+            totalNanos[node] += inclusive;
+            selfNanos[node] += inclusive - children;
+            pending.push(new long[]{node, start, now});
+            last = now;
+        }
+
+        private Profile report(String expression, int orders, int errors, long total) {
+            List<NodeProfile> nodes = new ArrayList<>();
+            StringBuilder collapsed = new StringBuilder();
+            for (int i = 0; i < tree.size(); i++) {
+                if (counts[i] == 0) {
+                    continue;
+                }
+                nodes.add(new NodeProfile(tree.ids[i], tree.labels[i], tree.offsets[i], tree.depth(i),
+                        counts[i], totalNanos[i], selfNanos[i]));
+                collapsed.append(tree.stack(i)).append(' ').append(Math.max(selfNanos[i], 0)).append('\n');
+            }
+            nodes.sort(Comparator.comparingLong(NodeProfile::totalNanos).reversed());
+            return new Profile(expression, orders, errors, total, nodes, collapsed.toString());
+        }
+    }
+
+    /**
+     * The AST flattened into arrays in pre-order, with parent links and display labels.
+     */
+    private static final class Tree {
+
+        private final Map<Long, Integer> indexes = new HashMap<>();
+
+        private final long[] ids;
+
+        private final int[] parents;
+
+        private final int[] offsets;
+
+        private final String[] labels;
+
+        private Tree(CelAbstractSyntaxTree ast, String expression) {
+            List<CelExpr> exprs = new ArrayList<>();
+            List<Integer> parentList = new ArrayList<>();
+            flatten(ast.getExpr(), -1, exprs, parentList);
+
+            Map<Long, Integer> positions = ast.getSource().getPositionsMap();
+            int size = exprs.size();
+            ids = new long[size];
+            parents = new int[size];
+            offsets = new int[size];
+            labels = new String[size];
+            for (int i = 0; i < size; i++) {
+                CelExpr expr = exprs.get(i);
+                ids[i] = expr.id();
+                parents[i] = parentList.get(i);
+                offsets[i] = positions.getOrDefault(expr.id(), -1);
+                labels[i] = label(expr, expression, offsets[i]) + (offsets[i] >= 0 ? " @" + offsets[i] : "");
+                indexes.put(expr.id(), i);
+            }
+        }
+
+        private static void flatten(CelExpr expr, int parent, List<CelExpr> exprs, List<Integer> parents) {
+            int index = exprs.size();
+            exprs.add(expr);
+            parents.add(parent);
+            switch (expr.getKind()) {
+                case SELECT -> flatten(expr.select().operand(), index, exprs, parents);
+                case CALL -> {
+                    expr.call().target().ifPresent(t -> flatten(t, index, exprs, parents));
+                    expr.call().args().forEach(a -> flatten(a, index, exprs, parents));
+                }
+                case LIST -> expr.list().elements().forEach(e -> flatten(e, index, exprs, parents));
+                case MAP -> expr.map().entries().forEach(e -> {
+                    flatten(e.key(), index, exprs, parents);
+                    flatten(e.value(), index, exprs, parents);
+                });
+                case STRUCT -> expr.struct().entries().forEach(e -> flatten(e.value(), index, exprs, parents));
+                case COMPREHENSION -> {
+                    var c = expr.comprehension();
+                    flatten(c.iterRange(), index, exprs, parents);
+                    flatten(c.accuInit(), index, exprs, parents);
+                    flatten(c.loopCondition(), index, exprs, parents);
+                    flatten(c.loopStep(), index, exprs, parents);
+                    flatten(c.result(), index, exprs, parents);
+                }
+                default -> {
+                }
+            }
+        }
+
+        private static String label(CelExpr expr, String expression, int offset) {
+            return switch (expr.getKind()) {
+                case CONSTANT -> "const";
+                case IDENT -> expr.ident().name();
+                case SELECT -> (expr.select().testOnly() ? "has ." : ".") + expr.select().field();
+                case CALL -> expr.call().target().isPresent()
+                        ? "." + expr.call().function() + "()"
+                        : operator(expr.call().function());
+                case LIST -> "[list]";
+                case MAP -> "{map}";
+                case STRUCT -> expr.struct().messageName() + "{}";
+                case COMPREHENSION -> macro(expression, offset);
+                default -> expr.getKind().name().toLowerCase();
+            };
+        }
+
+        // A macro is positioned at its opening parenthesis, so its name is the identifier just before
+        private static String macro(String expression, int offset) {
+            if (offset <= 0 || offset >= expression.length() || expression.charAt(offset) != '(') {
+                return "comprehension";
+            }
+            int start = offset;
+            while (start > 0 && Character.isJavaIdentifierPart(expression.charAt(start - 1))) {
+                start--;
+            }
+            String name = expression.substring(start, offset);
+            if (name.isEmpty()) {
+                return "comprehension";
+            }
+            return (start > 0 && expression.charAt(start - 1) == '.' ? "." : "") + name + "()";
+        }
+
+        // _&&_ -> &&, !_ -> !, _[_] -> [], size -> size()
+        private static String operator(String function) {
+            if (function.startsWith("_") || function.endsWith("_")) {
+                return function.replace("_", "");
+            }
+            return function + "()";
+        }
+
+        private int size() {
+            return ids.length;
+        }
+
+        private Integer index(long id) {
+            return indexes.get(id);
+        }
+
+        private boolean isDescendant(int node, int ancestor) {
+            for (int p = parents[node]; p >= 0; p = parents[p]) {
+                if (p == ancestor) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int depth(int node) {
+            int depth = 0;
+            for (int p = parents[node]; p >= 0; p = parents[p]) {
+                depth++;
+            }
+            return depth;
+        }
+
+        private String stack(int node) {
+            Deque<String> frames = new ArrayDeque<>();
+            for (int n = node; n >= 0; n = parents[n]) {
+                frames.push(labels[n].replace(';', ','));
+            }
+            return String.join(";", frames);
+        }
+    }
+}
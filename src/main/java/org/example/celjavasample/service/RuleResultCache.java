@@ -0,0 +1,143 @@
+package org.example.celjavasample.service;
+
+import com.google.common.hash.HashCode;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Outcomes of single-order evaluations, keyed by rule id, rule version and the fingerprint of the
+ * input values the rule reads (see {@code InputFingerprint}). A retried order, or one that only
+ * differs in fields a rule does not read, is answered for that rule without running it.
+ * <p>
+ * Entries expire {@code ttl} after they were stored and the oldest go first once there are more
+ * than {@code maxSize}. Keys are four longs and entries share the outcome objects they were
+ * evaluated to. An entry is only served to the compiled rule that stored it, so an edited rule
+ * misses even if its version did not move, and entries of rules replaced in the active set are
+ * dropped the first time the cache sees that set.
+ */
+public class RuleResultCache {
+
+    private final int maxSize;
+
+    private final long ttlNanos;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Insertion ordered: with a fixed TTL the eldest entry is also the first to expire
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>();
+
+    private volatile RuleSet seen;
+
+    public RuleResultCache(int maxSize, Duration ttl) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    public static RuleResultCache disabled() {
+        return new RuleResultCache(0, Duration.ZERO);
+    }
+
+    public boolean enabled() {
+        return maxSize > 0 && ttlNanos > 0;
+    }
+
+    /**
+     * Drops the entries of rules that are not in {@code ruleSet} as they were compiled there. Cheap
+     * when the set is the one seen last.
+     */
+    public void use(RuleSet ruleSet) {
+        if (seen == ruleSet) {
+            return;
+        }
+        Map<Long, CompiledRule> current = new HashMap<>();
+        for (CompiledRule rule : ruleSet.rules()) {
+            current.put(rule.id(), rule);
+        }
+        synchronized (entries) {
+            entries.values().removeIf(e -> current.get(e.rule().id()) != e.rule());
+            seen = ruleSet;
+        }
+    }
+
+    public RuleOutcome get(CompiledRule rule, HashCode fingerprint) {
+        if (rule.id() == null) {
+            return null;
+        }
+        Key key = key(rule, fingerprint);
+        long now = System.nanoTime();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && (entry.rule() != rule || now - entry.expiresAt() > 0)) {
+                entries.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.outcome();
+    }
+
+    public void put(CompiledRule rule, HashCode fingerprint, RuleOutcome outcome) {
+        if (rule.id() == null) {
+            return;
+        }
+        Key key = key(rule, fingerprint);
+        long now = System.nanoTime();
+        synchronized (entries) {
+            // Re-inserted rather than replaced, to keep the eldest entry first
+            entries.remove(key);
+            entries.put(key, new Entry(rule, outcome, now + ttlNanos));
+            Iterator<Entry> eldest = entries.values().iterator();
+            while (eldest.hasNext()) {
+                Entry e = eldest.next();
+                if (entries.size() <= maxSize && now - e.expiresAt() <= 0) {
+                    break;
+                }
+                eldest.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public ProgramCache.Stats stats() {
+        return new ProgramCache.Stats(hits.sum(), misses.sum(), evictions.sum(), size());
+    }
+
+    private static Key key(CompiledRule rule, HashCode fingerprint) {
+        ByteBuffer bytes = ByteBuffer.wrap(fingerprint.asBytes());
+        return new Key(rule.id(), rule.version() == null ? 0 : rule.version(), bytes.getLong(0), bytes.getLong(8));
+    }
+
+    private record Key(long ruleId, long version, long high, long low) {
+    }
+
+    private record Entry(CompiledRule rule, RuleOutcome outcome, long expiresAt) {
+    }
+}
@@ -1,19 +1,32 @@
 package org.example.celjavasample.service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.hash.HashCode;
 import dev.cel.common.CelValidationException;
 import dev.cel.compiler.CelCompiler;
 import dev.cel.runtime.CelEvaluationException;
 import dev.cel.runtime.CelRuntime;
+import dev.cel.runtime.CelVariableResolver;
 import lombok.RequiredArgsConstructor;
+import org.example.celjavasample.entity.Order;
+import org.example.celjavasample.utils.CelJsonReader;
 import org.example.celjavasample.utils.CelJsonUtils;
+import org.example.celjavasample.utils.ColumnarBatch;
+import org.example.celjavasample.utils.InputFingerprint;
+import org.example.celjavasample.utils.JsonNodeActivation;
+import org.example.celjavasample.utils.OrderActivation;
+import org.example.celjavasample.utils.OrderDiff;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 @Service
 @RequiredArgsConstructor
@@ -23,17 +36,321 @@ public class RuleService {
 
     private final CelRuntime runtime;
 
-    private final ObjectMapper mapper;
+    private final CelJsonReader jsonReader;
+
+    private final ProgramCache programCache;
+
+    private final RuleSetService ruleSetService;
+
+    private final RuleMetrics metrics;
+
+    private final EvaluationBudget budget;
+
+    private final RuleResultCache resultCache;
+
+    private final OrderHistory history;
+
+    // Vectorized rules of the last snapshot and batch layout settled
+    private volatile Vectorized vectorized;
+
+    private record Vectorized(RuleSet ruleSet, Map<String, ColumnarBatch.Type> schema, VectorizedRules rules) {
+    }
 
     public Object eval(String expr, String json) throws CelEvaluationException, CelValidationException, JsonProcessingException {
-        var result = compiler.compile(expr, json);
-        var ast = result.getAst();
-        var program = runtime.createProgram(ast);
+        var program = programCache.get(compiler, runtime, expr);
 
-        Object raw = mapper.readValue(json, Object.class);
-        Map<String, Object> input = (Map<String, Object>) CelJsonUtils.convertNumbers(raw);
+        Map<String, Object> input = jsonReader.readObject(json);
         return program.eval(input);
     }
 
+    /**
+     * Runs every active rule against one order payload. The payload is parsed and converted once
+     * and the resulting activation is shared by all rules. Top-level fields that no active rule
+     * references are skipped while parsing.
+     * <p>
+     * With the result cache on, a rule whose referenced input values were seen recently is
+     * answered from the cache, so retried submissions of an order are not evaluated again.
+     */
+    public RuleEvaluation evaluateAll(String json) throws JsonProcessingException {
+        RuleSet ruleSet = ruleSetService.current();
+        Map<String, Object> input = jsonReader.readObject(json, ruleSet.variables());
+        CelVariableResolver resolver = CelJsonUtils.variableResolver(input);
+        if (!resultCache.enabled()) {
+            return evaluateAll(ruleSet, resolver);
+        }
+        resultCache.use(ruleSet);
+        return evaluate(ruleSet, resolver, null, false, true, metrics);
+    }
+
+    public RuleEvaluation evaluateAll(JsonNode json) {
+        return evaluateAll(new JsonNodeActivation(json));
+    }
+
+    /**
+     * Re-scores a stored order by reading the entity directly instead of round-tripping it
+     * through JSON. Lazy items must be loadable, i.e. call this inside the owning session.
+     */
+    public RuleEvaluation evaluateAll(Order order) {
+        return evaluateAll(new OrderActivation(order));
+    }
+
+    public RuleEvaluation evaluateAll(CelVariableResolver input) {
+        return evaluateAll(ruleSetService.current(), input);
+    }
+
+    /**
+     * Runs the rules of a given snapshot, which need not be the active one.
+     */
+    public RuleEvaluation evaluateAll(RuleSet ruleSet, CelVariableResolver input) {
+        return evaluate(ruleSet, input, null, false, false, metrics);
+    }
+
+    /**
+     * Runs rules that are not in production, such as backtest candidates, without recording
+     * metrics: their names are the caller's and their ids often unset, so every request would add
+     * meter series of its own.
+     */
+    public RuleEvaluation evaluateCandidates(RuleSet ruleSet, CelVariableResolver input) {
+        return evaluate(ruleSet, input, null, false, false, RuleMetrics.none());
+    }
+
+    /**
+     * Completes the evaluation of an order of a batch passed to {@link #settle}: rules with an
+     * outcome in {@code settled}, by rule position, keep it and the others are run.
+     */
+    public RuleEvaluation evaluateAll(RuleSet ruleSet, CelVariableResolver input, RuleOutcome[] settled) {
+        return evaluate(ruleSet, input, settled, false, false, metrics);
+    }
+
+    /**
+     * Runs the rules of a snapshot that {@link VectorizedRules} can compile over the columns of a
+     * whole batch at once. Returns, by row and then rule position, the outcome of every rule a row
+     * was decided for, or {@code null} where the row still needs the runtime: the rule is not
+     * vectorized, reads a value the batch is missing for the row, or pays a multiple of an amount
+     * the batch does not hold. Settled outcomes are reported as evaluated, even for rules the
+     * index would have skipped, and are not timed per rule.
+     */
+    public RuleOutcome[][] settle(RuleSet ruleSet, ColumnarBatch batch) {
+        List<CompiledRule> rules = ruleSet.rules();
+        VectorizedRules.Result[] results = vectorized(ruleSet, batch.schema()).evaluate(batch);
+        ColumnarBatch.DoubleColumn amounts = batch.schema().get(CompiledRule.BASE_AMOUNT) == ColumnarBatch.Type.DOUBLE
+                ? batch.doubles(CompiledRule.BASE_AMOUNT)
+                : null;
+        RuleOutcome[][] settled = new RuleOutcome[batch.size()][rules.size()];
+        for (int r = 0; r < rules.size(); r++) {
+            VectorizedRules.Result result = results[r];
+            if (result == null) {
+                continue;
+            }
+            CompiledRule rule = rules.get(r);
+            RuleOutcome unmatched = new RuleOutcome(rule.id(), rule.name(), false, false, null, null);
+            // Rows that match share one outcome unless the reward depends on their amount
+            RuleOutcome matched = CompiledRule.REWARD_MULTIPLIER.equalsIgnoreCase(rule.rewardType())
+                    ? null
+                    : new RuleOutcome(rule.id(), rule.name(), true, true, rule.reward(null), null);
+            for (int row = 0; row < batch.size(); row++) {
+                if (result.undecided().get(row)) {
+                    continue;
+                }
+                if (!result.matched().get(row)) {
+                    settled[row][r] = unmatched;
+                } else if (matched != null) {
+                    settled[row][r] = matched;
+                } else if (amounts != null && !amounts.missing().get(row)) {
+                    settled[row][r] = new RuleOutcome(rule.id(), rule.name(), true, true,
+                            rule.reward(amounts.values()[row]), null);
+                }
+            }
+        }
+        return settled;
+    }
+
+    private VectorizedRules vectorized(RuleSet ruleSet, Map<String, ColumnarBatch.Type> schema) {
+        Vectorized current = vectorized;
+        if (current == null || current.ruleSet() != ruleSet || !current.schema().equals(schema)) {
+            current = new Vectorized(ruleSet, schema, VectorizedRules.compile(ruleSet.rules(), schema));
+            vectorized = current;
+        }
+        return current.rules();
+    }
+
+    /**
+     * Re-scores an amended order. Only the rules that read a path the amendment changed are run
+     * again; every other rule keeps its previous outcome. Falls back to a full evaluation when the
+     * previous result comes from another rule set version.
+     * <p>
+     * {@code previous} is the caller's word, not a result of ours: see
+     * {@link #reevaluate(RuleSet, RuleEvaluation, CelVariableResolver, Set)} for what is kept of it.
+     */
+    public RuleEvaluation reevaluate(RuleEvaluation previous, CelVariableResolver before, CelVariableResolver after) {
+        RuleSet ruleSet = ruleSetService.current();
+        if (previous.ruleSetVersion() != ruleSet.version()) {
+            return evaluateAll(ruleSet, after);
+        }
+        before = bind(ruleSet, before);
+        after = bind(ruleSet, after);
+        return reevaluate(ruleSet, previous, after, OrderDiff.changedPaths(before, after, ruleSet.variables()));
+    }
+
+    /**
+     * Re-runs the rules of a snapshot that read any of {@code changedPaths} and keeps the previous
+     * outcome of the others. {@code previous} must come from the same snapshot and is rejected with
+     * an {@link IllegalArgumentException} when it names a rule the snapshot doesn't have.
+     * <p>
+     * Of a previous outcome only the verdict is kept: name and reward are the rule's, with the
+     * reward of a match recomputed from {@code input}, and failed outcomes are run again. With the
+     * result cache on, an outcome the cache holds for the rule's inputs wins over the previous one.
+     */
+    public RuleEvaluation reevaluate(RuleSet ruleSet, RuleEvaluation previous, CelVariableResolver input, Set<String> changedPaths) {
+        input = bind(ruleSet, input);
+        List<CompiledRule> rules = ruleSet.rules();
+        Set<Long> ids = new HashSet<>();
+        rules.forEach(r -> ids.add(r.id()));
+        Map<Long, RuleOutcome> claimed = new HashMap<>();
+        for (RuleOutcome o : previous.outcomes()) {
+            if (!ids.contains(o.ruleId())) {
+                throw new IllegalArgumentException("Rule " + o.ruleId() + " is not in rule set version " + ruleSet.version());
+            }
+            if (claimed.put(o.ruleId(), o) != null) {
+                throw new IllegalArgumentException("Rule " + o.ruleId() + " has more than one previous outcome");
+            }
+        }
+        InputFingerprint fingerprint = null;
+        if (resultCache.enabled()) {
+            resultCache.use(ruleSet);
+            fingerprint = new InputFingerprint(input);
+        }
+        BitSet affected = ruleSet.affectedBy(changedPaths);
+        RuleOutcome[] known = new RuleOutcome[rules.size()];
+        for (int i = 0; i < known.length; i++) {
+            if (affected.get(i)) {
+                continue;
+            }
+            CompiledRule rule = rules.get(i);
+            RuleOutcome own = fingerprint == null ? null : resultCache.get(rule, fingerprint.of(rule.dependencies()));
+            known[i] = own != null ? own : verdict(rule, claimed.get(rule.id()));
+        }
+        return evaluate(ruleSet, input, known, true, fingerprint != null, metrics);
+    }
+
+    // A caller's outcome reduced to whether the rule matched, or null when it has to run again
+    private static RuleOutcome verdict(CompiledRule rule, RuleOutcome claimed) {
+        if (claimed == null || claimed.status() == null) {
+            return null;
+        }
+        return switch (claimed.status()) {
+            case EVALUATED -> {
+                boolean matched = Boolean.TRUE.equals(claimed.result());
+                yield new RuleOutcome(rule.id(), rule.name(), matched, claimed.result(), null, null, RuleOutcome.Status.EVALUATED);
+            }
+            case SKIPPED -> RuleOutcome.skipped(rule);
+            case FAILED, BUDGET_EXCEEDED -> null;
+        };
+    }
+
+    /**
+     * Runs the rules of a snapshot that have no outcome in {@code known}, by rule position, and
+     * keeps the outcome of the others, recomputing the reward of kept matches when
+     * {@code repriceKnown}.
+     */
+    private RuleEvaluation evaluate(RuleSet ruleSet, CelVariableResolver input, RuleOutcome[] known,
+                                    boolean repriceKnown, boolean useResultCache, RuleMetrics metrics) {
+        input = bind(ruleSet, input);
+        InputFingerprint fingerprint = useResultCache ? new InputFingerprint(input) : null;
+        Double baseAmount = input.find(CompiledRule.BASE_AMOUNT)
+                .filter(Number.class::isInstance)
+                .map(v -> ((Number) v).doubleValue())
+                .orElse(null);
 
+        boolean sampled = metrics.sample();
+        boolean timed = metrics.timing(sampled);
+        // Looked up once the first rule has to run, which may be never
+        BitSet candidates = null;
+        SharedSubexpressions shared = ruleSet.shared();
+        CelVariableResolver memo = null;
+        List<CompiledRule> rules = ruleSet.rules();
+        List<RuleOutcome> outcomes = new ArrayList<>(rules.size());
+        for (int i = 0; i < rules.size(); i++) {
+            CompiledRule rule = rules.get(i);
+            RuleOutcome cached = known == null ? null : known[i];
+            if (cached != null) {
+                outcomes.add(repriceKnown ? repriced(rule, cached, baseAmount) : cached);
+                continue;
+            }
+            if (candidates == null) {
+                candidates = ruleSet.index().candidates(input);
+                memo = shared.bind(input, budget);
+            }
+            if (!candidates.get(i)) {
+                outcomes.add(RuleOutcome.skipped(rule));
+            } else if (fingerprint != null) {
+                outcomes.add(evaluateCached(rule, shared.program(rule), memo, input, baseAmount, sampled, timed, fingerprint, metrics));
+            } else {
+                outcomes.add(evaluate(rule, shared.program(rule), memo, input, baseAmount, sampled, timed, metrics));
+            }
+        }
+        return new RuleEvaluation(ruleSet.version(), outcomes);
+    }
+
+    private CelVariableResolver bind(RuleSet ruleSet, CelVariableResolver input) {
+        return ruleSet.variables().contains(OrderHistory.VARIABLE) ? history.bind(input) : input;
+    }
+
+    private RuleOutcome evaluateCached(CompiledRule rule, CelRuntime.Program program, CelVariableResolver memo,
+                                       CelVariableResolver input, Double baseAmount, boolean sampled, boolean timed,
+                                       InputFingerprint fingerprint, RuleMetrics metrics) {
+        HashCode key = fingerprint.of(rule.dependencies());
+        RuleOutcome cached = resultCache.get(rule, key);
+        if (cached != null) {
+            return repriced(rule, cached, baseAmount);
+        }
+        RuleOutcome outcome = evaluate(rule, program, memo, input, baseAmount, sampled, timed, metrics);
+        // Running out of time says nothing about the input, the next attempt may well finish
+        if (outcome.status() != RuleOutcome.Status.BUDGET_EXCEEDED) {
+            resultCache.put(rule, key, outcome);
+        }
+        return outcome;
+    }
+
+    // The reward depends on totalAmount whether or not the rule reads it
+    private static RuleOutcome repriced(CompiledRule rule, RuleOutcome outcome, Double baseAmount) {
+        Double reward = outcome.matched() ? rule.reward(baseAmount) : null;
+        return Objects.equals(reward, outcome.reward())
+                ? outcome
+                : new RuleOutcome(rule.id(), rule.name(), outcome.matched(), outcome.result(), reward, outcome.error(), outcome.status());
+    }
+
+    private RuleOutcome evaluate(CompiledRule rule, CelRuntime.Program program, CelVariableResolver memo,
+                                 CelVariableResolver input, Double baseAmount, boolean sampled, boolean timed,
+                                 RuleMetrics metrics) {
+        long started = timed ? System.nanoTime() : 0;
+        try {
+            Object result;
+            try {
+                result = run(program, memo);
+            } catch (CelEvaluationException e) {
+                // A shared value over budget would only run out of it again
+                if (!SharedSubexpressions.isSharedFailure(e) || EvaluationBudget.isExceeded(e)) {
+                    throw e;
+                }
+                // Re-run unshared so the outcome carries the rule's own error
+                result = run(rule.program(), input);
+            }
+            boolean matched = Boolean.TRUE.equals(result);
+            return new RuleOutcome(rule.id(), rule.name(), matched, result, matched ? rule.reward(baseAmount) : null, null);
+        } catch (CelEvaluationException e) {
+            metrics.recordError(rule, e);
+            return EvaluationBudget.isExceeded(e)
+                    ? RuleOutcome.budgetExceeded(rule, e.getMessage())
+                    : RuleOutcome.failed(rule, e.getMessage());
+        } finally {
+            if (timed) {
+                metrics.recordEvaluation(rule, System.nanoTime() - started, sampled, input);
+            }
+        }
+    }
+
+    private Object run(CelRuntime.Program program, CelVariableResolver input) throws CelEvaluationException {
+        return budget.enabled() ? program.trace(input, budget.start()) : program.eval(input);
+    }
 }
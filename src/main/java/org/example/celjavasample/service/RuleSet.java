@@ -0,0 +1,103 @@
+package org.example.celjavasample.service;
+
+import org.example.celjavasample.utils.CelAstUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.BitSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Immutable snapshot of the active rules, compiled and ready to evaluate. A new snapshot is built
+ * for every reload and swapped in whole, so readers never observe a partially loaded set.
+ * <p>
+ * {@code variables} are the top-level input fields evaluation reads, i.e. those the rules
+ * reference plus {@value CompiledRule#BASE_AMOUNT}, which rewards are paid on whether or not a
+ * rule reads it. Payloads can be projected on them.
+ */
+public record RuleSet(long version,
+                      Instant loadedAt,
+                      List<CompiledRule> rules,
+                      List<RuleCompileError> errors,
+                      Set<String> variables,
+                      SharedSubexpressions shared,
+                      RuleIndex index) {
+
+    public RuleSet {
+        rules = List.copyOf(rules);
+        errors = List.copyOf(errors);
+        variables = Set.copyOf(variables);
+    }
+
+    public RuleSet(long version, Instant loadedAt, List<CompiledRule> rules, List<RuleCompileError> errors) {
+        this(version, loadedAt, rules, errors, SharedSubexpressions.none(), RuleIndex.none());
+    }
+
+    public RuleSet(long version, Instant loadedAt, List<CompiledRule> rules, List<RuleCompileError> errors,
+                   SharedSubexpressions shared, RuleIndex index) {
+        this(version, loadedAt, rules, errors, OrderHistory.withInputs(Stream.concat(
+                rules.stream().flatMap(r -> r.variables().stream()),
+                Stream.of(CompiledRule.BASE_AMOUNT)).collect(Collectors.toSet())), shared, index);
+    }
+
+    public static RuleSet empty() {
+        return new RuleSet(0, Instant.EPOCH, List.of(), List.of());
+    }
+
+    public int size() {
+        return rules.size();
+    }
+
+    /**
+     * Rules, by position, that read any of the given changed input paths.
+     */
+    public BitSet affectedBy(Set<String> changedPaths) {
+        BitSet affected = new BitSet(rules.size());
+        for (int i = 0; i < rules.size(); i++) {
+            for (String dependency : rules.get(i).dependencies()) {
+                if (changedPaths.stream().anyMatch(changed -> CelAstUtils.pathsOverlap(dependency, changed))) {
+                    affected.set(i);
+                    break;
+                }
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * Stored version of every rule this snapshot was built from, compiled or not, by id.
+     */
+    public Map<Long, Long> ruleVersions() {
+        Map<Long, Long> versions = new TreeMap<>();
+        rules.forEach(r -> versions.put(r.id(), r.version() == null ? 0 : r.version()));
+        errors.forEach(e -> versions.put(e.ruleId(), e.version() == null ? 0 : e.version()));
+        return versions;
+    }
+
+    /**
+     * MD5 of {@code id:version} pairs in id order, comma separated: the same digest
+     * {@link org.example.celjavasample.repository.RuleRepository#activeVersionsChecksum()} computes
+     * over the active rules in the database.
+     */
+    public String checksum() {
+        String pairs = ruleVersions().entrySet().stream()
+                .map(e -> e.getKey() + ":" + e.getValue())
+                .collect(Collectors.joining(","));
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(pairs.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public record RuleCompileError(Long ruleId, Long version, String name, String expression, String message) {
+    }
+}
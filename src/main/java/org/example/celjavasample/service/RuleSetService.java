@@ -0,0 +1,218 @@
+package org.example.celjavasample.service;
+
+import dev.cel.common.CelException;
+import dev.cel.common.CelValidationException;
+import dev.cel.runtime.CelEvaluationException;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.example.celjavasample.entity.Rule;
+import org.example.celjavasample.repository.RuleRepository;
+import org.example.celjavasample.repository.RuleVersion;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class RuleSetService {
+
+    private final RuleRepository ruleRepository;
+
+    private final RuleCompiler ruleCompiler;
+
+    private final AtomicReference<RuleSet> current = new AtomicReference<>(RuleSet.empty());
+
+    private final AtomicLong versions = new AtomicLong();
+
+    // A single loader thread keeps snapshot builds serialized, so versions are swapped in order
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "rule-set-loader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public RuleSet current() {
+        return current.get();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        reload().join();
+    }
+
+    public CompletableFuture<RuleSet> reload() {
+        return CompletableFuture.supplyAsync(() -> {
+            RuleSet ruleSet = build(ruleRepository.findByActiveTrue());
+            current.set(ruleSet);
+            return ruleSet;
+        }, loader);
+    }
+
+    /**
+     * Re-reads the given rules and swaps in a snapshot where only they are recompiled: changed
+     * rules replace their previous version in place, new active ones are appended, and deleted or
+     * deactivated ones are dropped. Every other rule keeps its compiled program, as does a rule
+     * already loaded at its stored version. Completes with the current snapshot, unchanged, when
+     * none of the rules changed.
+     */
+    public CompletableFuture<RuleSet> refresh(Collection<Long> ruleIds) {
+        List<Long> requested = List.copyOf(ruleIds);
+        return CompletableFuture.supplyAsync(() -> {
+            RuleSet before = current.get();
+            Map<Long, Long> loaded = before.ruleVersions();
+            Map<Long, Rule> stored = new HashMap<>();
+            for (Rule rule : ruleRepository.findAllById(requested)) {
+                if (Boolean.TRUE.equals(rule.getActive())) {
+                    stored.put(rule.getId(), rule);
+                }
+            }
+            Set<Long> ids = new HashSet<>();
+            for (Long id : requested) {
+                Rule rule = stored.get(id);
+                if (rule == null ? loaded.containsKey(id) : !versionOf(rule).equals(loaded.get(id))) {
+                    ids.add(id);
+                }
+            }
+            stored.keySet().retainAll(ids);
+            if (ids.isEmpty()) {
+                return before;
+            }
+
+            List<CompiledRule> compiled = new ArrayList<>(before.size() + stored.size());
+            List<RuleSet.RuleCompileError> errors = new ArrayList<>();
+            for (CompiledRule rule : before.rules()) {
+                if (!ids.contains(rule.id())) {
+                    compiled.add(rule);
+                } else if (stored.containsKey(rule.id())) {
+                    compileInto(stored.remove(rule.id()), compiled, errors);
+                }
+            }
+            for (RuleSet.RuleCompileError error : before.errors()) {
+                if (!ids.contains(error.ruleId())) {
+                    errors.add(error);
+                } else if (stored.containsKey(error.ruleId())) {
+                    compileInto(stored.remove(error.ruleId()), compiled, errors);
+                }
+            }
+            for (Rule rule : stored.values()) {
+                compileInto(rule, compiled, errors);
+            }
+
+            RuleSet ruleSet = assemble(compiled, errors, versions.incrementAndGet());
+            log.info("Refreshed rule set v{} for rules {}: {} rules compiled, {} failed",
+                    ruleSet.version(), ids, ruleSet.size(), ruleSet.errors().size());
+            current.set(ruleSet);
+            return ruleSet;
+        }, loader);
+    }
+
+    /**
+     * Compares the active rules in the database with the current snapshot by version checksum,
+     * and on a mismatch refreshes the rules whose versions differ. A safety net for changes whose
+     * notification never arrived.
+     */
+    public CompletableFuture<RuleSet> reconcile() {
+        RuleSet ruleSet = current.get();
+        if (ruleSet.checksum().equals(ruleRepository.activeVersionsChecksum())) {
+            return CompletableFuture.completedFuture(ruleSet);
+        }
+        Map<Long, Long> loaded = ruleSet.ruleVersions();
+        Set<Long> stale = new HashSet<>(loaded.keySet());
+        for (RuleVersion stored : ruleRepository.findActiveVersions()) {
+            if (Long.valueOf(stored.version() == null ? 0 : stored.version()).equals(loaded.get(stored.id()))) {
+                stale.remove(stored.id());
+            } else {
+                stale.add(stored.id());
+            }
+        }
+        if (stale.isEmpty()) {
+            // The checksum moved between the two queries; the next round will tell
+            return CompletableFuture.completedFuture(ruleSet);
+        }
+        log.warn("Rule set v{} is out of date on rules {}, refreshing", ruleSet.version(), stale);
+        return refresh(stale);
+    }
+
+    /**
+     * Saves a rule after checking that its expression compiles, storing the checked AST alongside
+     * it, then recompiles it into the active set in the background. Evaluations keep using the
+     * previous snapshot until the new one is ready.
+     */
+    public Rule save(Rule rule) throws CelValidationException, CelEvaluationException {
+        ruleCompiler.prepare(rule);
+        Rule saved = ruleRepository.save(rule);
+        refresh(List.of(saved.getId()));
+        return saved;
+    }
+
+    RuleSet build(List<Rule> rules) {
+        RuleSet ruleSet = compile(rules, versions.incrementAndGet());
+        log.info("Loaded rule set v{}: {} rules compiled, {} failed, {} indexed on {}",
+                ruleSet.version(), ruleSet.size(), ruleSet.errors().size(), ruleSet.index().indexedRules(), ruleSet.index().fields());
+        return ruleSet;
+    }
+
+    /**
+     * Compiles rules into a snapshot that is not swapped in, e.g. to try out candidate rules before
+     * activating them. Its version is 0.
+     */
+    public RuleSet preview(List<Rule> rules) {
+        return compile(rules, 0);
+    }
+
+    private RuleSet compile(List<Rule> rules, long version) {
+        List<CompiledRule> compiled = new ArrayList<>(rules.size());
+        List<RuleSet.RuleCompileError> errors = new ArrayList<>();
+        for (Rule rule : rules) {
+            compileInto(rule, compiled, errors);
+        }
+        return assemble(compiled, errors, version);
+    }
+
+    private static Long versionOf(Rule rule) {
+        return rule.getVersion() == null ? 0 : rule.getVersion();
+    }
+
+    private void compileInto(Rule rule, List<CompiledRule> compiled, List<RuleSet.RuleCompileError> errors) {
+        try {
+            compiled.add(ruleCompiler.compile(rule));
+        } catch (CelException e) {
+            log.error("Rule {} ({}) failed to compile: {}", rule.getId(), rule.getName(), e.getMessage());
+            errors.add(new RuleSet.RuleCompileError(rule.getId(), rule.getVersion(), rule.getName(),
+                    rule.getCelExpression(), e.getMessage()));
+        }
+    }
+
+    // Shared subexpressions and the index span all rules, so they are rebuilt for every snapshot
+    private RuleSet assemble(List<CompiledRule> compiled, List<RuleSet.RuleCompileError> errors, long version) {
+        SharedSubexpressions shared = SharedSubexpressions.none();
+        try {
+            shared = ruleCompiler.share(compiled);
+        } catch (CelEvaluationException e) {
+            log.warn("Could not share subexpressions across rules, evaluating them separately: {}", e.getMessage());
+        }
+
+        return new RuleSet(version, Instant.now(), compiled, errors, shared, RuleIndex.build(compiled));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        loader.shutdownNow();
+    }
+}
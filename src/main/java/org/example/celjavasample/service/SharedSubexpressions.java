@@ -0,0 +1,364 @@
+package org.example.celjavasample.service;
+
+import dev.cel.common.CelAbstractSyntaxTree;
+import dev.cel.common.CelMutableAst;
+import dev.cel.common.ast.CelExpr;
+import dev.cel.common.ast.CelMutableExpr;
+import dev.cel.common.ast.CelReference;
+import dev.cel.common.navigation.CelNavigableMutableAst;
+import dev.cel.runtime.CelEvaluationException;
+import dev.cel.runtime.CelRuntime;
+import dev.cel.runtime.CelVariableResolver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Subexpressions that occur in more than one rule of a rule set, such as {@code size(items)} or
+ * {@code items.map(i, i.price * i.quantity)}. Each one is compiled into its own program and
+ * replaced in the rules by a synthetic {@code @sharedN} variable, which {@link #bind} resolves
+ * at most once per evaluation, so the work is done once however many rules need it.
+ * <p>
+ * Only calls and comprehensions that read nothing but top-level variables are shared. Two
+ * occurrences match when they are structurally equal, up to the names of comprehension variables.
+ */
+public final class SharedSubexpressions {
+
+    static final String PREFIX = "@shared";
+
+    private static final SharedSubexpressions NONE = new SharedSubexpressions(List.of(), List.of(), Map.of());
+
+    private final List<String> expressions;
+
+    private final List<CelRuntime.Program> values;
+
+    private final Map<CompiledRule, CelRuntime.Program> rewritten;
+
+    private SharedSubexpressions(List<String> expressions,
+                                 List<CelRuntime.Program> values,
+                                 Map<CompiledRule, CelRuntime.Program> rewritten) {
+        this.expressions = expressions;
+        this.values = values;
+        this.rewritten = rewritten;
+    }
+
+    public static SharedSubexpressions none() {
+        return NONE;
+    }
+
+    public static SharedSubexpressions analyze(List<CompiledRule> rules, CelRuntime runtime) throws CelEvaluationException {
+        // Count, per canonical form, the rules it appears in
+        Map<String, Set<Integer>> occurrences = new HashMap<>();
+        for (int i = 0; i < rules.size(); i++) {
+            int rule = i;
+            collectKeys(rules.get(i).ast().getExpr(), Set.of(), key ->
+                    occurrences.computeIfAbsent(key, k -> new HashSet<>()).add(rule));
+        }
+        Set<String> shared = new HashSet<>();
+        occurrences.forEach((key, owners) -> {
+            if (owners.size() > 1) {
+                shared.add(key);
+            }
+        });
+        if (shared.isEmpty()) {
+            return NONE;
+        }
+
+        Planner planner = new Planner(shared);
+        Map<CompiledRule, CelRuntime.Program> rewritten = new IdentityHashMap<>();
+        for (CompiledRule rule : rules) {
+            CelAbstractSyntaxTree ast = planner.rewrite(rule.ast(), false);
+            if (ast != rule.ast()) {
+                rewritten.put(rule, runtime.createProgram(ast));
+            }
+        }
+        // Rewriting a shared value can add slots for its own shared parts; the loop picks them up
+        List<CelRuntime.Program> values = new ArrayList<>();
+        for (int i = 0; i < planner.slots.size(); i++) {
+            values.add(runtime.createProgram(planner.rewrite(planner.slots.get(i), true)));
+        }
+        return new SharedSubexpressions(List.copyOf(planner.keys), List.copyOf(values), Collections.unmodifiableMap(rewritten));
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Canonical forms of the shared subexpressions, indexed by slot.
+     */
+    public List<String> expressions() {
+        return expressions;
+    }
+
+    public int rewrittenRules() {
+        return rewritten.size();
+    }
+
+    /**
+     * The program to run for a rule: the rewritten one reading shared variables, or the rule's own
+     * program when it has nothing in common with the other rules.
+     */
+    public CelRuntime.Program program(CompiledRule rule) {
+        return rewritten.getOrDefault(rule, rule.program());
+    }
+
+    /**
+     * Wraps one evaluation's input with a memo of the shared values. The returned resolver is not
+     * thread-safe and must not outlive the evaluation.
+     */
+    public CelVariableResolver bind(CelVariableResolver input) {
+        return bind(input, EvaluationBudget.unlimited());
+    }
+
+    /**
+     * Same, with each shared value run under the time budget of a rule, counted from when the
+     * value is first needed. A value over budget fails every rule reading it with an error
+     * {@link EvaluationBudget#isExceeded} recognizes.
+     */
+    public CelVariableResolver bind(CelVariableResolver input, EvaluationBudget budget) {
+        return values.isEmpty() ? input : new Memo(input, budget);
+    }
+
+    /**
+     * Whether an evaluation failed because a shared value did. The interpreter treats that like
+     * any other error, so {@code &&} and {@code ||} still absorb it, but the message names the
+     * shared value rather than the rule's own failing subexpression.
+     */
+    public static boolean isSharedFailure(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof SharedValueException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class SharedValueException extends RuntimeException {
+        private SharedValueException(String message, Throwable cause) {
+            super(message, cause, false, false);
+        }
+    }
+
+    private final class Memo implements CelVariableResolver {
+
+        private final CelVariableResolver input;
+
+        private final EvaluationBudget budget;
+
+        private final Object[] resolved = new Object[values.size()];
+
+        private Memo(CelVariableResolver input, EvaluationBudget budget) {
+            this.input = input;
+            this.budget = budget;
+        }
+
+        @Override
+        public Optional<Object> find(String name) {
+            if (!name.startsWith(PREFIX)) {
+                return input.find(name);
+            }
+            int slot = Integer.parseInt(name, PREFIX.length(), name.length(), 10);
+            Object value = resolved[slot];
+            if (value == null) {
+                try {
+                    CelRuntime.Program program = values.get(slot);
+                    value = budget.enabled() ? program.trace(this, budget.start()) : program.eval(this);
+                } catch (CelEvaluationException e) {
+                    value = new Failure(e);
+                }
+                resolved[slot] = value;
+            }
+            if (value instanceof Failure failure) {
+                // Kept as the cause so that running out of budget is told apart from other failures
+                throw new SharedValueException("Shared value " + name + " failed: " + expressions.get(slot), failure.error());
+            }
+            return Optional.of(value);
+        }
+    }
+
+    private record Failure(CelEvaluationException error) {
+    }
+
+    private static final class Planner {
+
+        private final Set<String> shared;
+
+        private final Map<String, Integer> slotsByKey = new HashMap<>();
+
+        private final List<String> keys = new ArrayList<>();
+
+        private final List<CelAbstractSyntaxTree> slots = new ArrayList<>();
+
+        private Planner(Set<String> shared) {
+            this.shared = shared;
+        }
+
+        /**
+         * Replaces the outermost shared subexpressions of an AST with slot variables. The AST stays
+         * checked: each replaced node keeps its id and type and gets a reference to its slot name.
+         */
+        private CelAbstractSyntaxTree rewrite(CelAbstractSyntaxTree ast, boolean skipRoot) {
+            Map<Long, String> replacements = new HashMap<>();
+            collect(ast, ast.getExpr(), skipRoot, Set.of(), replacements);
+            if (replacements.isEmpty()) {
+                return ast;
+            }
+
+            CelMutableAst mutable = CelMutableAst.fromCelAst(ast);
+            CelNavigableMutableAst.fromAst(mutable).getRoot().allNodes()
+                    .filter(node -> replacements.containsKey(node.id()))
+                    .toList()
+                    .forEach(node -> node.expr().setIdent(CelMutableExpr.CelMutableIdent.create(replacements.get(node.id()))));
+
+            Map<Long, CelReference> references = new HashMap<>(ast.getReferenceMap());
+            replacements.forEach((id, name) -> references.put(id, CelReference.newBuilder().setName(name).build()));
+            CelAbstractSyntaxTree parsed = mutable.toParsedAst();
+            return CelAbstractSyntaxTree.newCheckedAst(parsed.getExpr(), parsed.getSource(), references, ast.getTypeMap());
+        }
+
+        private void collect(CelAbstractSyntaxTree ast, CelExpr expr, boolean skip, Set<String> outer,
+                             Map<Long, String> replacements) {
+            if (!skip && isShareable(expr)) {
+                String key = key(expr, outer, Map.of());
+                if (key != null && shared.contains(key)) {
+                    replacements.put(expr.id(), PREFIX + slot(key, ast, expr));
+                    return;
+                }
+            }
+            forEachChild(expr, (child, bound) -> collect(ast, child, false, union(outer, bound.keySet()), replacements));
+        }
+
+        private int slot(String key, CelAbstractSyntaxTree ast, CelExpr expr) {
+            return slotsByKey.computeIfAbsent(key, k -> {
+                keys.add(k);
+                slots.add(CelAbstractSyntaxTree.newCheckedAst(expr, ast.getSource(), ast.getReferenceMap(), ast.getTypeMap()));
+                return slots.size() - 1;
+            });
+        }
+    }
+
+    private interface ChildVisitor {
+        /**
+         * @param bound comprehension variables the child sees in addition to its parent's scope,
+         *              mapped to their role: {@code i} and {@code j} for iteration, {@code a} for the accumulator
+         */
+        void visit(CelExpr child, Map<String, Character> bound);
+    }
+
+    private static void collectKeys(CelExpr expr, Set<String> outer, Consumer<String> keys) {
+        if (isShareable(expr)) {
+            String key = key(expr, outer, Map.of());
+            if (key != null) {
+                keys.accept(key);
+            }
+        }
+        forEachChild(expr, (child, bound) -> collectKeys(child, union(outer, bound.keySet()), keys));
+    }
+
+    private static boolean isShareable(CelExpr expr) {
+        return switch (expr.getKind()) {
+            case CALL, COMPREHENSION -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Canonical form of a subexpression, or {@code null} when it reads a variable bound outside of
+     * it ({@code outer}) or one of the optimizer's {@code @} names. Comprehension variables bound
+     * inside are renamed by nesting, so loops differing only in variable names compare equal.
+     */
+    private static String key(CelExpr expr, Set<String> outer, Map<String, String> local) {
+        if (expr.getKind() == CelExpr.ExprKind.Kind.IDENT) {
+            String name = expr.ident().name();
+            if (local.containsKey(name)) {
+                return local.get(name);
+            }
+            return outer.contains(name) || name.startsWith("@") ? null : name;
+        }
+
+        List<String> children = new ArrayList<>();
+        boolean[] closed = {true};
+        forEachChild(expr, (child, bound) -> {
+            if (!closed[0]) {
+                return;
+            }
+            Map<String, String> scope = local;
+            if (!bound.isEmpty()) {
+                scope = new HashMap<>(local);
+                String level = "$" + local.size();
+                for (var entry : bound.entrySet()) {
+                    scope.put(entry.getKey(), level + entry.getValue());
+                }
+            }
+            String part = key(child, outer, scope);
+            closed[0] = part != null;
+            children.add(part);
+        });
+        if (!closed[0]) {
+            return null;
+        }
+
+        return switch (expr.getKind()) {
+            case CONSTANT -> expr.constant().toString();
+            case SELECT -> (expr.select().testOnly() ? "has(" : "(") + children.get(0) + ")." + expr.select().field();
+            case CALL -> (expr.call().target().isPresent() ? "." : "") + expr.call().function() + children;
+            case LIST -> "list" + children + expr.list().optionalIndices();
+            case MAP -> "map" + children;
+            case STRUCT -> expr.struct().messageName() + children;
+            case COMPREHENSION -> "fold" + children;
+            default -> expr.getKind().toString();
+        };
+    }
+
+    private static void forEachChild(CelExpr expr, ChildVisitor visitor) {
+        switch (expr.getKind()) {
+            case SELECT -> visitor.visit(expr.select().operand(), Map.of());
+            case CALL -> {
+                expr.call().target().ifPresent(t -> visitor.visit(t, Map.of()));
+                expr.call().args().forEach(a -> visitor.visit(a, Map.of()));
+            }
+            case LIST -> expr.list().elements().forEach(e -> visitor.visit(e, Map.of()));
+            case MAP -> expr.map().entries().forEach(e -> {
+                visitor.visit(e.key(), Map.of());
+                visitor.visit(e.value(), Map.of());
+            });
+            case STRUCT -> expr.struct().entries().forEach(e -> visitor.visit(e.value(), Map.of()));
+            case COMPREHENSION -> {
+                var c = expr.comprehension();
+                visitor.visit(c.iterRange(), Map.of());
+                visitor.visit(c.accuInit(), Map.of());
+
+                Map<String, Character> loopScope = new LinkedHashMap<>();
+                loopScope.put(c.iterVar(), 'i');
+                if (!c.iterVar2().isEmpty()) {
+                    loopScope.put(c.iterVar2(), 'j');
+                }
+                loopScope.put(c.accuVar(), 'a');
+                visitor.visit(c.loopCondition(), loopScope);
+                visitor.visit(c.loopStep(), loopScope);
+                visitor.visit(c.result(), Map.of(c.accuVar(), 'a'));
+            }
+            default -> {
+            }
+        }
+    }
+
+    private static Set<String> union(Set<String> outer, Set<String> bound) {
+        if (bound.isEmpty()) {
+            return outer;
+        }
+        Set<String> scope = new HashSet<>(outer);
+        scope.addAll(bound);
+        return scope;
+    }
+}
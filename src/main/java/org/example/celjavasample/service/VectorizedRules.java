@@ -0,0 +1,530 @@
+package org.example.celjavasample.service;
+
+import dev.cel.common.ast.CelConstant;
+import dev.cel.common.ast.CelExpr;
+import org.example.celjavasample.utils.ColumnarBatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Rules that can be evaluated a batch at a time over the columns of a {@link ColumnarBatch}
+ * instead of an order at a time through the runtime. A rule qualifies when its AST combines
+ * nothing but columns of the batch and literals through comparisons, {@code in} over literal
+ * lists, {@code startsWith}, {@code endsWith} and {@code contains} on strings, double arithmetic
+ * and {@code &&}, {@code ||} and {@code !}. Mixes CEL rejects at runtime, such as ordering a double
+ * column against an int literal, keep the rule on the runtime.
+ * <p>
+ * A qualifying rule is compiled into loops over the columns that produce two bitmaps per batch:
+ * the rows it matches and the rows it cannot decide because a value it reads is missing. Those
+ * are left to the runtime whole, even where CEL could absorb the missing value as in
+ * {@code false && x}, since what the runtime makes of it depends on how the rule set shares
+ * subexpressions; the rows decided here are thus scored exactly as order by order. String
+ * predicates are tested once per distinct value rather than once per row.
+ */
+public final class VectorizedRules {
+
+    private static final VectorizedRules NONE = new VectorizedRules(new BoolExpr[0]);
+
+    // By rule position, null for rules that run on the runtime
+    private final BoolExpr[] rules;
+
+    private VectorizedRules(BoolExpr[] rules) {
+        this.rules = rules;
+    }
+
+    public static VectorizedRules none() {
+        return NONE;
+    }
+
+    public static VectorizedRules compile(List<CompiledRule> rules, Map<String, ColumnarBatch.Type> schema) {
+        BoolExpr[] compiled = new BoolExpr[rules.size()];
+        for (int i = 0; i < compiled.length; i++) {
+            compiled[i] = compile(rules.get(i), schema);
+        }
+        return new VectorizedRules(compiled);
+    }
+
+    private static BoolExpr compile(CompiledRule rule, Map<String, ColumnarBatch.Type> schema) {
+        CelExpr root = rule.ast().getExpr();
+        List<CelExpr> block = List.of();
+        if (root.getKind() == CelExpr.ExprKind.Kind.CALL && root.call().function().equals("cel.@block")) {
+            block = root.call().args().get(0).list().elements();
+            root = root.call().args().get(1);
+        }
+        try {
+            return new Compiler(schema, block).compile(root) instanceof Operand.Bool bool ? bool.expr() : null;
+        } catch (UnsupportedException e) {
+            return null;
+        }
+    }
+
+    public boolean supports(int position) {
+        return position < rules.length && rules[position] != null;
+    }
+
+    public int size() {
+        return (int) Arrays.stream(rules).filter(r -> r != null).count();
+    }
+
+    /**
+     * Rows each rule matches and rows it leaves undecided, by rule position; {@code null} for
+     * rules that run on the runtime.
+     */
+    public Result[] evaluate(ColumnarBatch batch) {
+        Result[] results = new Result[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            if (rules[i] != null) {
+                Bits bits = rules[i].eval(batch);
+                results[i] = new Result(bits.values(), bits.undecided());
+            }
+        }
+        return results;
+    }
+
+    public record Result(BitSet matched, BitSet undecided) {
+    }
+
+    // Values are only ever set on decided rows
+    private record Bits(BitSet values, BitSet undecided) {
+    }
+
+    private record Nums(double[] values, BitSet undecided) {
+    }
+
+    private interface BoolExpr {
+        Bits eval(ColumnarBatch batch);
+    }
+
+    private interface NumExpr {
+        Nums eval(ColumnarBatch batch);
+    }
+
+    private sealed interface Operand {
+
+        record Bool(BoolExpr expr) implements Operand {
+        }
+
+        record Num(NumExpr expr) implements Operand {
+        }
+
+        // Kept apart from double literals: CEL only lets them meet a double in equality
+        record Int(long value) implements Operand {
+        }
+
+        record StringColumn(String name) implements Operand {
+        }
+
+        record Str(String value) implements Operand {
+        }
+
+        record Literals(List<Object> values) implements Operand {
+        }
+    }
+
+    private static final class UnsupportedException extends RuntimeException {
+        private UnsupportedException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private enum Comparison {
+        EQ, NE, LT, LE, GT, GE;
+
+        static Comparison of(String function) {
+            return switch (function) {
+                case "_==_" -> EQ;
+                case "_!=_" -> NE;
+                case "_<_" -> LT;
+                case "_<=_" -> LE;
+                case "_>_" -> GT;
+                case "_>=_" -> GE;
+                default -> null;
+            };
+        }
+
+        Comparison flipped() {
+            return switch (this) {
+                case LT -> GT;
+                case LE -> GE;
+                case GT -> LT;
+                case GE -> LE;
+                default -> this;
+            };
+        }
+
+        boolean test(int compared) {
+            return switch (this) {
+                case EQ -> compared == 0;
+                case NE -> compared != 0;
+                case LT -> compared < 0;
+                case LE -> compared <= 0;
+                case GT -> compared > 0;
+                case GE -> compared >= 0;
+            };
+        }
+    }
+
+    private static final class Compiler {
+
+        private final Map<String, ColumnarBatch.Type> schema;
+
+        private final List<CelExpr> block;
+
+        private Compiler(Map<String, ColumnarBatch.Type> schema, List<CelExpr> block) {
+            this.schema = schema;
+            this.block = block;
+        }
+
+        Operand compile(CelExpr expr) {
+            return switch (expr.getKind()) {
+                case CONSTANT -> constant(expr.constant());
+                case IDENT -> ident(expr.ident().name());
+                case LIST -> literals(expr);
+                case CALL -> call(expr);
+                default -> throw new UnsupportedException();
+            };
+        }
+
+        private Operand constant(CelConstant constant) {
+            return switch (constant.getKind()) {
+                case BOOLEAN_VALUE -> bool(constant.booleanValue());
+                case INT64_VALUE -> new Operand.Int(constant.int64Value());
+                case DOUBLE_VALUE -> {
+                    double value = constant.doubleValue();
+                    if (Double.isNaN(value)) {
+                        throw new UnsupportedException();
+                    }
+                    yield new Operand.Num(batch -> new Nums(filled(batch.size(), value), new BitSet()));
+                }
+                case STRING_VALUE -> new Operand.Str(constant.stringValue());
+                default -> throw new UnsupportedException();
+            };
+        }
+
+        private Operand ident(String name) {
+            if (name.startsWith("@index")) {
+                return compile(block.get(Integer.parseInt(name.substring("@index".length()))));
+            }
+            ColumnarBatch.Type type = schema.get(name);
+            if (type == null) {
+                throw new UnsupportedException();
+            }
+            return switch (type) {
+                case DOUBLE -> new Operand.Num(batch -> {
+                    ColumnarBatch.DoubleColumn column = batch.doubles(name);
+                    return new Nums(column.values(), column.missing());
+                });
+                case STRING -> new Operand.StringColumn(name);
+            };
+        }
+
+        private Operand literals(CelExpr expr) {
+            if (!expr.list().optionalIndices().isEmpty()) {
+                throw new UnsupportedException();
+            }
+            List<Object> values = new ArrayList<>();
+            for (CelExpr element : expr.list().elements()) {
+                if (element.getKind() != CelExpr.ExprKind.Kind.CONSTANT) {
+                    throw new UnsupportedException();
+                }
+                CelConstant constant = element.constant();
+                values.add(switch (constant.getKind()) {
+                    case STRING_VALUE -> constant.stringValue();
+                    case INT64_VALUE -> constant.int64Value();
+                    case DOUBLE_VALUE -> constant.doubleValue();
+                    default -> throw new UnsupportedException();
+                });
+            }
+            return new Operand.Literals(values);
+        }
+
+        private Operand call(CelExpr expr) {
+            var call = expr.call();
+            String function = call.function();
+            if (call.target().isPresent()) {
+                if (call.args().size() != 1
+                        || !(compile(call.target().get()) instanceof Operand.StringColumn column)
+                        || !(compile(call.args().get(0)) instanceof Operand.Str arg)) {
+                    throw new UnsupportedException();
+                }
+                String s = arg.value();
+                return switch (function) {
+                    case "startsWith" -> strings(column, v -> v.startsWith(s));
+                    case "endsWith" -> strings(column, v -> v.endsWith(s));
+                    case "contains" -> strings(column, v -> v.contains(s));
+                    default -> throw new UnsupportedException();
+                };
+            }
+            List<Operand> args = call.args().stream().map(this::compile).toList();
+            Comparison comparison = Comparison.of(function);
+            if (comparison != null) {
+                return compare(comparison, args.get(0), args.get(1));
+            }
+            return switch (function) {
+                case "_&&_" -> and(bool(args.get(0)), bool(args.get(1)));
+                case "_||_" -> or(bool(args.get(0)), bool(args.get(1)));
+                case "!_" -> not(bool(args.get(0)));
+                case "@in" -> in(args.get(0), args.get(1));
+                case "-_" -> negate(num(args.get(0)));
+                case "_+_", "_-_", "_*_", "_/_" -> arithmetic(function, num(args.get(0)), num(args.get(1)));
+                default -> throw new UnsupportedException();
+            };
+        }
+
+        private static BoolExpr bool(Operand operand) {
+            if (operand instanceof Operand.Bool bool) {
+                return bool.expr();
+            }
+            throw new UnsupportedException();
+        }
+
+        private static NumExpr num(Operand operand) {
+            if (operand instanceof Operand.Num num) {
+                return num.expr();
+            }
+            throw new UnsupportedException();
+        }
+
+        private static Operand bool(boolean value) {
+            return new Operand.Bool(batch -> {
+                BitSet values = new BitSet(batch.size());
+                if (value) {
+                    values.set(0, batch.size());
+                }
+                return new Bits(values, new BitSet());
+            });
+        }
+
+        private static Operand compare(Comparison comparison, Operand left, Operand right) {
+            if (left instanceof Operand.StringColumn column && right instanceof Operand.Str s) {
+                return strings(column, v -> comparison.test(v.compareTo(s.value())));
+            }
+            if (left instanceof Operand.Str s && right instanceof Operand.StringColumn column) {
+                return strings(column, v -> comparison.flipped().test(v.compareTo(s.value())));
+            }
+            // CEL only lets ints and doubles meet in equality, where they compare by value
+            if ((comparison == Comparison.EQ || comparison == Comparison.NE)
+                    && (left instanceof Operand.Int || right instanceof Operand.Int)) {
+                Operand other = left instanceof Operand.Int ? right : left;
+                long value = ((Operand.Int) (left instanceof Operand.Int ? left : right)).value();
+                NumExpr num = num(other);
+                double d = exactDouble(value);
+                return new Operand.Bool(batch -> compare(comparison, num.eval(batch), filled(batch.size(), d)));
+            }
+            NumExpr a = num(left);
+            NumExpr b = num(right);
+            return new Operand.Bool(batch -> {
+                Nums x = a.eval(batch);
+                Nums y = b.eval(batch);
+                return compare(comparison, new Nums(x.values(), union(x.undecided(), y.undecided())), y.values());
+            });
+        }
+
+        private static Operand in(Operand left, Operand right) {
+            if (!(right instanceof Operand.Literals literals)) {
+                throw new UnsupportedException();
+            }
+            if (left instanceof Operand.StringColumn column && literals.values().stream().allMatch(v -> v instanceof String)) {
+                return strings(column, literals.values()::contains);
+            }
+            NumExpr num = num(left);
+            double[] candidates = new double[literals.values().size()];
+            for (int i = 0; i < candidates.length; i++) {
+                candidates[i] = switch (literals.values().get(i)) {
+                    case Long l -> exactDouble(l);
+                    case Double d when !d.isNaN() -> d;
+                    default -> throw new UnsupportedException();
+                };
+            }
+            return new Operand.Bool(batch -> {
+                Nums x = num.eval(batch);
+                long[] words = new long[words(batch.size())];
+                for (int i = 0; i < batch.size(); i++) {
+                    double v = x.values()[i];
+                    for (double candidate : candidates) {
+                        if (v == candidate) {
+                            words[i >> 6] |= 1L << i;
+                            break;
+                        }
+                    }
+                }
+                return decided(words, x.undecided());
+            });
+        }
+
+        private static long exactDouble(long value) {
+            // Beyond 2^53 the double nearest an int is not always equal to it
+            if (Math.abs(value) > 1L << 53) {
+                throw new UnsupportedException();
+            }
+            return value;
+        }
+
+        private static Operand strings(Operand.StringColumn column, Predicate<String> test) {
+            String name = column.name();
+            return new Operand.Bool(batch -> {
+                ColumnarBatch.StringColumn strings = batch.strings(name);
+                String[] dictionary = strings.dictionary();
+                boolean[] hits = new boolean[dictionary.length];
+                for (int i = 0; i < dictionary.length; i++) {
+                    hits[i] = test.test(dictionary[i]);
+                }
+                int[] codes = strings.codes();
+                long[] words = new long[words(codes.length)];
+                BitSet undecided = new BitSet(codes.length);
+                for (int i = 0; i < codes.length; i++) {
+                    int code = codes[i];
+                    if (code < 0) {
+                        undecided.set(i);
+                    } else if (hits[code]) {
+                        words[i >> 6] |= 1L << i;
+                    }
+                }
+                return new Bits(BitSet.valueOf(words), undecided);
+            });
+        }
+
+        private static Bits compare(Comparison comparison, Nums left, double[] right) {
+            double[] a = left.values();
+            int n = a.length;
+            long[] words = new long[words(n)];
+            // One loop per operator keeps the comparison out of the loop body
+            switch (comparison) {
+                case EQ -> {
+                    for (int i = 0; i < n; i++) {
+                        words[i >> 6] |= (a[i] == right[i] ? 1L : 0L) << i;
+                    }
+                }
+                case NE -> {
+                    for (int i = 0; i < n; i++) {
+                        words[i >> 6] |= (a[i] != right[i] ? 1L : 0L) << i;
+                    }
+                }
+                case LT -> {
+                    for (int i = 0; i < n; i++) {
+                        words[i >> 6] |= (a[i] < right[i] ? 1L : 0L) << i;
+                    }
+                }
+                case LE -> {
+                    for (int i = 0; i < n; i++) {
+                        words[i >> 6] |= (a[i] <= right[i] ? 1L : 0L) << i;
+                    }
+                }
+                case GT -> {
+                    for (int i = 0; i < n; i++) {
+                        words[i >> 6] |= (a[i] > right[i] ? 1L : 0L) << i;
+                    }
+                }
+                case GE -> {
+                    for (int i = 0; i < n; i++) {
+                        words[i >> 6] |= (a[i] >= right[i] ? 1L : 0L) << i;
+                    }
+                }
+            }
+            return decided(words, left.undecided());
+        }
+
+        private static Operand arithmetic(String function, NumExpr left, NumExpr right) {
+            return new Operand.Num(batch -> {
+                Nums x = left.eval(batch);
+                Nums y = right.eval(batch);
+                double[] a = x.values();
+                double[] b = y.values();
+                double[] result = new double[a.length];
+                switch (function) {
+                    case "_+_" -> {
+                        for (int i = 0; i < a.length; i++) {
+                            result[i] = a[i] + b[i];
+                        }
+                    }
+                    case "_-_" -> {
+                        for (int i = 0; i < a.length; i++) {
+                            result[i] = a[i] - b[i];
+                        }
+                    }
+                    case "_*_" -> {
+                        for (int i = 0; i < a.length; i++) {
+                            result[i] = a[i] * b[i];
+                        }
+                    }
+                    default -> {
+                        for (int i = 0; i < a.length; i++) {
+                            result[i] = a[i] / b[i];
+                        }
+                    }
+                }
+                return new Nums(result, union(x.undecided(), y.undecided()));
+            });
+        }
+
+        private static Operand negate(NumExpr operand) {
+            return new Operand.Num(batch -> {
+                Nums x = operand.eval(batch);
+                double[] result = new double[x.values().length];
+                for (int i = 0; i < result.length; i++) {
+                    result[i] = -x.values()[i];
+                }
+                return new Nums(result, x.undecided());
+            });
+        }
+
+        private static Operand and(BoolExpr left, BoolExpr right) {
+            return new Operand.Bool(batch -> {
+                Bits a = left.eval(batch);
+                Bits b = right.eval(batch);
+                BitSet values = (BitSet) a.values().clone();
+                values.and(b.values());
+                return decided(values, union(a.undecided(), b.undecided()));
+            });
+        }
+
+        private static Operand or(BoolExpr left, BoolExpr right) {
+            return new Operand.Bool(batch -> {
+                Bits a = left.eval(batch);
+                Bits b = right.eval(batch);
+                return decided(union(a.values(), b.values()), union(a.undecided(), b.undecided()));
+            });
+        }
+
+        private static Operand not(BoolExpr operand) {
+            return new Operand.Bool(batch -> {
+                Bits a = operand.eval(batch);
+                BitSet values = new BitSet(batch.size());
+                values.set(0, batch.size());
+                values.andNot(a.values());
+                values.andNot(a.undecided());
+                return new Bits(values, a.undecided());
+            });
+        }
+
+        private static Bits decided(long[] words, BitSet undecided) {
+            return decided(BitSet.valueOf(words), undecided);
+        }
+
+        private static Bits decided(BitSet values, BitSet undecided) {
+            values.andNot(undecided);
+            return new Bits(values, undecided);
+        }
+
+        private static BitSet union(BitSet a, BitSet b) {
+            BitSet union = (BitSet) a.clone();
+            union.or(b);
+            return union;
+        }
+
+        private static double[] filled(int size, double value) {
+            double[] values = new double[size];
+            Arrays.fill(values, value);
+            return values;
+        }
+
+        private static int words(int size) {
+            return (size + 63) >> 6;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package org.example.celjavasample.utils;
+
+import dev.cel.common.CelAbstractSyntaxTree;
+import dev.cel.common.ast.CelConstant;
+import dev.cel.common.ast.CelExpr;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class CelAstUtils {
+
+    /**
+     * Top-level variables an expression reads from its activation, in order of first use.
+     * Comprehension loop and accumulator variables are scoped out, as are the {@code @}-prefixed
+     * internal names the optimizer introduces.
+     */
+    public static Set<String> referencedVariables(CelAbstractSyntaxTree ast) {
+        Set<String> variables = new LinkedHashSet<>();
+        collectVariables(ast.getExpr(), new HashSet<>(), variables);
+        return variables;
+    }
+
+    private static void collectVariables(CelExpr expr, Set<String> locals, Set<String> variables) {
+        switch (expr.getKind()) {
+            case IDENT -> {
+                String name = expr.ident().name();
+                if (!locals.contains(name) && !name.startsWith("@")) {
+                    variables.add(name);
+                }
+            }
+            case SELECT -> collectVariables(expr.select().operand(), locals, variables);
+            case CALL -> {
+                expr.call().target().ifPresent(t -> collectVariables(t, locals, variables));
+                expr.call().args().forEach(a -> collectVariables(a, locals, variables));
+            }
+            case LIST -> expr.list().elements().forEach(e -> collectVariables(e, locals, variables));
+            case MAP -> expr.map().entries().forEach(e -> {
+                collectVariables(e.key(), locals, variables);
+                collectVariables(e.value(), locals, variables);
+            });
+            case STRUCT -> expr.struct().entries().forEach(e -> collectVariables(e.value(), locals, variables));
+            case COMPREHENSION -> {
+                var c = expr.comprehension();
+                collectVariables(c.iterRange(), locals, variables);
+                collectVariables(c.accuInit(), locals, variables);
+
+                Set<String> loopScope = new HashSet<>(locals);
+                loopScope.add(c.iterVar());
+                if (!c.iterVar2().isEmpty()) {
+                    loopScope.add(c.iterVar2());
+                }
+                loopScope.add(c.accuVar());
+                collectVariables(c.loopCondition(), loopScope, variables);
+                collectVariables(c.loopStep(), loopScope, variables);
+
+                Set<String> resultScope = new HashSet<>(locals);
+                resultScope.add(c.accuVar());
+                collectVariables(c.result(), resultScope, variables);
+            }
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Input paths an expression reads, e.g. {@code totalAmount}, {@code branch.code},
+     * {@code items[*].price} for a field of any element and {@code items[#]} for a list's length.
+     * A path read as a whole value covers everything below it. Where a loop iterates something
+     * other than a plain path, uses of its loop variable fall back to the whole variables the
+     * range reads, so the result may be wider than necessary but never misses a dependency.
+     */
+    public static Set<String> referencedPaths(CelAbstractSyntaxTree ast) {
+        Set<String> paths = new TreeSet<>();
+        collectPaths(ast.getExpr(), Map.of(), paths);
+        // Drop paths already covered by a shorter one
+        Set<String> covered = new TreeSet<>();
+        for (String path : paths) {
+            if (covered.stream().noneMatch(c -> isPrefix(c, path))) {
+                covered.add(path);
+            }
+        }
+        return covered;
+    }
+
+    /**
+     * Whether a change at one path can affect a read of the other: they are equal or one lies
+     * under the other. {@code items[#]} and {@code items[*].price} do not overlap.
+     */
+    public static boolean pathsOverlap(String a, String b) {
+        return isPrefix(a, b) || isPrefix(b, a);
+    }
+
+    private static boolean isPrefix(String prefix, String path) {
+        if (!path.startsWith(prefix)) {
+            return false;
+        }
+        if (path.length() == prefix.length()) {
+            return true;
+        }
+        char next = path.charAt(prefix.length());
+        return next == '.' || next == '[';
+    }
+
+    /**
+     * What a loop variable stands for: the elements of {@code path}, or when the range is not a
+     * plain path, the whole of the {@code fallback} paths.
+     */
+    private record Binding(String path, Set<String> fallback) {
+    }
+
+    private static void collectPaths(CelExpr expr, Map<String, Binding> scope, Set<String> paths) {
+        String path = path(expr, scope);
+        if (path != null) {
+            paths.add(path);
+            return;
+        }
+        switch (expr.getKind()) {
+            case IDENT -> {
+                Binding binding = scope.get(expr.ident().name());
+                if (binding != null) {
+                    paths.addAll(binding.fallback());
+                }
+            }
+            case SELECT -> collectPaths(expr.select().operand(), scope, paths);
+            case CALL -> {
+                var call = expr.call();
+                CelExpr sized = call.function().equals("size")
+                        ? call.target().orElse(call.args().size() == 1 ? call.args().get(0) : null)
+                        : null;
+                String sizedPath = sized == null ? null : path(sized, scope);
+                if (sizedPath != null) {
+                    paths.add(sizedPath + "[#]");
+                    return;
+                }
+                call.target().ifPresent(t -> collectPaths(t, scope, paths));
+                call.args().forEach(a -> collectPaths(a, scope, paths));
+            }
+            case LIST -> expr.list().elements().forEach(e -> collectPaths(e, scope, paths));
+            case MAP -> expr.map().entries().forEach(e -> {
+                collectPaths(e.key(), scope, paths);
+                collectPaths(e.value(), scope, paths);
+            });
+            case STRUCT -> expr.struct().entries().forEach(e -> collectPaths(e.value(), scope, paths));
+            case COMPREHENSION -> {
+                var c = expr.comprehension();
+                String range = path(c.iterRange(), scope);
+                Binding element;
+                if (range != null) {
+                    paths.add(range + "[#]");
+                    element = new Binding(range + "[*]", Set.of(range + "[*]"));
+                } else {
+                    Set<String> rangePaths = new TreeSet<>();
+                    collectPaths(c.iterRange(), scope, rangePaths);
+                    paths.addAll(rangePaths);
+                    Set<String> roots = new TreeSet<>();
+                    for (String p : rangePaths) {
+                        roots.add(p.split("[.\\[]", 2)[0]);
+                    }
+                    element = new Binding(null, roots);
+                }
+                collectPaths(c.accuInit(), scope, paths);
+
+                // The accumulator only carries values the loop step has already read
+                Map<String, Binding> loopScope = new HashMap<>(scope);
+                loopScope.put(c.iterVar(), element);
+                if (!c.iterVar2().isEmpty()) {
+                    loopScope.put(c.iterVar2(), element);
+                }
+                loopScope.put(c.accuVar(), new Binding(null, Set.of()));
+                collectPaths(c.loopCondition(), loopScope, paths);
+                collectPaths(c.loopStep(), loopScope, paths);
+
+                Map<String, Binding> resultScope = new HashMap<>(scope);
+                resultScope.put(c.accuVar(), new Binding(null, Set.of()));
+                collectPaths(c.result(), resultScope, paths);
+            }
+            default -> {
+            }
+        }
+    }
+
+    // The path a field access, constant index or variable reads, or null for any other expression
+    private static String path(CelExpr expr, Map<String, Binding> scope) {
+        return switch (expr.getKind()) {
+            case IDENT -> {
+                String name = expr.ident().name();
+                Binding binding = scope.get(name);
+                if (binding != null) {
+                    yield binding.path();
+                }
+                yield name.startsWith("@") ? null : name;
+            }
+            case SELECT -> {
+                String operand = path(expr.select().operand(), scope);
+                yield operand == null ? null : operand + "." + expr.select().field();
+            }
+            case CALL -> {
+                var call = expr.call();
+                if (!call.function().equals("_[_]") || call.args().size() != 2
+                        || call.args().get(1).getKind() != CelExpr.ExprKind.Kind.CONSTANT) {
+                    yield null;
+                }
+                String operand = path(call.args().get(0), scope);
+                CelConstant key = call.args().get(1).constant();
+                if (operand == null) {
+                    yield null;
+                }
+                yield key.getKind() == CelConstant.Kind.STRING_VALUE
+                        ? operand + "." + key.stringValue()
+                        : operand + "[*]";
+            }
+            default -> null;
+        };
+    }
+}
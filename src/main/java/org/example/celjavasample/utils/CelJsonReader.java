@@ -0,0 +1,184 @@
+package org.example.celjavasample.utils;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads JSON straight into CEL-ready values in a single streaming pass: integers become
+ * {@code Long}, decimals become {@code Double}, objects become maps and arrays become lists. No
+ * intermediate Jackson tree is built and nothing is copied afterwards.
+ * <p>
+ * Entries are staged on a shared scratch stack while an object or array is being read, so every
+ * collection is allocated once at its exact final size. With {@code immutable} set, containers are
+ * built as compact Guava immutable collections (falling back to unmodifiable JDK ones when they
+ * hold JSON nulls, which Guava rejects).
+ */
+public class CelJsonReader {
+
+    private final JsonFactory factory;
+
+    private final boolean immutable;
+
+    public CelJsonReader() {
+        this(new JsonFactory(), false);
+    }
+
+    public CelJsonReader(JsonFactory factory, boolean immutable) {
+        this.factory = factory;
+        this.immutable = immutable;
+    }
+
+    public Map<String, Object> readObject(String json) throws JsonProcessingException {
+        return readObject(json, null);
+    }
+
+    /**
+     * Reads only the given top-level fields; everything else is skipped by the parser without
+     * being materialized. A {@code null} set reads every field.
+     */
+    public Map<String, Object> readObject(String json, Set<String> fields) throws JsonProcessingException {
+        try (JsonParser p = factory.createParser(json)) {
+            return readRoot(p, fields);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Map<String, Object> readObject(byte[] json) throws JsonProcessingException {
+        return readObject(json, null);
+    }
+
+    public Map<String, Object> readObject(byte[] json, Set<String> fields) throws JsonProcessingException {
+        return readObject(json, 0, json.length, fields);
+    }
+
+    /**
+     * Reads the object in {@code json[offset, offset + length)}, e.g. one record of a larger buffer.
+     */
+    public Map<String, Object> readObject(byte[] json, int offset, int length, Set<String> fields) throws JsonProcessingException {
+        try (JsonParser p = factory.createParser(json, offset, length)) {
+            return readRoot(p, fields);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Map<String, Object> readRoot(JsonParser p, Set<String> fields) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(p, "Expected a JSON object but got " + p.currentToken());
+        }
+        return readObject(p, new Scratch(), fields);
+    }
+
+    private Map<String, Object> readObject(JsonParser p, Scratch scratch, Set<String> fields) throws IOException {
+        int mark = scratch.size;
+        boolean hasNull = false;
+        String name;
+        while ((name = p.nextFieldName()) != null) {
+            if (fields != null && !fields.contains(name)) {
+                p.nextToken();
+                p.skipChildren();
+                continue;
+            }
+            Object value = readValue(p, p.nextToken(), scratch);
+            hasNull |= value == null;
+            scratch.push(name);
+            scratch.push(value);
+        }
+
+        int entries = (scratch.size - mark) / 2;
+        Map<String, Object> map;
+        if (immutable && !hasNull) {
+            ImmutableMap.Builder<String, Object> builder = ImmutableMap.builderWithExpectedSize(entries);
+            for (int i = mark; i < scratch.size; i += 2) {
+                builder.put((String) scratch.values[i], scratch.values[i + 1]);
+            }
+            map = builder.buildKeepingLast();
+        } else {
+            LinkedHashMap<String, Object> result = LinkedHashMap.newLinkedHashMap(entries);
+            for (int i = mark; i < scratch.size; i += 2) {
+                result.put((String) scratch.values[i], scratch.values[i + 1]);
+            }
+            map = immutable ? Collections.unmodifiableMap(result) : result;
+        }
+        scratch.popTo(mark);
+        return map;
+    }
+
+    private List<Object> readArray(JsonParser p, Scratch scratch) throws IOException {
+        int mark = scratch.size;
+        boolean hasNull = false;
+        JsonToken token;
+        while ((token = p.nextToken()) != JsonToken.END_ARRAY) {
+            Object value = readValue(p, token, scratch);
+            hasNull |= value == null;
+            scratch.push(value);
+        }
+
+        List<Object> list;
+        if (immutable && !hasNull) {
+            list = ImmutableList.copyOf(Arrays.asList(scratch.values).subList(mark, scratch.size));
+        } else {
+            ArrayList<Object> result = new ArrayList<>(scratch.size - mark);
+            for (int i = mark; i < scratch.size; i++) {
+                result.add(scratch.values[i]);
+            }
+            list = immutable ? Collections.unmodifiableList(result) : result;
+        }
+        scratch.popTo(mark);
+        return list;
+    }
+
+    private Object readValue(JsonParser p, JsonToken token, Scratch scratch) throws IOException {
+        return switch (token) {
+            case START_OBJECT -> readObject(p, scratch, null);
+            case START_ARRAY -> readArray(p, scratch);
+            case VALUE_STRING -> p.getText();
+            // CEL has no arbitrary precision integers, so anything beyond a long is read as a double
+            case VALUE_NUMBER_INT -> p.getNumberType() == JsonParser.NumberType.BIG_INTEGER
+                    ? (Object) p.getDoubleValue()
+                    : (Object) p.getLongValue();
+            case VALUE_NUMBER_FLOAT -> p.getDoubleValue();
+            case VALUE_TRUE -> Boolean.TRUE;
+            case VALUE_FALSE -> Boolean.FALSE;
+            case VALUE_NULL -> null;
+            default -> throw new JsonParseException(p, "Unexpected token " + token);
+        };
+    }
+
+    private static final class Scratch {
+        private Object[] values = new Object[64];
+        private int size;
+
+        void push(Object value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void popTo(int mark) {
+            Arrays.fill(values, mark, size, null);
+            size = mark;
+        }
+    }
+}
@@ -2,19 +2,28 @@ package org.example.celjavasample.utils;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.cel.runtime.CelVariableResolver;
 
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 public class CelJsonUtils {
 
     private static final ObjectMapper mapper = new ObjectMapper();
 
+    private static final CelJsonReader reader = new CelJsonReader(mapper.getFactory(), false);
+
     public static Map<String, Object> jsonToCelInput(String json) throws JsonProcessingException {
-        Object raw = mapper.readValue(json, Object.class);
-        return (Map<String, Object>) convertNumbers(raw);
+        return reader.readObject(json);
+    }
+
+    // Lets one converted input be shared across many program evaluations without
+    // Program.eval(Map) copying it into a fresh activation every time
+    public static CelVariableResolver variableResolver(Map<String, Object> input) {
+        return name -> Optional.ofNullable(input.get(name));
     }
 
     public static String toJson(Object result) throws JsonProcessingException {
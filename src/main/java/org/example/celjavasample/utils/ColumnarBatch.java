@@ -0,0 +1,92 @@
+package org.example.celjavasample.utils;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Top-level scalar fields of a batch of orders, one primitive column per field: numbers as a
+ * {@code double[]}, strings dictionary-encoded as an {@code int[]} of codes into the distinct
+ * values of the batch.
+ * <p>
+ * A row whose value is null, absent, NaN or not of the column's type is marked missing and left
+ * for the per-order runtime to deal with, since CEL does not treat those like ordinary values.
+ */
+public final class ColumnarBatch {
+
+    public enum Type {
+        DOUBLE, STRING
+    }
+
+    public record DoubleColumn(double[] values, BitSet missing) {
+    }
+
+    /**
+     * {@code codes[row]} indexes {@code dictionary}, or is {@code -1} for a missing value.
+     */
+    public record StringColumn(int[] codes, String[] dictionary) {
+    }
+
+    private final int size;
+
+    private final Map<String, Type> schema;
+
+    private final Map<String, Object> columns;
+
+    private ColumnarBatch(int size, Map<String, Type> schema, Map<String, Object> columns) {
+        this.size = size;
+        this.schema = schema;
+        this.columns = columns;
+    }
+
+    public static ColumnarBatch of(List<? extends Map<String, ?>> rows, Map<String, Type> schema) {
+        Map<String, Object> columns = new HashMap<>();
+        schema.forEach((name, type) -> columns.put(name, switch (type) {
+            case DOUBLE -> doubles(rows, name);
+            case STRING -> strings(rows, name);
+        }));
+        return new ColumnarBatch(rows.size(), Map.copyOf(schema), columns);
+    }
+
+    private static DoubleColumn doubles(List<? extends Map<String, ?>> rows, String name) {
+        double[] values = new double[rows.size()];
+        BitSet missing = new BitSet(rows.size());
+        for (int i = 0; i < values.length; i++) {
+            if (rows.get(i).get(name) instanceof Double d && !d.isNaN()) {
+                values[i] = d;
+            } else {
+                missing.set(i);
+            }
+        }
+        return new DoubleColumn(values, missing);
+    }
+
+    private static StringColumn strings(List<? extends Map<String, ?>> rows, String name) {
+        int[] codes = new int[rows.size()];
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = rows.get(i).get(name) instanceof String s
+                    ? dictionary.computeIfAbsent(s, k -> dictionary.size())
+                    : -1;
+        }
+        return new StringColumn(codes, dictionary.keySet().toArray(String[]::new));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Map<String, Type> schema() {
+        return schema;
+    }
+
+    public DoubleColumn doubles(String name) {
+        return (DoubleColumn) columns.get(name);
+    }
+
+    public StringColumn strings(String name) {
+        return (StringColumn) columns.get(name);
+    }
+}
@@ -0,0 +1,148 @@
+package org.example.celjavasample.utils;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import dev.cel.runtime.CelVariableResolver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 128-bit fingerprints of the values one input holds at the paths of
+ * {@link CelAstUtils#referencedPaths}. Two inputs with equal fingerprints for a rule's paths give
+ * the rule the same values to read, whatever else differs between them. Path hashes are kept for
+ * the lifetime of the instance, so rules reading the same paths of an input pay for them once.
+ * <p>
+ * Where a path cannot be followed, e.g. a field the map does not hold, the whole value reached so
+ * far is hashed instead: that covers {@code has()} tests and field names containing dots.
+ */
+public final class InputFingerprint {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private static final String ALL = "[*]";
+    private static final String SIZE = "[#]";
+
+    private static final byte ABSENT = 0;
+    private static final byte NULL = 1;
+    private static final byte BOOL = 2;
+    private static final byte INT = 3;
+    private static final byte DOUBLE = 4;
+    private static final byte STRING = 5;
+    private static final byte LIST = 6;
+    private static final byte MAP = 7;
+    private static final byte LENGTH = 8;
+    private static final byte OTHER = 9;
+
+    private final CelVariableResolver input;
+
+    private final Map<String, HashCode> paths = new HashMap<>();
+
+    public InputFingerprint(CelVariableResolver input) {
+        this.input = input;
+    }
+
+    public HashCode of(Collection<String> paths) {
+        Hasher hasher = HASH.newHasher();
+        for (String path : paths) {
+            hasher.putBytes(path(path).asBytes());
+        }
+        return hasher.hash();
+    }
+
+    public HashCode path(String path) {
+        return paths.computeIfAbsent(path, p -> {
+            List<String> steps = steps(p);
+            Hasher hasher = HASH.newHasher();
+            Optional<Object> root = input.find(steps.get(0));
+            if (root.isEmpty()) {
+                hasher.putByte(ABSENT);
+            } else {
+                walk(root.get(), steps, 1, hasher);
+            }
+            return hasher.hash();
+        });
+    }
+
+    private static List<String> steps(String path) {
+        List<String> steps = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= path.length(); i++) {
+            char c = i < path.length() ? path.charAt(i) : '.';
+            if (c == '.' || c == '[') {
+                if (i > start) {
+                    steps.add(path.substring(start, i));
+                }
+                if (c == '[') {
+                    int end = path.indexOf(']', i);
+                    steps.add(path.substring(i, end + 1));
+                    i = end;
+                }
+                start = i + 1;
+            }
+        }
+        return steps;
+    }
+
+    private static void walk(Object value, List<String> steps, int step, Hasher hasher) {
+        if (step == steps.size()) {
+            put(value, hasher);
+            return;
+        }
+        String next = steps.get(step);
+        if (SIZE.equals(next) && (value instanceof Collection<?> || value instanceof Map<?, ?>)) {
+            hasher.putByte(LENGTH).putInt(value instanceof Map<?, ?> m ? m.size() : ((Collection<?>) value).size());
+        } else if (ALL.equals(next) && value instanceof List<?> list) {
+            hasher.putByte(LIST).putInt(list.size());
+            for (Object element : list) {
+                walk(element, steps, step + 1, hasher);
+            }
+        } else if (!next.startsWith("[") && value instanceof Map<?, ?> map && map.containsKey(next)) {
+            walk(map.get(next), steps, step + 1, hasher);
+        } else {
+            put(value, hasher);
+        }
+    }
+
+    private static void put(Object value, Hasher hasher) {
+        if (value == null) {
+            hasher.putByte(NULL);
+        } else if (value instanceof Boolean b) {
+            hasher.putByte(BOOL).putBoolean(b);
+        } else if (value instanceof Long l) {
+            hasher.putByte(INT).putLong(l);
+        } else if (value instanceof Double d) {
+            hasher.putByte(DOUBLE).putDouble(d);
+        } else if (value instanceof String s) {
+            putString(STRING, s, hasher);
+        } else if (value instanceof List<?> list) {
+            hasher.putByte(LIST).putInt(list.size());
+            for (Object element : list) {
+                put(element, hasher);
+            }
+        } else if (value instanceof Map<?, ?> map) {
+            // Same fields in another order are the same value
+            List<Map.Entry<?, ?>> entries = new ArrayList<>(map.entrySet());
+            entries.sort(Comparator.comparing(e -> String.valueOf(e.getKey())));
+            hasher.putByte(MAP).putInt(entries.size());
+            for (Map.Entry<?, ?> entry : entries) {
+                put(entry.getKey(), hasher);
+                put(entry.getValue(), hasher);
+            }
+        } else {
+            putString(OTHER, value.getClass().getName() + ":" + value, hasher);
+        }
+    }
+
+    private static void putString(byte tag, String s, Hasher hasher) {
+        hasher.putByte(tag).putInt(s.length()).putString(s, StandardCharsets.UTF_8);
+    }
+}
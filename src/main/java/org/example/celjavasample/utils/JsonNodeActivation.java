@@ -0,0 +1,187 @@
+package org.example.celjavasample.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.cel.runtime.CelVariableResolver;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Variable resolver over a parsed but unconverted {@link JsonNode}. Values are converted to CEL
+ * types only when a program reads them: objects and arrays are exposed as map and list views whose
+ * members are converted on first access, so untouched subtrees cost nothing.
+ * <p>
+ * Converted values are memoized, which makes one instance cheap to share across every rule
+ * evaluated for the same order. Instances are not thread-safe.
+ */
+public class JsonNodeActivation implements CelVariableResolver {
+
+    private static final Object UNRESOLVED = new Object();
+
+    private final JsonNode root;
+
+    private final Map<String, Optional<Object>> resolved = new HashMap<>();
+
+    public JsonNodeActivation(JsonNode root) {
+        if (!root.isObject()) {
+            throw new IllegalArgumentException("Expected a JSON object but got " + root.getNodeType());
+        }
+        this.root = root;
+    }
+
+    public static JsonNodeActivation parse(ObjectMapper mapper, byte[] json) throws IOException {
+        return new JsonNodeActivation(mapper.readTree(json));
+    }
+
+    @Override
+    public Optional<Object> find(String name) {
+        Optional<Object> value = resolved.get(name);
+        if (value == null) {
+            JsonNode node = root.get(name);
+            value = node == null ? Optional.empty() : Optional.ofNullable(toCelValue(node));
+            resolved.put(name, value);
+        }
+        return value;
+    }
+
+    static Object toCelValue(JsonNode node) {
+        return switch (node.getNodeType()) {
+            case OBJECT -> new ObjectView(node);
+            case ARRAY -> new ArrayView(node);
+            case STRING -> node.textValue();
+            case BOOLEAN -> node.booleanValue();
+            case NUMBER -> node.isIntegralNumber() && node.canConvertToLong() ? (Object) node.longValue() : (Object) node.doubleValue();
+            case NULL, MISSING -> null;
+            default -> node.asText();
+        };
+    }
+
+    private static final class ObjectView extends AbstractMap<String, Object> {
+        private final JsonNode node;
+        private final Map<String, Object> converted = new HashMap<>();
+
+        ObjectView(JsonNode node) {
+            this.node = node;
+        }
+
+        @Override
+        public Object get(Object key) {
+            if (!(key instanceof String name)) {
+                return null;
+            }
+            Object value = converted.getOrDefault(name, UNRESOLVED);
+            if (value == UNRESOLVED) {
+                JsonNode child = node.get(name);
+                value = child == null ? null : toCelValue(child);
+                converted.put(name, value);
+            }
+            return value;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String name && node.has(name);
+        }
+
+        @Override
+        public int size() {
+            return node.size();
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    Iterator<String> names = node.fieldNames();
+                    return new Iterator<>() {
+                        @Override
+                        public boolean hasNext() {
+                            return names.hasNext();
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            String name = names.next();
+                            return new LazyEntry(name);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return node.size();
+                }
+            };
+        }
+
+        private final class LazyEntry implements Entry<String, Object> {
+            private final String name;
+
+            LazyEntry(String name) {
+                this.name = name;
+            }
+
+            @Override
+            public String getKey() {
+                return name;
+            }
+
+            @Override
+            public Object getValue() {
+                return get(name);
+            }
+
+            @Override
+            public Object setValue(Object value) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                return o instanceof Entry<?, ?> e && name.equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+            }
+
+            @Override
+            public int hashCode() {
+                return name.hashCode() ^ Objects.hashCode(getValue());
+            }
+        }
+    }
+
+    private static final class ArrayView extends AbstractList<Object> {
+        private final JsonNode node;
+        private final Object[] converted;
+
+        ArrayView(JsonNode node) {
+            this.node = node;
+            this.converted = new Object[node.size()];
+            Arrays.fill(converted, UNRESOLVED);
+        }
+
+        @Override
+        public Object get(int index) {
+            Object value = converted[index];
+            if (value == UNRESOLVED) {
+                value = toCelValue(node.get(index));
+                converted[index] = value;
+            }
+            return value;
+        }
+
+        @Override
+        public int size() {
+            return converted.length;
+        }
+    }
+}
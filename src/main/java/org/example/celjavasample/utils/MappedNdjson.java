@@ -0,0 +1,117 @@
+package org.example.celjavasample.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads NDJSON files through memory-mapped segments. A file is cut into segments of roughly equal
+ * size that always end on a newline, so each can be mapped and scanned independently, e.g. by a
+ * different thread.
+ */
+public class MappedNdjson {
+
+    // A single mapping is limited to Integer.MAX_VALUE bytes
+    public static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+    private static final int PROBE_SIZE = 64 * 1024;
+
+    public record Segment(long offset, long length) {
+    }
+
+    /**
+     * Splits the file into segments of about {@code targetSize} bytes, each extended to the end of
+     * the record it would otherwise cut through.
+     */
+    public static List<Segment> split(FileChannel channel, long targetSize) throws IOException {
+        if (targetSize < 1 || targetSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size out of range: " + targetSize);
+        }
+        long size = channel.size();
+        List<Segment> segments = new ArrayList<>();
+        ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+        long start = 0;
+        while (start < size) {
+            long end = Math.min(start + targetSize, size);
+            if (end < size) {
+                end = nextRecord(channel, end - 1, probe);
+            }
+            if (end - start > MAX_SEGMENT_SIZE) {
+                throw new IOException("Record at offset " + start + " does not fit in a mapped segment");
+            }
+            segments.add(new Segment(start, end - start));
+            start = end;
+        }
+        return segments;
+    }
+
+    // Offset just past the first newline at or after position, or the end of the file
+    private static long nextRecord(FileChannel channel, long position, ByteBuffer probe) throws IOException {
+        long size = channel.size();
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (probe.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    public static MappedByteBuffer map(FileChannel channel, Segment segment) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, segment.offset(), segment.length());
+    }
+
+    @FunctionalInterface
+    public interface RecordHandler {
+        void record(byte[] buffer, int offset, int length);
+    }
+
+    /**
+     * Hands every non-blank line of a mapped segment to the handler. Lines are copied out of the
+     * mapping into a buffer that is reused between calls, so handlers must not keep it.
+     */
+    public static void forEachRecord(ByteBuffer segment, RecordHandler handler) {
+        byte[] buffer = new byte[8192];
+        int limit = segment.limit();
+        int start = segment.position();
+        for (int i = start; i <= limit; i++) {
+            if (i < limit && segment.get(i) != '\n') {
+                continue;
+            }
+            int end = i;
+            if (end > start && segment.get(end - 1) == '\r') {
+                end--;
+            }
+            int length = end - start;
+            if (length > 0 && !isBlank(segment, start, end)) {
+                if (buffer.length < length) {
+                    buffer = Arrays.copyOf(buffer, Math.max(length, buffer.length * 2));
+                }
+                segment.get(start, buffer, 0, length);
+                handler.record(buffer, 0, length);
+            }
+            start = i + 1;
+        }
+    }
+
+    private static boolean isBlank(ByteBuffer segment, int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = segment.get(i);
+            if (b != ' ' && b != '\t' && b != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
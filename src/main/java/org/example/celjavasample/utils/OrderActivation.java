@@ -0,0 +1,147 @@
+package org.example.celjavasample.utils;
+
+import dev.cel.runtime.CelVariableResolver;
+import org.example.celjavasample.entity.Order;
+import org.example.celjavasample.entity.OrderItem;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Exposes an {@link Order} entity to CEL directly, without serializing it to JSON first.
+ * <p>
+ * Top-level variables use the order payload names ({@code orderId}, {@code totalAmount},
+ * {@code transactionDate}, {@code items}) plus {@code channel} and {@code salespersonId}. The
+ * latter two are also available under {@code additional_info} as {@code channel} and
+ * {@code source_sales_person_id}, so rules written against the payload shape work unchanged. Each
+ * item is a read-only map of {@code id}, {@code sku}, {@code quantity}, {@code price} and
+ * {@code amount} that reads the entity on access.
+ */
+public class OrderActivation implements CelVariableResolver {
+
+    private static final List<String> ITEM_FIELDS = List.of("id", "sku", "quantity", "price", "amount");
+
+    private static final List<String> ADDITIONAL_INFO_FIELDS = List.of("channel", "source_sales_person_id");
+
+    private final Order order;
+
+    private List<Object> items;
+
+    public OrderActivation(Order order) {
+        this.order = order;
+    }
+
+    @Override
+    public Optional<Object> find(String name) {
+        return Optional.ofNullable(switch (name) {
+            case "orderId" -> order.getOrderId();
+            case "totalAmount" -> order.getTotalAmount();
+            case "transactionDate" -> order.getTransactionDate();
+            case "channel" -> order.getChannel();
+            case "salespersonId" -> order.getSalespersonId();
+            case "items" -> items();
+            case "additional_info" -> new FieldView(ADDITIONAL_INFO_FIELDS, field -> switch (field) {
+                case "channel" -> order.getChannel();
+                case "source_sales_person_id" -> order.getSalespersonId();
+                default -> null;
+            });
+            default -> null;
+        });
+    }
+
+    private List<Object> items() {
+        if (items == null) {
+            List<OrderItem> entities = order.getItems();
+            items = new AbstractList<>() {
+                @Override
+                public Object get(int index) {
+                    return itemView(entities.get(index));
+                }
+
+                @Override
+                public int size() {
+                    return entities.size();
+                }
+            };
+        }
+        return items;
+    }
+
+    private static Map<String, Object> itemView(OrderItem item) {
+        return new FieldView(ITEM_FIELDS, field -> switch (field) {
+            case "id" -> item.getItemId();
+            case "sku" -> item.getSku();
+            case "quantity" -> item.getQuantity() == null ? null : Long.valueOf(item.getQuantity());
+            case "price" -> item.getPrice();
+            case "amount" -> item.getAmount();
+            default -> null;
+        });
+    }
+
+    /**
+     * Fixed-key map whose values are read through an accessor on every lookup.
+     */
+    private static final class FieldView extends AbstractMap<String, Object> {
+        private final List<String> fields;
+        private final Function<String, Object> accessor;
+
+        FieldView(List<String> fields, Function<String, Object> accessor) {
+            this.fields = fields;
+            this.accessor = accessor;
+        }
+
+        @Override
+        public Object get(Object key) {
+            return key instanceof String name ? accessor.apply(name) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return fields.contains(key);
+        }
+
+        @Override
+        public int size() {
+            return fields.size();
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<>() {
+                        private int next;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < fields.size();
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            String field = fields.get(next++);
+                            return new SimpleImmutableEntry<>(field, accessor.apply(field));
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return fields.size();
+                }
+            };
+        }
+    }
+}
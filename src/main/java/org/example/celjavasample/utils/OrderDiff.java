@@ -0,0 +1,66 @@
+package org.example.celjavasample.utils;
+
+import dev.cel.runtime.CelVariableResolver;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Paths at which two versions of an order differ, in the notation of
+ * {@link CelAstUtils#referencedPaths}. Lists are compared element by element: a changed field of
+ * any element is {@code items[*].price}, and a list that grew or shrank adds {@code items[#]} for
+ * its length and {@code items[*]} for the elements that came or went. Maps are compared key by
+ * key the same way: a changed value is {@code additional_info.channel}, and since a loop over a map
+ * or a lookup by computed key reads {@code additional_info[*]} and {@code size()} reads
+ * {@code additional_info[#]}, those are added for changed values and added or removed keys too.
+ * <p>
+ * Works on the values an activation resolves to, so orders read from JSON, JSON trees or entities
+ * can be compared with each other.
+ */
+public final class OrderDiff {
+
+    private OrderDiff() {
+    }
+
+    public static Set<String> changedPaths(CelVariableResolver before, CelVariableResolver after, Set<String> variables) {
+        Set<String> changed = new TreeSet<>();
+        for (String variable : variables) {
+            diff(variable, before.find(variable).orElse(null), after.find(variable).orElse(null), changed);
+        }
+        return changed;
+    }
+
+    private static void diff(String path, Object before, Object after, Set<String> changed) {
+        if (before instanceof Map<?, ?> a && after instanceof Map<?, ?> b) {
+            if (!a.keySet().equals(b.keySet())) {
+                changed.add(path + "[#]");
+                changed.add(path + "[*]");
+            }
+            Set<Object> keys = new HashSet<>(a.keySet());
+            keys.addAll(b.keySet());
+            for (Object key : keys) {
+                if (a.containsKey(key) != b.containsKey(key)) {
+                    changed.add(path + "." + key);
+                } else if (!Objects.equals(a.get(key), b.get(key))) {
+                    changed.add(path + "[*]");
+                    diff(path + "." + key, a.get(key), b.get(key), changed);
+                }
+            }
+        } else if (before instanceof List<?> a && after instanceof List<?> b) {
+            int common = Math.min(a.size(), b.size());
+            for (int i = 0; i < common; i++) {
+                diff(path + "[*]", a.get(i), b.get(i), changed);
+            }
+            if (a.size() != b.size()) {
+                changed.add(path + "[#]");
+                changed.add(path + "[*]");
+            }
+        } else if (!Objects.equals(before, after)) {
+            changed.add(path);
+        }
+    }
+}
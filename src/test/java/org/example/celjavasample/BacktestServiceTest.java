@@ -0,0 +1,147 @@
+package org.example.celjavasample;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.entity.Rule;
+import org.example.celjavasample.repository.RuleRepository;
+import org.example.celjavasample.service.BacktestReport;
+import org.example.celjavasample.service.BacktestService;
+import org.example.celjavasample.service.EvaluationBudget;
+import org.example.celjavasample.service.OrderHistory;
+import org.example.celjavasample.service.ProgramCache;
+import org.example.celjavasample.service.RuleMetrics;
+import org.example.celjavasample.service.RuleResultCache;
+import org.example.celjavasample.service.RuleService;
+import org.example.celjavasample.service.RuleSetService;
+import org.example.celjavasample.utils.CelJsonReader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class BacktestServiceTest {
+
+    private final CelConfig config = new CelConfig();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private BacktestService backtestService;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void setUp() {
+        RuleSetService ruleSetService = new RuleSetService(mock(RuleRepository.class), RuleSetServiceTest.ruleCompiler(config, CelSchema.untyped()));
+        RuleService ruleService = new RuleService(config.celCompiler(CelSchema.untyped()), config.celRuntime(-1),
+                new CelJsonReader(), new ProgramCache(100), ruleSetService, new RuleMetrics(registry, 1.0, Duration.ZERO),
+                EvaluationBudget.unlimited(), RuleResultCache.disabled(), OrderHistory.inMemory());
+        backtestService = new BacktestService(ruleSetService, ruleService, new CelJsonReader());
+    }
+
+    private static final List<Rule> CANDIDATES = List.of(
+            RuleServiceTest.rule(1, "big-order", "totalAmount >= 50000.0", "MULTIPLIER", 0.01, 600.0, null),
+            RuleServiceTest.rule(2, "online", "additional_info.channel == 'Online'", "FIXED", null, null, 5.0),
+            RuleServiceTest.rule(3, "oil", "items.exists(i, i.sku == 'OLI123')", "FIXED", null, null, 1.0),
+            RuleServiceTest.rule(4, "broken", "totalAmount >=", "FIXED", null, null, 1.0)
+    );
+
+    private Path writeArchive(int orders) throws Exception {
+        Path archive = dir.resolve("orders.ndjson");
+        try (BufferedWriter out = Files.newBufferedWriter(archive)) {
+            for (int i = 0; i < orders; i++) {
+                out.write("{\"orderId\":\"ORD-" + i + "\",\"totalAmount\":" + (i * 10.0)
+                        + ",\"channel\":\"" + (i % 3 == 0 ? "Online" : "In-Person") + "\""
+                        + ",\"additional_info\":{\"channel\":\"" + (i % 3 == 0 ? "Online" : "In-Person") + "\"}"
+                        + ",\"items\":[{\"id\":\"ITM-1\",\"sku\":\"" + (i % 4 == 0 ? "OLI123" : "SERV001") + "\",\"quantity\":1,\"price\":10.0}]}\n");
+                if (i == 100) {
+                    out.write("{not an order\n\n");
+                }
+            }
+        }
+        return archive;
+    }
+
+    @Test
+    void testBacktestAggregatesPerRuleAcrossSegments() throws Exception {
+        int orders = 20_000;
+        Path archive = writeArchive(orders);
+
+        // Small segments force the archive to be split and replayed in parallel
+        BacktestReport report = backtestService.run(archive, CANDIDATES, 64 * 1024);
+        System.out.println(report);
+
+        assertEquals(orders, report.orders());
+        assertEquals(1, report.malformed());
+        assertEquals(3, report.rules().size());
+        assertEquals(1, report.errors().size());
+
+        long big = orders - 5000;
+        double bigReward = 0;
+        for (int i = 5000; i < orders; i++) {
+            bigReward += Math.min(i * 10.0 * 0.01, 600.0);
+        }
+        BacktestReport.RuleStats bigOrder = report.rules().get(0);
+        assertEquals(big, bigOrder.matches());
+        assertEquals(bigReward, bigOrder.totalReward(), 1e-6);
+
+        assertEquals((orders + 2) / 3, report.rules().get(1).matches());
+        assertEquals(5.0 * ((orders + 2) / 3), report.rules().get(1).totalReward());
+        assertEquals(orders / 4, report.rules().get(2).matches());
+    }
+
+    @Test
+    void testMultiplierCandidateThatDoesNotReadTotalAmount() throws Exception {
+        int orders = 1000;
+        Path archive = writeArchive(orders);
+        List<Rule> candidates = List.of(
+                RuleServiceTest.rule(1, "oil-cashback", "items.exists(i, i.sku == 'OLI123')", "MULTIPLIER", 0.01, null, null));
+
+        BacktestReport report = backtestService.run(archive, candidates, 16 * 1024);
+
+        double reward = 0;
+        for (int i = 0; i < orders; i += 4) {
+            reward += i * 10.0 * 0.01;
+        }
+        assertEquals(orders / 4, report.rules().get(0).matches());
+        assertEquals(reward, report.rules().get(0).totalReward(), 1e-6);
+    }
+
+    @Test
+    void testCandidatesAddNoMeters() throws Exception {
+        Path archive = writeArchive(100);
+        // Fails on every order: CEL does not order doubles against ints
+        List<Rule> candidates = List.of(
+                RuleServiceTest.rule(1, "draft-" + System.nanoTime(), "totalAmount > 10", "FIXED", null, null, 1.0),
+                RuleServiceTest.rule(2, "draft-online", "additional_info.channel == 'Online'", "FIXED", null, null, 1.0));
+        candidates.forEach(c -> c.setId(null));
+
+        BacktestReport report = backtestService.run(archive, candidates, 1L << 30);
+
+        assertEquals(100, report.rules().get(0).errors());
+        assertEquals(34, report.rules().get(1).matches());
+        assertTrue(registry.getMeters().isEmpty(), registry.getMetersAsString());
+    }
+
+    @Test
+    void testSegmentSizeDoesNotChangeTheResult() throws Exception {
+        Path archive = writeArchive(3000);
+
+        BacktestReport whole = backtestService.run(archive, CANDIDATES, 1L << 30);
+        BacktestReport split = backtestService.run(archive, CANDIDATES, 1000);
+
+        assertEquals(whole.orders(), split.orders());
+        for (int i = 0; i < whole.rules().size(); i++) {
+            assertEquals(whole.rules().get(i).matches(), split.rules().get(i).matches());
+            assertEquals(whole.rules().get(i).totalReward(), split.rules().get(i).totalReward(), 1e-6);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.example.celjavasample;
+
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.repository.RuleRepository;
+import org.example.celjavasample.service.BulkEvaluationService;
+import org.example.celjavasample.service.BulkEvaluationService.BulkResult;
+import org.example.celjavasample.service.EvaluationBudget;
+import org.example.celjavasample.service.OrderHistory;
+import org.example.celjavasample.service.ProgramCache;
+import org.example.celjavasample.service.RuleEvaluation;
+import org.example.celjavasample.service.RuleMetrics;
+import org.example.celjavasample.service.RuleResultCache;
+import org.example.celjavasample.service.RuleService;
+import org.example.celjavasample.service.RuleSetService;
+import org.example.celjavasample.utils.CelJsonReader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class BulkEvaluationServiceTest {
+
+    private final CelConfig config = new CelConfig();
+    private final RuleRepository repository = mock(RuleRepository.class);
+    private RuleService ruleService;
+
+    @BeforeEach
+    void setUp() {
+        RuleSetService ruleSetService = new RuleSetService(repository, RuleSetServiceTest.ruleCompiler(config, CelSchema.untyped()));
+        when(repository.findByActiveTrue()).thenReturn(List.of(
+                RuleServiceTest.rule(1, "big-order", "totalAmount >= 500000", "FIXED", null, null, 10.0),
+                RuleServiceTest.rule(2, "auto2000", "sponsorCode == 'AUTO2000'", "FIXED", null, null, 1.0)
+        ));
+        ruleSetService.loadOnStartup();
+        ruleService = new RuleService(config.celCompiler(CelSchema.untyped()), config.celRuntime(-1),
+                new CelJsonReader(), new ProgramCache(100), ruleSetService, RuleMetrics.disabled(),
+                EvaluationBudget.unlimited(), RuleResultCache.disabled(), OrderHistory.inMemory());
+    }
+
+    private static String order(int i) {
+        return "{\"sponsorCode\": \"" + (i % 2 == 0 ? "AUTO2000" : "HONDA") + "\", \"totalAmount\": " + (i * 1000) + "}";
+    }
+
+    @Test
+    void testResultsComeBackInInputOrder() {
+        BulkEvaluationService bulk = new BulkEvaluationService(ruleService, 16);
+        List<String> orders = IntStream.range(0, 5000).mapToObj(BulkEvaluationServiceTest::order).toList();
+
+        List<BulkResult> results = new ArrayList<>();
+        long count = bulk.evaluateJson(orders.iterator(), results::add);
+
+        assertEquals(5000, count);
+        assertEquals(5000, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            BulkResult result = results.get(i);
+            assertEquals(i, result.index());
+            assertNull(result.error());
+            double expected = (i >= 500 ? 10.0 : 0.0) + (i % 2 == 0 ? 1.0 : 0.0);
+            assertEquals(expected, result.evaluation().totalReward(), "order " + i);
+        }
+    }
+
+    @Test
+    void testConcurrencyIsBoundedAndInputIsReadLazily() {
+        int limit = 4;
+        BulkEvaluationService bulk = new BulkEvaluationService(ruleService, limit);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger read = new AtomicInteger();
+        AtomicInteger written = new AtomicInteger();
+
+        Iterator<Integer> orders = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return read.get() < 200;
+            }
+
+            @Override
+            public Integer next() {
+                // Never more than the limit read ahead of what was handed to the sink
+                assertTrue(read.get() - written.get() <= limit);
+                return read.getAndIncrement();
+            }
+        };
+
+        bulk.evaluate(orders, i -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(1);
+                return ruleService.evaluateAll(order(i));
+            } finally {
+                running.decrementAndGet();
+            }
+        }, result -> written.incrementAndGet());
+
+        System.out.println("Max concurrently evaluating: " + maxRunning.get());
+        assertEquals(200, written.get());
+        assertTrue(maxRunning.get() <= limit);
+    }
+
+    @Test
+    void testBadOrdersReportErrorsWithoutStoppingTheBatch() {
+        BulkEvaluationService bulk = new BulkEvaluationService(ruleService, 8);
+        List<BulkResult> results = new ArrayList<>();
+        bulk.evaluateJson(List.of(order(1), "{not json", order(2)).iterator(), results::add);
+
+        assertEquals(3, results.size());
+        assertNotNull(results.get(0).evaluation());
+        assertNotNull(results.get(1).error());
+        RuleEvaluation last = results.get(2).evaluation();
+        assertEquals(1, last.matched().size());
+    }
+
+    @Test
+    void testFailingSinkStopsTheBatch() {
+        BulkEvaluationService bulk = new BulkEvaluationService(ruleService, 8);
+        List<String> orders = IntStream.range(0, 1000).mapToObj(BulkEvaluationServiceTest::order).toList();
+
+        assertThrows(IllegalStateException.class, () -> bulk.evaluateJson(orders.iterator(), result -> {
+            if (result.index() == 10) {
+                throw new IllegalStateException("client went away");
+            }
+        }));
+    }
+}
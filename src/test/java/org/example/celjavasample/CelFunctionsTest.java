@@ -0,0 +1,86 @@
+package org.example.celjavasample;
+
+import dev.cel.common.CelErrorCode;
+import dev.cel.compiler.CelCompiler;
+import dev.cel.runtime.CelEvaluationException;
+import dev.cel.runtime.CelRuntime;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.entity.Order;
+import org.example.celjavasample.entity.OrderItem;
+import org.example.celjavasample.utils.CelJsonUtils;
+import org.example.celjavasample.utils.OrderActivation;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CelFunctionsTest {
+
+    private final CelConfig config = new CelConfig();
+    private final CelCompiler compiler = config.celCompiler(CelSchema.untyped());
+    private final CelRuntime runtime = config.celRuntime(-1);
+
+    private Object eval(String expr, Map<String, Object> input) throws Exception {
+        return runtime.createProgram(compiler.compile(expr).getAst()).eval(input);
+    }
+
+    @Test
+    void testAggregatesMatchTheMacroForms() throws Exception {
+        Map<String, Object> input = CelJsonUtils.jsonToCelInput(RuleServiceTest.ORDER_JSON);
+        String[][] pairs = {
+                {"items.map(i, i.price * i.quantity).sum()", "sumProduct(items, 'price', 'quantity')"},
+                {"paymentMethod.map(p, p.amount).sum()", "sumOf(paymentMethod, 'amount')"},
+                {"size(items.filter(i, i.sku == 'OLI123'))", "countWhere(items, 'sku', 'OLI123')"},
+                {"size(items)", "distinctCount(items, 'id')"},
+                {"items.filter(i, items.all(j, j.price <= i.price))[0].price", "maxOf(items, 'price')"},
+                {"items.filter(i, items.all(j, j.price >= i.price))[0].price", "minOf(items, 'price')"}
+        };
+
+        for (String[] pair : pairs) {
+            Object macro = eval(pair[0], input);
+            Object function = eval(pair[1], input);
+            System.out.println(pair[1] + " = " + function);
+            assertEquals(macro, function, pair[1]);
+        }
+        assertEquals(750000L, eval("sumProduct(items, 'price', 'quantity')", input));
+        assertEquals(true, eval("totalAmount == sumProduct(items, 'price', 'quantity')", input));
+        assertEquals(0L, eval("sumOf([], 'amount')", input));
+        assertEquals(1L, eval("distinctCount([{'m': 1}, {'m': 1.0}], 'm')", input));
+        assertEquals(2L, eval("countWhere([{'q': 2}, {'q': 2.0}, {'q': 3}], 'q', 2)", input));
+    }
+
+    @Test
+    void testIntsAndDoublesMix() throws Exception {
+        // Entity prices are doubles, quantities ints
+        Order order = new Order();
+        for (int i = 1; i <= 3; i++) {
+            OrderItem item = new OrderItem();
+            item.setItemId("ITM-" + i);
+            item.setQuantity(i);
+            item.setPrice(1.5 * i);
+            order.getItems().add(item);
+        }
+        var program = runtime.createProgram(compiler.compile("sumProduct(items, 'price', 'quantity')").getAst());
+
+        assertEquals(1.5 + 6.0 + 13.5, program.eval(new OrderActivation(order)));
+        assertEquals(4.5, eval("[1, 2, 1.5].sum()", Map.of()));
+    }
+
+    @Test
+    void testErrorsMatchFieldAccess() {
+        CelEvaluationException missing = assertThrows(CelEvaluationException.class,
+                () -> eval("sumOf(items, 'discount')", CelJsonUtils.jsonToCelInput(RuleServiceTest.ORDER_JSON)));
+        assertEquals(CelErrorCode.ATTRIBUTE_NOT_FOUND, missing.getErrorCode());
+
+        CelEvaluationException overflow = assertThrows(CelEvaluationException.class,
+                () -> eval("sumOf([{'a': 9223372036854775807}, {'a': 1}], 'a')", Map.of()));
+        assertEquals(CelErrorCode.NUMERIC_OVERFLOW, overflow.getErrorCode());
+
+        CelEvaluationException empty = assertThrows(CelEvaluationException.class, () -> eval("maxOf([], 'a')", Map.of()));
+        System.out.println(empty.getMessage());
+        assertThrows(CelEvaluationException.class, () -> eval("sumOf([{'a': 'x'}], 'a')", Map.of()));
+    }
+}
@@ -0,0 +1,85 @@
+package org.example.celjavasample;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import org.example.celjavasample.utils.CelJsonReader;
+import org.example.celjavasample.utils.CelJsonUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CelJsonReaderTest {
+
+    @Test
+    void testMatchesTreeConversion() throws Exception {
+        Object raw = new ObjectMapper().readValue(RuleServiceTest.ORDER_JSON, Object.class);
+        Object expected = CelJsonUtils.convertNumbers(raw);
+
+        Map<String, Object> actual = new CelJsonReader().readObject(RuleServiceTest.ORDER_JSON);
+
+        assertEquals(expected, actual);
+        assertEquals(List.copyOf(((Map<?, ?>) expected).keySet()), List.copyOf(actual.keySet()));
+    }
+
+    @Test
+    void testNumberTypes() throws Exception {
+        Map<String, Object> input = new CelJsonReader().readObject("""
+                { "int": 2, "long": 9000000000, "double": 1.5, "exp": 1e3, "big": 123456789012345678901234567890 }
+                """);
+
+        assertEquals(2L, input.get("int"));
+        assertEquals(9000000000L, input.get("long"));
+        assertEquals(1.5, input.get("double"));
+        assertEquals(1000.0, input.get("exp"));
+        assertInstanceOf(Double.class, input.get("big"));
+    }
+
+    @Test
+    void testImmutableMaps() throws Exception {
+        Map<String, Object> input = new CelJsonReader(new ObjectMapper().getFactory(), true)
+                .readObject("""
+                        { "a": { "b": [1, 2, { "c": true }] }, "n": { "x": null }, "l": [null, 1] }
+                        """);
+
+        assertInstanceOf(ImmutableMap.class, input);
+        assertEquals(Map.of("b", List.of(1L, 2L, Map.of("c", true))), input.get("a"));
+        assertTrue(((Map<?, ?>) input.get("n")).containsKey("x"));
+        assertEquals(Arrays.asList(null, 1L), input.get("l"));
+        assertThrows(UnsupportedOperationException.class, () -> input.put("z", 1L));
+        assertThrows(UnsupportedOperationException.class, () -> ((Map<String, Object>) input.get("n")).put("z", 1L));
+    }
+
+    @Test
+    void testLargeNestedPayload() throws Exception {
+        StringBuilder json = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < 500; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"ITM-").append(i).append("\",\"quantity\":").append(i % 5 + 1)
+                    .append(",\"price\":").append(1000 * i).append(",\"tags\":[\"a\",\"b\"]}");
+        }
+        json.append("],\"totalAmount\":1}");
+
+        Map<String, Object> input = new CelJsonReader().readObject(json.toString());
+        List<?> items = (List<?>) input.get("items");
+
+        assertEquals(500, items.size());
+        assertEquals(Map.of("id", "ITM-499", "quantity", 5L, "price", 499000L, "tags", List.of("a", "b")), items.get(499));
+        assertEquals(1L, input.get("totalAmount"));
+    }
+
+    @Test
+    void testRejectsNonObjectRoot() {
+        assertThrows(JsonProcessingException.class, () -> new CelJsonReader().readObject("[1, 2]"));
+        assertThrows(JsonProcessingException.class, () -> new CelJsonReader().readObject("{ \"a\": "));
+    }
+}
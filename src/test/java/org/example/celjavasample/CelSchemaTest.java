@@ -0,0 +1,143 @@
+package org.example.celjavasample;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.cel.common.CelValidationResult;
+import dev.cel.common.types.CelKind;
+import dev.cel.common.types.NullableType;
+import dev.cel.common.types.SimpleType;
+import dev.cel.compiler.CelCompiler;
+import dev.cel.runtime.CelRuntime;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.utils.CelJsonUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CelSchemaTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final CelConfig config = new CelConfig();
+
+    private CelSchema inferOrderSchema() throws Exception {
+        return CelSchema.inferFromSamples("order", List.of(mapper.readTree(RuleServiceTest.ORDER_JSON)));
+    }
+
+    @Test
+    void testInferFromSamples() throws Exception {
+        CelSchema schema = inferOrderSchema();
+
+        assertEquals(NullableType.create(SimpleType.STRING), schema.variables().get("orderId"));
+        assertEquals(SimpleType.DYN, schema.variables().get("totalAmount"));
+        assertEquals(CelKind.STRUCT, schema.variables().get("branch").kind());
+        assertEquals(CelKind.LIST, schema.variables().get("items").kind());
+        assertEquals("order.items", schema.variables().get("items").parameters().get(0).name());
+        assertTrue(schema.findType("order.additional_info").isPresent());
+    }
+
+    @Test
+    void testMixedSamplesWidenToDyn() throws Exception {
+        JsonNode a = mapper.readTree("{ \"amount\": 1, \"note\": null, \"tags\": [], \"meta\": { \"a\": 1 } }");
+        JsonNode b = mapper.readTree("{ \"amount\": 1.5, \"note\": \"x\", \"tags\": [\"t\"], \"meta\": { \"b\": true } }");
+
+        CelSchema schema = CelSchema.inferFromSamples("sample", List.of(a, b));
+
+        assertEquals(SimpleType.DYN, schema.variables().get("amount"));
+        assertEquals(NullableType.create(SimpleType.STRING), schema.variables().get("note"));
+        assertEquals(NullableType.create(SimpleType.STRING), schema.variables().get("tags").parameters().get(0));
+        CelCompiler compiler = config.celCompiler(schema);
+        assertFalse(compiler.compile("meta.a > 0 && meta.b").hasError());
+    }
+
+    @Test
+    void testDecimalPayloadAgainstWholeNumberSample() throws Exception {
+        CelCompiler compiler = config.celCompiler(inferOrderSchema());
+        CelRuntime runtime = config.celRuntime(-1);
+        Map<String, Object> input = CelJsonUtils.jsonToCelInput(RuleServiceTest.ORDER_JSON
+                .replace("\"totalAmount\": 750000", "\"totalAmount\": 750000.5")
+                .replace("\"price\": 300000", "\"price\": 299999.5"));
+
+        String[] rules = {
+                "totalAmount >= 500000.0",
+                "totalAmount != 750000",
+                "items.exists(i, i.price < 300000.0)"
+        };
+        for (String rule : rules) {
+            CelValidationResult result = compiler.compile(rule);
+            assertFalse(result.hasError(), rule + ": " + result.getErrors());
+            assertEquals(true, runtime.createProgram(result.getAst()).eval(input), rule);
+        }
+    }
+
+    @Test
+    void testTypedEnvironmentCatchesUnknownFieldsAtCompileTime() throws Exception {
+        CelCompiler compiler = config.celCompiler(inferOrderSchema());
+
+        CelValidationResult result = compiler.compile("items.map(i, i.nonExistentField)");
+        assertTrue(result.hasError());
+        assertTrue(result.getErrors().get(0).getMessage().contains("nonExistentField"));
+
+        assertTrue(compiler.compile("additional_info.loyaltyTier == 'GOLD'").hasError());
+        assertTrue(compiler.compile("sponsorCode > 1").hasError());
+    }
+
+    @Test
+    void testTypedRulesEvaluate() throws Exception {
+        CelCompiler compiler = config.celCompiler(inferOrderSchema());
+        CelRuntime runtime = config.celRuntime(-1);
+        Map<String, Object> input = CelJsonUtils.jsonToCelInput(RuleServiceTest.ORDER_JSON);
+
+        String[] rules = {
+                "orderId != null && size(orderId) > 0",
+                "branch != null && branch.code != null && size(branch.code) > 0",
+                "size(items) > 0",
+                "items.all(i, i.quantity != null && i.quantity > 0 && i.quantity <= 10)",
+                "paymentMethod.all(p, p.method in ['QRIS', 'CASH', 'CREDIT_CARD', 'DEBIT_CARD'])",
+                "sponsorCode != 'AUTO2000' || totalAmount >= 500000",
+                "has(customer.phoneNumber)",
+                "additional_info.channel == 'In-Person'"
+        };
+        for (String rule : rules) {
+            CelValidationResult result = compiler.compile(rule);
+            assertFalse(result.hasError(), rule + ": " + result.getErrors());
+            assertEquals(SimpleType.BOOL, result.getAst().getResultType(), rule);
+            assertEquals(true, runtime.createProgram(result.getAst()).eval(input), rule);
+        }
+    }
+
+    @Test
+    void testFromJsonSchema() throws Exception {
+        JsonNode jsonSchema = mapper.readTree("""
+                {
+                  "type": "object",
+                  "properties": {
+                    "orderId": { "type": "string" },
+                    "totalAmount": { "type": "number" },
+                    "quantity": { "type": ["integer", "null"] },
+                    "items": {
+                      "type": "array",
+                      "items": {
+                        "type": "object",
+                        "properties": { "sku": { "type": "string" }, "quantity": { "type": "integer" } }
+                      }
+                    }
+                  }
+                }
+                """);
+
+        CelSchema schema = CelSchema.fromJsonSchema("order", jsonSchema);
+
+        assertEquals(NullableType.create(SimpleType.STRING), schema.variables().get("orderId"));
+        assertEquals(SimpleType.DYN, schema.variables().get("totalAmount"));
+        assertEquals(NullableType.create(SimpleType.INT), schema.variables().get("quantity"));
+        CelCompiler compiler = config.celCompiler(schema);
+        assertFalse(compiler.compile("items.exists(i, i.sku == 'OLI123' && i.quantity > 1)").hasError());
+        assertTrue(compiler.compile("items.exists(i, i.price > 1)").hasError());
+    }
+}
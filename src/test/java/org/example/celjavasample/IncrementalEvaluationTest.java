@@ -0,0 +1,222 @@
+package org.example.celjavasample;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import dev.cel.compiler.CelCompiler;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.repository.RuleRepository;
+import org.example.celjavasample.service.EvaluationBudget;
+import org.example.celjavasample.service.OrderHistory;
+import org.example.celjavasample.service.ProgramCache;
+import org.example.celjavasample.service.RuleEvaluation;
+import org.example.celjavasample.service.RuleMetrics;
+import org.example.celjavasample.service.RuleOutcome;
+import org.example.celjavasample.service.RuleResultCache;
+import org.example.celjavasample.service.RuleService;
+import org.example.celjavasample.service.RuleSetService;
+import org.example.celjavasample.utils.CelAstUtils;
+import org.example.celjavasample.utils.CelJsonReader;
+import org.example.celjavasample.utils.JsonNodeActivation;
+import org.example.celjavasample.utils.OrderDiff;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class IncrementalEvaluationTest {
+
+    private final CelConfig config = new CelConfig();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private RuleSetService ruleSetService;
+    private RuleService ruleService;
+
+    @BeforeEach
+    void setUp() {
+        RuleRepository repository = mock(RuleRepository.class);
+        ruleSetService = new RuleSetService(repository, RuleSetServiceTest.ruleCompiler(config, CelSchema.untyped()));
+        when(repository.findByActiveTrue()).thenReturn(List.of(
+                RuleServiceTest.rule(1, "big-order", "totalAmount >= 500000", "MULTIPLIER", 0.01, null, null),
+                RuleServiceTest.rule(2, "oil", "items.exists(i, i.sku == 'OLI123' && i.quantity >= 2)", "FIXED", null, null, 5.0),
+                RuleServiceTest.rule(3, "known-payments", "paymentMethod.all(p, p.method in ['QRIS', 'CASH'])", "MULTIPLIER", 0.001, null, null),
+                RuleServiceTest.rule(4, "in-person", "additional_info.channel == 'In-Person'", "FIXED", null, null, 1.0)
+        ));
+        ruleSetService.loadOnStartup();
+        ruleService = new RuleService(config.celCompiler(CelSchema.untyped()), config.celRuntime(-1), new CelJsonReader(),
+                new ProgramCache(100), ruleSetService, RuleMetrics.disabled(),
+                EvaluationBudget.unlimited(), RuleResultCache.disabled(), OrderHistory.inMemory());
+    }
+
+    @Test
+    void testDependencyPaths() throws Exception {
+        CelCompiler compiler = config.celCompiler(CelSchema.untyped());
+        Map<String, Set<String>> expected = Map.of(
+                "totalAmount >= 500000", Set.of("totalAmount"),
+                "items.exists(i, i.sku == 'OLI123' && i.quantity >= 2)", Set.of("items[#]", "items[*].quantity", "items[*].sku"),
+                "size(items) > 1 && items[0].price > 100", Set.of("items[#]", "items[*].price"),
+                "additional_info['channel'] == 'In-Person' || branch.code == 'X'", Set.of("additional_info.channel", "branch.code"),
+                "items.all(i, has(i.sku))", Set.of("items[#]", "items[*].sku"),
+                // A loop over a computed list reads the whole of what it was computed from
+                "items.filter(i, i.quantity > 1).all(i, i.price > 0)", Set.of("items")
+        );
+
+        for (var entry : expected.entrySet()) {
+            Set<String> actual = CelAstUtils.referencedPaths(compiler.compile(entry.getKey()).getAst());
+            System.out.println(entry.getKey() + " -> " + actual);
+            assertEquals(entry.getValue(), actual, entry.getKey());
+        }
+        // The compiled rules carry them too, from their optimized ASTs
+        assertEquals(Set.of("additional_info.channel"), ruleSetService.current().rules().get(3).dependencies());
+        assertTrue(CelAstUtils.pathsOverlap("items", "items[*].price"));
+        assertFalse(CelAstUtils.pathsOverlap("items[#]", "items[*].price"));
+        assertFalse(CelAstUtils.pathsOverlap("items[*].sku", "items[*].skuGroup"));
+    }
+
+    @Test
+    void testOrderDiff() throws Exception {
+        ObjectNode before = (ObjectNode) mapper.readTree(RuleServiceTest.ORDER_JSON);
+        ObjectNode after = before.deepCopy();
+        ((ObjectNode) after.get("items").get(1)).put("quantity", 3);
+        ((ObjectNode) after.get("additional_info")).remove("blahblah1");
+        ((ArrayNode) after.get("paymentMethod")).addObject().put("method", "CASH").put("amount", 1000);
+
+        Set<String> changed = OrderDiff.changedPaths(new JsonNodeActivation(before), new JsonNodeActivation(after),
+                Set.of("orderId", "items", "paymentMethod", "additional_info"));
+
+        assertEquals(Set.of("items[*].quantity", "items[*][*]", "additional_info.blahblah1", "additional_info[#]",
+                "additional_info[*]", "paymentMethod[#]", "paymentMethod[*]"), changed);
+    }
+
+    @Test
+    void testRulesOverAWholeMapAreRerunWhenAKeyIsAdded() throws Exception {
+        RuleRepository repository = mock(RuleRepository.class);
+        when(repository.findByActiveTrue()).thenReturn(List.of(
+                RuleServiceTest.rule(1, "many-details", "size(additional_info) > 4", "FIXED", null, null, 1.0),
+                RuleServiceTest.rule(2, "promo", "additional_info.exists(k, k == 'promo')", "FIXED", null, null, 2.0),
+                RuleServiceTest.rule(3, "promo-value", "additional_info.exists(k, additional_info[k] == 'DEC25')", "FIXED", null, null, 3.0)
+        ));
+        RuleSetService mapRules = new RuleSetService(repository, RuleSetServiceTest.ruleCompiler(config, CelSchema.untyped()));
+        mapRules.loadOnStartup();
+        RuleService service = new RuleService(config.celCompiler(CelSchema.untyped()), config.celRuntime(-1), new CelJsonReader(),
+                new ProgramCache(100), mapRules, RuleMetrics.disabled(),
+                EvaluationBudget.unlimited(), RuleResultCache.disabled(), OrderHistory.inMemory());
+
+        ObjectNode before = (ObjectNode) mapper.readTree(RuleServiceTest.ORDER_JSON);
+        RuleEvaluation first = service.evaluateAll(new JsonNodeActivation(before));
+        assertEquals(List.of(), first.matched());
+
+        ObjectNode after = before.deepCopy();
+        ((ObjectNode) after.get("additional_info")).put("promo", "NOV25");
+        RuleEvaluation amended = service.reevaluate(first, new JsonNodeActivation(before), new JsonNodeActivation(after));
+        assertEquals(List.of(1L, 2L), amended.matched().stream().map(RuleOutcome::ruleId).toList());
+
+        // Same keys, new value: only a rule reading values by computed key changes
+        ObjectNode changedValue = after.deepCopy();
+        ((ObjectNode) changedValue.get("additional_info")).put("promo", "DEC25");
+        RuleEvaluation revalued = service.reevaluate(amended, new JsonNodeActivation(after), new JsonNodeActivation(changedValue));
+        assertEquals(List.of(1L, 2L, 3L), revalued.matched().stream().map(RuleOutcome::ruleId).toList());
+        assertEquals(6.0, revalued.totalReward());
+    }
+
+    @Test
+    void testOnlyRulesReadingChangedPathsAreRerun() throws Exception {
+        ObjectNode before = (ObjectNode) mapper.readTree(RuleServiceTest.ORDER_JSON);
+        RuleEvaluation first = ruleService.evaluateAll(new JsonNodeActivation(before));
+        assertEquals(List.of(1L, 2L, 3L, 4L), first.matched().stream().map(RuleOutcome::ruleId).toList());
+
+        // Claim rule 4 did not match, so a kept outcome can be told apart from a re-run one
+        List<RuleOutcome> claimed = new ArrayList<>(first.outcomes());
+        claimed.set(3, new RuleOutcome(4L, "in-person", false, false, null, null));
+        RuleEvaluation previous = new RuleEvaluation(first.ruleSetVersion(), claimed);
+
+        ObjectNode after = before.deepCopy();
+        ((ObjectNode) after.get("paymentMethod").get(1)).put("method", "GOPAY");
+        ((ObjectNode) after.get("items").get(1)).put("price", 175000);
+        RuleEvaluation amended = ruleService.reevaluate(previous, new JsonNodeActivation(before), new JsonNodeActivation(after));
+
+        assertEquals(false, amended.outcomes().get(2).result());
+        assertEquals(List.of(1L, 2L), amended.matched().stream().map(RuleOutcome::ruleId).toList());
+        assertEquals(first.outcomes().get(0), amended.outcomes().get(0));
+
+        // A new total re-runs rule 1 and re-prices the matches kept from before
+        ObjectNode bigger = after.deepCopy().put("totalAmount", 800000);
+        RuleEvaluation repriced = ruleService.reevaluate(amended, new JsonNodeActivation(after), new JsonNodeActivation(bigger));
+
+        assertEquals(true, repriced.outcomes().get(0).result());
+        assertEquals(8000.0, repriced.outcomes().get(0).reward());
+        assertEquals(8000.0 + 5.0, repriced.totalReward());
+    }
+
+    @Test
+    void testPreviousOutcomesOnlyContributeTheirVerdict() throws Exception {
+        ObjectNode before = (ObjectNode) mapper.readTree(RuleServiceTest.ORDER_JSON);
+        RuleEvaluation first = ruleService.evaluateAll(new JsonNodeActivation(before));
+        ObjectNode after = before.deepCopy().put("orderId", "ORD-20251111-002");
+
+        // Rewards and names are the rules' own, failures are run again
+        List<RuleOutcome> claimed = new ArrayList<>(first.outcomes());
+        claimed.set(1, new RuleOutcome(2L, "jackpot", true, true, 1_000_000.0, null));
+        claimed.set(3, RuleOutcome.failed(ruleSetService.current().rules().get(3), "made up"));
+        RuleEvaluation amended = ruleService.reevaluate(new RuleEvaluation(first.ruleSetVersion(), claimed),
+                new JsonNodeActivation(before), new JsonNodeActivation(after));
+
+        assertEquals(first.outcomes(), amended.outcomes());
+        assertEquals(first.totalReward(), amended.totalReward());
+
+        // Outcomes of rules the snapshot doesn't have, or more than one for a rule, are rejected
+        List<RuleOutcome> unknown = new ArrayList<>(first.outcomes());
+        unknown.add(new RuleOutcome(99L, "extra", true, true, 500.0, null));
+        assertThrows(IllegalArgumentException.class, () -> ruleService.reevaluate(new RuleEvaluation(first.ruleSetVersion(), unknown),
+                new JsonNodeActivation(before), new JsonNodeActivation(after)));
+        List<RuleOutcome> twice = new ArrayList<>(first.outcomes());
+        twice.add(first.outcomes().get(0));
+        assertThrows(IllegalArgumentException.class, () -> ruleService.reevaluate(new RuleEvaluation(first.ruleSetVersion(), twice),
+                new JsonNodeActivation(before), new JsonNodeActivation(after)));
+    }
+
+    @Test
+    void testCachedOutcomesWinOverPreviousOnes() throws Exception {
+        RuleService cached = new RuleService(config.celCompiler(CelSchema.untyped()), config.celRuntime(-1), new CelJsonReader(),
+                new ProgramCache(100), ruleSetService, RuleMetrics.disabled(),
+                EvaluationBudget.unlimited(), new RuleResultCache(100, Duration.ofMinutes(1)), OrderHistory.inMemory());
+        RuleEvaluation first = cached.evaluateAll(RuleServiceTest.ORDER_JSON);
+        assertEquals(List.of(1L, 2L, 3L, 4L), first.matched().stream().map(RuleOutcome::ruleId).toList());
+
+        List<RuleOutcome> claimed = new ArrayList<>();
+        for (RuleOutcome o : first.outcomes()) {
+            claimed.add(new RuleOutcome(o.ruleId(), o.name(), false, false, null, null));
+        }
+        ObjectNode before = (ObjectNode) mapper.readTree(RuleServiceTest.ORDER_JSON);
+        ObjectNode after = before.deepCopy().put("orderId", "ORD-20251111-002");
+        RuleEvaluation amended = cached.reevaluate(new RuleEvaluation(first.ruleSetVersion(), claimed),
+                new JsonNodeActivation(before), new JsonNodeActivation(after));
+
+        assertEquals(first.matched().stream().map(RuleOutcome::ruleId).toList(),
+                amended.matched().stream().map(RuleOutcome::ruleId).toList());
+        assertEquals(first.totalReward(), amended.totalReward());
+    }
+
+    @Test
+    void testOtherRuleSetVersionIsEvaluatedInFull() throws Exception {
+        ObjectNode order = (ObjectNode) mapper.readTree(RuleServiceTest.ORDER_JSON);
+        RuleEvaluation first = ruleService.evaluateAll(new JsonNodeActivation(order));
+        ruleSetService.reload().join();
+
+        RuleEvaluation again = ruleService.reevaluate(first, new JsonNodeActivation(order), new JsonNodeActivation(order));
+
+        assertEquals(first.ruleSetVersion() + 1, again.ruleSetVersion());
+        assertEquals(first.outcomes(), again.outcomes());
+    }
+}
@@ -0,0 +1,73 @@
+package org.example.celjavasample;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.cel.common.CelAbstractSyntaxTree;
+import dev.cel.compiler.CelCompiler;
+import dev.cel.runtime.CelRuntime;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.utils.CelAstUtils;
+import org.example.celjavasample.utils.CelJsonReader;
+import org.example.celjavasample.utils.CelJsonUtils;
+import org.example.celjavasample.utils.JsonNodeActivation;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LazyActivationTest {
+
+    private final CelConfig config = new CelConfig();
+    private final CelCompiler compiler = config.celCompiler(CelSchema.untyped());
+    private final CelRuntime runtime = config.celRuntime(-1);
+
+    private static final String[] RULES = {
+            "sponsorCode == 'AUTO2000' && totalAmount >= 500000",
+            "items.all(i, i.quantity > 0 && i.quantity <= 10)",
+            "items.map(i, i.price * i.quantity)",
+            "additional_info.channel == 'In-Person'",
+            "has(customer.phoneNumber) && size(customer.phoneNumber) > 0",
+            "paymentMethod.filter(p, p.method == 'CASH').all(p, p.amount <= 2000000)",
+            "{'a': branch.code}.a == 'AHASS-LBKBULUS'"
+    };
+
+    @Test
+    void testLazyActivationMatchesEagerConversion() throws Exception {
+        Map<String, Object> eager = CelJsonUtils.jsonToCelInput(RuleServiceTest.ORDER_JSON);
+        JsonNodeActivation lazy = JsonNodeActivation.parse(
+                new ObjectMapper(), RuleServiceTest.ORDER_JSON.getBytes(StandardCharsets.UTF_8));
+
+        for (String rule : RULES) {
+            CelRuntime.Program program = runtime.createProgram(compiler.compile(rule).getAst());
+            assertEquals(program.eval(eager), program.eval(lazy), rule);
+        }
+        assertEquals(eager.get("items"), lazy.find("items").orElseThrow());
+        assertSame(lazy.find("items").orElseThrow(), lazy.find("items").orElseThrow());
+        assertTrue(lazy.find("unknown").isEmpty());
+    }
+
+    @Test
+    void testReferencedVariables() throws Exception {
+        CelAbstractSyntaxTree ast = compiler.compile(
+                "items.exists(i, i.sku == sponsorCode) && paymentMethod.map(p, p.amount).size() > 0").getAst();
+
+        assertEquals(List.of("items", "sponsorCode", "paymentMethod"),
+                List.copyOf(CelAstUtils.referencedVariables(ast)));
+    }
+
+    @Test
+    void testProjectedRead() throws Exception {
+        Map<String, Object> input = new CelJsonReader()
+                .readObject(RuleServiceTest.ORDER_JSON, Set.of("totalAmount", "items"));
+
+        assertEquals(Set.of("totalAmount", "items"), input.keySet());
+        assertEquals(750000L, input.get("totalAmount"));
+        assertEquals(2, ((List<?>) input.get("items")).size());
+    }
+}
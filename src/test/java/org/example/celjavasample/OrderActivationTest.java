@@ -0,0 +1,87 @@
+package org.example.celjavasample;
+
+import dev.cel.compiler.CelCompiler;
+import dev.cel.runtime.CelRuntime;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.entity.Order;
+import org.example.celjavasample.entity.OrderItem;
+import org.example.celjavasample.utils.CelJsonUtils;
+import org.example.celjavasample.utils.OrderActivation;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class OrderActivationTest {
+
+    private static final String ORDER_JSON = """
+        {
+            "orderId": "ORD-001",
+            "totalAmount": 750000.0,
+            "transactionDate": "2025-12-10",
+            "channel": "In-Person",
+            "salespersonId": "AKG-1234",
+            "items": [
+                { "id": "ITM-001", "sku": "OLI123", "quantity": 2, "price": 300000.0, "amount": 600000.0 },
+                { "id": "ITM-002", "sku": "SERV001", "quantity": 1, "price": 150000.0, "amount": 150000.0 }
+            ],
+            "additional_info": { "channel": "In-Person", "source_sales_person_id": "AKG-1234" }
+        }
+        """;
+
+    private static final String[] RULES = {
+            "orderId == 'ORD-001'",
+            "totalAmount >= 500000.0",
+            "channel == 'In-Person' && salespersonId == 'AKG-1234'",
+            "additional_info.channel == 'In-Person'",
+            "additional_info.source_sales_person_id.startsWith('AKG')",
+            "items.all(i, i.quantity > 0 && i.quantity <= 10)",
+            "items.exists(i, i.sku == 'OLI123' && i.amount == i.price * double(i.quantity))",
+            "items.map(i, i.id)",
+            "size(items) == 2 && transactionDate == '2025-12-10'",
+            "items[0]"
+    };
+
+    @Test
+    void testEntityBindingMatchesJsonPayload() throws Exception {
+        CelConfig config = new CelConfig();
+        CelCompiler compiler = config.celCompiler(CelSchema.untyped());
+        CelRuntime runtime = config.celRuntime(-1);
+
+        Map<String, Object> json = CelJsonUtils.jsonToCelInput(ORDER_JSON);
+        OrderActivation entity = new OrderActivation(order());
+
+        for (String rule : RULES) {
+            CelRuntime.Program program = runtime.createProgram(compiler.compile(rule).getAst());
+            assertEquals(program.eval(json), program.eval(entity), rule);
+        }
+    }
+
+    private static Order order() {
+        Order order = new Order();
+        order.setId(1L);
+        order.setOrderId("ORD-001");
+        order.setTotalAmount(750000.0);
+        order.setTransactionDate("2025-12-10");
+        order.setChannel("In-Person");
+        order.setSalespersonId("AKG-1234");
+        order.setItems(List.of(
+                item(order, "ITM-001", "OLI123", 2, 300000.0),
+                item(order, "ITM-002", "SERV001", 1, 150000.0)));
+        return order;
+    }
+
+    private static OrderItem item(Order order, String itemId, String sku, int quantity, double price) {
+        OrderItem item = new OrderItem();
+        item.setItemId(itemId);
+        item.setSku(sku);
+        item.setQuantity(quantity);
+        item.setPrice(price);
+        item.setAmount(price * quantity);
+        item.setOrder(order);
+        return item;
+    }
+}
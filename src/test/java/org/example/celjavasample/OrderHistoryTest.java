@@ -0,0 +1,162 @@
+package org.example.celjavasample;
+
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.entity.Order;
+import org.example.celjavasample.repository.RuleRepository;
+import org.example.celjavasample.service.EvaluationBudget;
+import org.example.celjavasample.service.OrderHistory;
+import org.example.celjavasample.service.OrderHistory.Period;
+import org.example.celjavasample.service.OrderHistory.Window;
+import org.example.celjavasample.service.ProgramCache;
+import org.example.celjavasample.service.RuleEvaluation;
+import org.example.celjavasample.service.RuleMetrics;
+import org.example.celjavasample.service.RuleOutcome;
+import org.example.celjavasample.service.RuleResultCache;
+import org.example.celjavasample.service.RuleService;
+import org.example.celjavasample.service.RuleSetService;
+import org.example.celjavasample.utils.CelJsonReader;
+import org.example.celjavasample.utils.OrderActivation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OrderHistoryTest {
+
+    private final CelConfig config = new CelConfig();
+    private final RuleRepository repository = mock(RuleRepository.class);
+    private RuleSetService ruleSetService;
+
+    @BeforeEach
+    void setUp() {
+        ruleSetService = new RuleSetService(repository, RuleSetServiceTest.ruleCompiler(config, CelSchema.untyped()));
+        when(repository.findByActiveTrue()).thenReturn(List.of(
+                RuleServiceTest.rule(1, "top-seller", "history.salesperson.month.total > 50000000.0", "FIXED", null, null, 100.0),
+                RuleServiceTest.rule(2, "third-this-week", "history.channel.week.count >= 2", "FIXED", null, null, 5.0),
+                RuleServiceTest.rule(3, "first-today", "history.salesperson.day.count == 0", "FIXED", null, null, 1.0)
+        ));
+        ruleSetService.loadOnStartup();
+    }
+
+    private RuleService ruleService(OrderHistory history, RuleResultCache cache) {
+        return new RuleService(config.celCompiler(CelSchema.untyped()), config.celRuntime(-1), new CelJsonReader(),
+                new ProgramCache(100), ruleSetService, RuleMetrics.disabled(), EvaluationBudget.unlimited(), cache, history);
+    }
+
+    static Order order(Long id, String salespersonId, String channel, String date, double amount) {
+        Order order = new Order();
+        order.setId(id);
+        order.setSalespersonId(salespersonId);
+        order.setChannel(channel);
+        order.setTransactionDate(date);
+        order.setTotalAmount(amount);
+        return order;
+    }
+
+    private static List<Long> matched(RuleEvaluation evaluation) {
+        return evaluation.matched().stream().map(RuleOutcome::ruleId).toList();
+    }
+
+    @Test
+    void testWindowsFollowTheCalendar() {
+        OrderHistory history = OrderHistory.inMemory();
+        // 2025-12-10 is a Wednesday
+        history.record(order(1L, "AKG-1234", "In-Person", "2025-11-30", 7_000_000));
+        history.record(order(2L, "AKG-1234", "In-Person", "2025-12-01", 20_000_000));
+        history.record(order(3L, "AKG-1234", "Online", "2025-12-08T09:30:00", 25_000_000));
+        history.record(order(4L, "AKG-1234", "In-Person", "2025-12-10", 6_000_000));
+        history.record(order(5L, "AKG-1234", "In-Person", "2025-12-11", 1_000_000));
+        history.record(order(6L, "OTHER", "In-Person", "2025-12-09", 1_000));
+
+        LocalDate date = LocalDate.parse("2025-12-10");
+        assertEquals(new Window(6_000_000, 1), history.salesperson("AKG-1234", date, Period.DAY));
+        assertEquals(new Window(31_000_000, 2), history.salesperson("AKG-1234", date, Period.WEEK));
+        assertEquals(new Window(51_000_000, 3), history.salesperson("AKG-1234", date, Period.MONTH));
+        assertEquals(new Window(6_001_000, 2), history.channel("In-Person", date, Period.WEEK));
+        assertEquals(new Window(0, 0), history.channel("Marketplace", date, Period.MONTH));
+        assertEquals(new Window(0, 0), history.salesperson(null, date, Period.MONTH));
+    }
+
+    @Test
+    void testRulesReadHistoryOfTheOrder() throws Exception {
+        OrderHistory history = OrderHistory.inMemory();
+        RuleService ruleService = ruleService(history, RuleResultCache.disabled());
+
+        // The payload carries both keys in additional_info only
+        assertEquals(List.of(3L), matched(ruleService.evaluateAll(RuleServiceTest.ORDER_JSON)));
+
+        history.record(order(1L, "AKG-1234", "In-Person", "2025-12-08", 45_000_000));
+        history.record(order(2L, "AKG-1234", "In-Person", "2025-12-08", 6_000_000));
+        assertEquals(List.of(1L, 2L, 3L), matched(ruleService.evaluateAll(RuleServiceTest.ORDER_JSON)));
+
+        history.record(order(3L, "AKG-1234", "Online", "2025-12-10", 1_000));
+        assertEquals(List.of(1L, 2L), matched(ruleService.evaluateAll(RuleServiceTest.ORDER_JSON)));
+
+        // Entities resolve the same keys from their own columns
+        Order stored = order(4L, "AKG-1234", "In-Person", "2025-12-10", 750_000);
+        assertEquals(List.of(1L, 2L), matched(ruleService.evaluateAll(new OrderActivation(stored))));
+    }
+
+    @Test
+    void testCachedOutcomesFollowTheHistory() throws Exception {
+        OrderHistory history = OrderHistory.inMemory();
+        RuleResultCache cache = new RuleResultCache(1000, Duration.ofMinutes(5));
+        RuleService ruleService = ruleService(history, cache);
+
+        assertEquals(List.of(3L), matched(ruleService.evaluateAll(RuleServiceTest.ORDER_JSON)));
+        history.record(order(1L, "AKG-1234", "In-Person", "2025-12-10", 60_000_000));
+
+        // Each rule reads a window the new order is in, so none of the stored outcomes is served
+        assertEquals(List.of(1L), matched(ruleService.evaluateAll(RuleServiceTest.ORDER_JSON)));
+        assertEquals(0, cache.stats().hits());
+    }
+
+    @Test
+    void testRebuildCountsOrdersRecordedMeanwhileOnce() throws Exception {
+        JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+        OrderHistory history = new OrderHistory(jdbcTemplate);
+        String today = LocalDate.now().toString();
+        history.record(order(9L, "AKG-1234", "In-Person", today, 99));
+
+        doAnswer(i -> {
+            // An ingest commits order 2 while the scan runs, before the scan reaches it
+            history.record(order(2L, "AKG-1234", "In-Person", today, 200));
+            ResultSet rs = mock(ResultSet.class);
+            RowCallbackHandler handler = i.getArgument(1);
+            for (Order row : List.of(order(1L, "AKG-1234", "In-Person", today, 100),
+                    order(2L, "AKG-1234", "In-Person", today, 200))) {
+                when(rs.getLong("id")).thenReturn(row.getId());
+                when(rs.getString(anyString())).thenAnswer(c -> switch ((String) c.getArgument(0)) {
+                    case "salesperson_id" -> row.getSalespersonId();
+                    case "channel" -> row.getChannel();
+                    default -> row.getTransactionDate();
+                });
+                when(rs.getObject(eq("total_amount"), eq(Double.class))).thenReturn(row.getTotalAmount());
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcTemplate).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+
+        history.rebuild();
+
+        // Order 9 was only ever in memory, so the rebuilt store has no trace of it
+        assertEquals(new Window(300, 2), history.salesperson("AKG-1234", LocalDate.now(), Period.DAY));
+        history.record(order(3L, "AKG-1234", "In-Person", today, 1));
+        assertEquals(new Window(301, 3), history.channel("In-Person", LocalDate.now(), Period.DAY));
+    }
+}
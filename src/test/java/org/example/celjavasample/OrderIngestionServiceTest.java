@@ -0,0 +1,112 @@
+package org.example.celjavasample;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.entity.Order;
+import org.example.celjavasample.entity.OrderReward;
+import org.example.celjavasample.repository.RuleRepository;
+import org.example.celjavasample.service.BulkEvaluationService;
+import org.example.celjavasample.service.OrderIngestionService;
+import org.example.celjavasample.service.EvaluationBudget;
+import org.example.celjavasample.service.OrderHistory;
+import org.example.celjavasample.service.ProgramCache;
+import org.example.celjavasample.service.RuleMetrics;
+import org.example.celjavasample.service.RuleResultCache;
+import org.example.celjavasample.service.RuleService;
+import org.example.celjavasample.service.RuleSetService;
+import org.example.celjavasample.utils.CelJsonReader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OrderIngestionServiceTest {
+
+    private final CelConfig config = new CelConfig();
+    private final RuleRepository repository = mock(RuleRepository.class);
+    private final EntityManager entityManager = mock(EntityManager.class);
+    private final List<Object> persisted = new ArrayList<>();
+    private OrderIngestionService ingestionService;
+
+    @BeforeEach
+    void setUp() {
+        RuleSetService ruleSetService = new RuleSetService(repository, RuleSetServiceTest.ruleCompiler(config, CelSchema.untyped()));
+        when(repository.findByActiveTrue()).thenReturn(List.of(
+                RuleServiceTest.rule(1, "in-person", "additional_info.channel == 'In-Person'", "FIXED", null, null, 5.0),
+                RuleServiceTest.rule(2, "oil", "items.exists(i, i.sku == 'OLI123' && i.quantity >= 2)", "FIXED", null, null, 1.0)
+        ));
+        ruleSetService.loadOnStartup();
+        RuleService ruleService = new RuleService(config.celCompiler(CelSchema.untyped()), config.celRuntime(-1),
+                new CelJsonReader(), new ProgramCache(100), ruleSetService, RuleMetrics.disabled(),
+                EvaluationBudget.unlimited(), RuleResultCache.disabled(), OrderHistory.inMemory());
+
+        // Stands in for the sequence: ids are assigned on persist
+        AtomicLong ids = new AtomicLong();
+        doAnswer(invocation -> {
+            Object entity = invocation.getArgument(0);
+            if (entity instanceof Order order) {
+                order.setId(ids.incrementAndGet());
+            }
+            persisted.add(entity);
+            return null;
+        }).when(entityManager).persist(any());
+
+        ingestionService = new OrderIngestionService(entityManager, mock(PlatformTransactionManager.class),
+                mock(JdbcTemplate.class), ruleSetService, new BulkEvaluationService(ruleService, 8), ruleService,
+                new ObjectMapper(), OrderHistory.inMemory(), 2);
+    }
+
+    @Test
+    void testOrdersAreScoredAndStoredInChunks() {
+        List<String> lines = List.of(
+                RuleServiceTest.ORDER_JSON.replace("\n", ""),
+                "{\"orderId\": \"ORD-002\", \"totalAmount\": 1000, \"channel\": \"Online\", \"items\": []}",
+                "not json",
+                "{\"orderId\": \"ORD-003\", \"additional_info\": {\"channel\": \"In-Person\"}}"
+        );
+
+        OrderIngestionService.IngestSummary summary = ingestionService.ingest(lines.iterator());
+        System.out.println(summary);
+
+        assertEquals(3, summary.orders());
+        assertEquals(1, summary.malformed());
+        assertEquals(2, summary.chunks());
+        assertEquals(11.0, summary.totalReward());
+        verify(entityManager, times(2)).flush();
+        verify(entityManager, times(2)).clear();
+
+        List<Order> orders = persisted.stream().filter(Order.class::isInstance).map(Order.class::cast).toList();
+        List<OrderReward> rewards = persisted.stream().filter(OrderReward.class::isInstance).map(OrderReward.class::cast).toList();
+        assertEquals(3, orders.size());
+        assertEquals(3, rewards.size());
+
+        Order first = orders.getFirst();
+        assertEquals("ORD-001", first.getOrderId());
+        assertEquals(750000.0, first.getTotalAmount());
+        assertEquals("In-Person", first.getChannel());
+        assertEquals("AKG-1234", first.getSalespersonId());
+        assertEquals(2, first.getItems().size());
+        assertSame(first, first.getItems().getFirst().getOrder());
+
+        assertEquals(first.getId(), rewards.getFirst().getOrderId());
+        assertEquals("1,2", rewards.getFirst().getMatchedRules());
+        assertEquals(6.0, rewards.getFirst().getTotalReward());
+        assertEquals("", rewards.get(1).getMatchedRules());
+        assertEquals("1", rewards.get(2).getMatchedRules());
+    }
+}
@@ -0,0 +1,109 @@
+package org.example.celjavasample;
+
+import dev.cel.common.CelValidationException;
+import dev.cel.compiler.CelCompiler;
+import dev.cel.runtime.CelRuntime;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.service.ProgramCache;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class ProgramCacheTest {
+
+    private final CelConfig config = new CelConfig();
+    private final CelCompiler compiler = config.celCompiler(CelSchema.untyped());
+    private final CelRuntime runtime = config.celRuntime(-1);
+
+    @Test
+    void testHitAndMiss() throws Exception {
+        ProgramCache cache = new ProgramCache(10);
+
+        CelRuntime.Program first = cache.get(compiler, runtime, "size(items) > 0");
+        CelRuntime.Program second = cache.get(compiler, runtime, "size(items) > 0");
+
+        assertSame(first, second);
+        assertEquals(true, second.eval(Map.of("items", List.of(Map.of("id", "ITM-001")))));
+        assertEquals(new ProgramCache.Stats(1, 1, 0, 1), cache.stats());
+    }
+
+    @Test
+    void testKeyedByEnvironment() throws Exception {
+        ProgramCache cache = new ProgramCache(10);
+        CelCompiler other = config.celCompiler(CelSchema.untyped());
+
+        CelRuntime.Program first = cache.get(compiler, runtime, "size(items) > 0");
+        CelRuntime.Program second = cache.get(other, runtime, "size(items) > 0");
+
+        assertNotSame(first, second);
+        assertEquals(2, cache.stats().misses());
+    }
+
+    @Test
+    void testLeastRecentlyUsedIsEvicted() throws Exception {
+        ProgramCache cache = new ProgramCache(2);
+
+        CelRuntime.Program a = cache.get(compiler, runtime, "1 + 1");
+        cache.get(compiler, runtime, "2 + 2");
+        cache.get(compiler, runtime, "1 + 1");
+        cache.get(compiler, runtime, "3 + 3");
+
+        assertSame(a, cache.get(compiler, runtime, "1 + 1"));
+        assertEquals(1, cache.stats().evictions());
+        assertEquals(2, cache.size());
+
+        cache.get(compiler, runtime, "2 + 2");
+        assertEquals(4, cache.stats().misses());
+    }
+
+    @Test
+    void testCompileErrorIsNotCached() {
+        ProgramCache cache = new ProgramCache(10);
+
+        assertThrows(CelValidationException.class, () -> cache.get(compiler, runtime, "unknownVar > 1"));
+        assertThrows(CelValidationException.class, () -> cache.get(compiler, runtime, "unknownVar > 1"));
+
+        assertEquals(0, cache.size());
+        assertEquals(2, cache.stats().misses());
+    }
+
+    @Test
+    void testConcurrentCallersCompileOnce() throws Exception {
+        ProgramCache cache = new ProgramCache(10);
+        int threads = 16;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<CelRuntime.Program>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return cache.get(compiler, runtime, "items.all(i, i.quantity > 0)");
+                }));
+            }
+            start.countDown();
+
+            CelRuntime.Program expected = futures.get(0).get();
+            for (Future<CelRuntime.Program> future : futures) {
+                assertSame(expected, future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, cache.stats().misses());
+        assertEquals(threads - 1, cache.stats().hits());
+    }
+}
@@ -0,0 +1,139 @@
+package org.example.celjavasample;
+
+import dev.cel.runtime.CelRuntime;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.entity.Rule;
+import org.example.celjavasample.repository.RuleRepository;
+import org.example.celjavasample.service.EvaluationBudget;
+import org.example.celjavasample.service.OrderHistory;
+import org.example.celjavasample.service.ProgramCache;
+import org.example.celjavasample.service.RuleCompiler;
+import org.example.celjavasample.service.RuleCostEstimator;
+import org.example.celjavasample.service.RuleMetrics;
+import org.example.celjavasample.service.RuleOptimizer;
+import org.example.celjavasample.service.RuleOutcome;
+import org.example.celjavasample.service.RuleResultCache;
+import org.example.celjavasample.service.RuleService;
+import org.example.celjavasample.service.RuleSetService;
+import org.example.celjavasample.utils.CelJsonReader;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RuleBudgetTest {
+
+    private static final String NESTED = "paymentMethod.exists(p, items.all(i, i.price * i.quantity <= p.amount))";
+
+    private final CelConfig config = new CelConfig();
+    private final RuleRepository repository = mock(RuleRepository.class);
+
+    private static String order(int items) {
+        return "{\"items\": [" + IntStream.range(0, items).mapToObj(i -> "{\"price\": " + i + "}").collect(Collectors.joining(",")) + "]}";
+    }
+
+    @Test
+    void testCostEstimateGrowsWithNesting() throws Exception {
+        var compiler = config.celCompiler(CelSchema.untyped());
+        RuleCostEstimator estimator = new RuleCostEstimator(100, 0, 0);
+
+        long flat = estimator.estimate(compiler.compile("items.all(i, i.price > 0)").getAst());
+        long nested = estimator.estimate(compiler.compile(NESTED).getAst());
+        long literal = estimator.estimate(compiler.compile("[1, 2, 3].all(x, x > 0)").getAst());
+        System.out.println("flat=" + flat + " nested=" + nested + " literal=" + literal);
+
+        assertTrue(flat > 100 && flat < 1000);
+        assertTrue(nested > 100 * flat / 2);
+        assertTrue(literal < 50);
+    }
+
+    @Test
+    void testExpensiveRuleIsRejectedOnSave() {
+        var compiler = config.celCompiler(CelSchema.untyped());
+        var runtime = config.celRuntime(-1);
+        RuleCompiler ruleCompiler = new RuleCompiler(compiler, runtime, CelSchema.untyped(),
+                new RuleOptimizer(compiler, runtime, true), new RuleCostEstimator(100, 1_000, 10_000));
+        RuleSetService service = new RuleSetService(repository, ruleCompiler);
+
+        Rule rule = RuleSetServiceTest.rule(1, "nested", NESTED);
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> service.save(rule));
+        System.out.println(e.getMessage());
+        verify(repository, never()).save(any());
+    }
+
+    private RuleService ruleService(CelRuntime runtime, EvaluationBudget budget) {
+        return ruleService(runtime, budget, List.of(
+                RuleServiceTest.rule(1, "cheap", "size(items) > 0", "FIXED", null, null, 1.0),
+                RuleServiceTest.rule(2, "pairs", "items.all(x, items.exists(y, y == x))", "FIXED", null, null, 1.0),
+                RuleServiceTest.rule(3, "triples", "items.all(a, items.all(b, size(items.filter(c, c.price > a.price + b.price)) >= 0))", "FIXED", null, null, 1.0)
+        ));
+    }
+
+    private RuleService ruleService(CelRuntime runtime, EvaluationBudget budget, List<Rule> rules) {
+        when(repository.findByActiveTrue()).thenReturn(rules);
+        var compiler = config.celCompiler(CelSchema.untyped());
+        RuleCompiler ruleCompiler = new RuleCompiler(compiler, runtime, CelSchema.untyped(),
+                new RuleOptimizer(compiler, runtime, true), RuleCostEstimator.unlimited());
+        RuleSetService ruleSetService = new RuleSetService(repository, ruleCompiler);
+        ruleSetService.loadOnStartup();
+        return new RuleService(compiler, runtime, new CelJsonReader(), new ProgramCache(100), ruleSetService,
+                RuleMetrics.disabled(), budget, RuleResultCache.disabled(), OrderHistory.inMemory());
+    }
+
+    @Test
+    void testIterationLimitGivesDistinctOutcome() throws Exception {
+        // 50 items: rule 2 needs at most 2,500 iterations, rule 3 125,000
+        RuleService ruleService = ruleService(config.celRuntime(10_000), EvaluationBudget.unlimited());
+        List<RuleOutcome> outcomes = ruleService.evaluateAll(order(50)).outcomes();
+        System.out.println(outcomes.get(2).error());
+
+        assertEquals(RuleOutcome.Status.EVALUATED, outcomes.get(0).status());
+        assertEquals(RuleOutcome.Status.EVALUATED, outcomes.get(1).status());
+        assertEquals(RuleOutcome.Status.BUDGET_EXCEEDED, outcomes.get(2).status());
+    }
+
+    @Test
+    void testTimeBudgetGivesDistinctOutcome() throws Exception {
+        // 200 items: rule 3 would take 8M iterations
+        RuleService ruleService = ruleService(config.celRuntime(-1), new EvaluationBudget(Duration.ofMillis(20)));
+        long started = System.nanoTime();
+        List<RuleOutcome> outcomes = ruleService.evaluateAll(order(200)).outcomes();
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+        System.out.println(outcomes.get(2).error() + " after " + elapsedMillis + " ms");
+
+        assertTrue(outcomes.get(0).matched());
+        assertEquals(RuleOutcome.Status.BUDGET_EXCEEDED, outcomes.get(2).status());
+        assertTrue(elapsedMillis < 2_000);
+    }
+
+    @Test
+    void testTimeBudgetCoversSharedSubexpressions() throws Exception {
+        // Both rules read the same 8M-iteration value, which is shared and evaluated outside the rules
+        String triples = "items.all(a, items.all(b, size(items.filter(c, c.price > a.price + b.price)) >= 0))";
+        RuleService ruleService = ruleService(config.celRuntime(-1), new EvaluationBudget(Duration.ofMillis(20)), List.of(
+                RuleServiceTest.rule(1, "cheap", "size(items) > 0", "FIXED", null, null, 1.0),
+                RuleServiceTest.rule(2, "triples", triples, "FIXED", null, null, 1.0),
+                RuleServiceTest.rule(3, "no-triples", "!" + triples, "FIXED", null, null, 1.0)));
+        long started = System.nanoTime();
+        List<RuleOutcome> outcomes = ruleService.evaluateAll(order(200)).outcomes();
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+        System.out.println(outcomes.get(1).error() + " after " + elapsedMillis + " ms");
+
+        assertTrue(outcomes.get(0).matched());
+        assertEquals(RuleOutcome.Status.BUDGET_EXCEEDED, outcomes.get(1).status());
+        assertEquals(RuleOutcome.Status.BUDGET_EXCEEDED, outcomes.get(2).status());
+        assertTrue(elapsedMillis < 2_000);
+    }
+}
@@ -0,0 +1,234 @@
+package org.example.celjavasample;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.entity.Rule;
+import org.example.celjavasample.repository.RuleRepository;
+import org.example.celjavasample.repository.RuleVersion;
+import org.example.celjavasample.service.CompiledRule;
+import org.example.celjavasample.service.RuleChangeListener;
+import org.example.celjavasample.service.RuleCompiler;
+import org.example.celjavasample.service.RuleSet;
+import org.example.celjavasample.service.RuleSetService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.postgresql.core.Notification;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Runs the listener against a stand-in for Postgres: the {@code rules} table is a map, writes bump
+ * the version, drop stale stored ASTs and queue a notification the way the trigger does, and the
+ * listening connection hands out queued notifications.
+ */
+public class RuleChangeListenerTest {
+
+    private final Map<Long, Rule> table = new TreeMap<>();
+    private final BlockingQueue<PGNotification> notifications = new LinkedBlockingQueue<>();
+    private final RuleRepository repository = mock(RuleRepository.class);
+    private final PGConnection pgConnection = mock(PGConnection.class);
+    private final RuleCompiler compiler = RuleSetServiceTest.ruleCompiler(new CelConfig(), CelSchema.untyped());
+    private RuleSetService ruleSetService;
+    private RuleChangeListener listener;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(repository.findByActiveTrue()).thenAnswer(i -> rows(Rule::getActive));
+        when(repository.findAllById(any())).thenAnswer(i -> {
+            Collection<Long> ids = i.getArgument(0);
+            return rows(r -> ids.contains(r.getId()));
+        });
+        when(repository.findActiveVersions()).thenAnswer(i -> rows(Rule::getActive).stream()
+                .map(r -> new RuleVersion(r.getId(), r.getVersion())).toList());
+        when(repository.activeVersionsChecksum()).thenAnswer(i -> checksum());
+
+        when(pgConnection.getNotifications(anyInt())).thenAnswer(i -> {
+            PGNotification first = notifications.poll((int) i.getArgument(0), TimeUnit.MILLISECONDS);
+            if (first == null) {
+                return new PGNotification[0];
+            }
+            List<PGNotification> batch = new ArrayList<>(List.of(first));
+            notifications.drainTo(batch);
+            return batch.toArray(PGNotification[]::new);
+        });
+        Connection connection = mock(Connection.class);
+        when(connection.unwrap(PGConnection.class)).thenReturn(pgConnection);
+        Statement statement = mock(Statement.class);
+        when(statement.execute(anyString())).thenReturn(false);
+        when(connection.createStatement()).thenReturn(statement);
+        DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+
+        write(RuleSetServiceTest.rule(1, "auto2000", "sponsorCode == 'AUTO2000'"));
+        write(RuleSetServiceTest.rule(2, "big-order", "totalAmount >= 500000"));
+        notifications.clear();
+
+        ruleSetService = new RuleSetService(repository, compiler);
+        ruleSetService.loadOnStartup();
+        listener = new RuleChangeListener(dataSource, ruleSetService, new ObjectMapper(), true,
+                Duration.ofMinutes(10), Duration.ofMillis(10));
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        listener.stop();
+    }
+
+    // What the trigger does: bump the version, drop a stored AST the expression moved away from, and notify
+    private void write(Rule rule) {
+        Rule previous = table.get(rule.getId());
+        rule.setVersion(previous == null ? 0 : previous.getVersion() + 1);
+        if (previous != null && !Objects.equals(rule.getCelExpression(), previous.getCelExpression())
+                && Objects.equals(rule.getExpressionHash(), previous.getExpressionHash())) {
+            rule.setCheckedAst(null);
+            rule.setEnvHash(null);
+            rule.setExpressionHash(null);
+        }
+        table.put(rule.getId(), rule);
+        notifications.add(notification(rule.getId(), rule.getVersion(), previous == null ? "INSERT" : "UPDATE"));
+    }
+
+    private static PGNotification notification(long id, long version, String op) {
+        return new Notification(RuleChangeListener.CHANNEL, 0,
+                "{\"id\": " + id + ", \"version\": " + version + ", \"op\": \"" + op + "\"}");
+    }
+
+    private List<Rule> rows(Predicate<Rule> filter) {
+        return table.values().stream().filter(filter).toList();
+    }
+
+    private String checksum() throws Exception {
+        String pairs = rows(Rule::getActive).stream()
+                .map(r -> r.getId() + ":" + r.getVersion())
+                .collect(Collectors.joining(","));
+        return HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(pairs.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private RuleSet await(Predicate<RuleSet> condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (System.currentTimeMillis() < deadline) {
+            RuleSet ruleSet = ruleSetService.current();
+            if (condition.test(ruleSet)) {
+                return ruleSet;
+            }
+            Thread.sleep(10);
+        }
+        fail("Rule set v" + ruleSetService.current().version() + " never caught up: " + ruleSetService.current().ruleVersions());
+        return null;
+    }
+
+    @Test
+    void testNotifiedRulesAreRecompiledAlone() throws Exception {
+        RuleSet before = ruleSetService.current();
+        CompiledRule untouched = before.rules().get(0);
+        assertEquals(before.checksum(), checksum());
+        listener.start();
+        // Listening, so the write below arrives as a notification rather than through reconciling
+        verify(pgConnection, timeout(5_000).atLeastOnce()).getNotifications(anyInt());
+
+        write(RuleSetServiceTest.rule(2, "big-order", "totalAmount >= 1000000"));
+        RuleSet edited = await(r -> r.version() > before.version());
+        System.out.println("Edited: v" + edited.version() + " " + edited.ruleVersions());
+
+        assertSame(untouched, edited.rules().get(0));
+        assertEquals("totalAmount >= 1000000", edited.rules().get(1).expression());
+        assertEquals(1L, edited.rules().get(1).version());
+
+        Rule deactivated = RuleSetServiceTest.rule(1, "auto2000", "sponsorCode == 'AUTO2000'");
+        deactivated.setActive(false);
+        write(deactivated);
+        write(RuleSetServiceTest.rule(3, "items", "size(items) > 1"));
+        RuleSet next = await(r -> r.ruleVersions().keySet().equals(Set.of(2L, 3L)));
+
+        assertEquals(List.of(2L, 3L), next.rules().stream().map(CompiledRule::id).toList());
+        assertEquals(checksum(), next.checksum());
+    }
+
+    @Test
+    void testExpressionEditedBehindTheAppsBackIsRecompiled() throws Exception {
+        Rule saved = RuleSetServiceTest.rule(1, "auto2000", "sponsorCode == 'AUTO2000'");
+        compiler.prepare(saved);
+        write(saved);
+        RuleSet before = ruleSetService.reconcile().join();
+        assertEquals(true, before.rules().get(0).program().eval(Map.of("sponsorCode", "AUTO2000")));
+
+        // UPDATE rules SET cel_expression = ... WHERE id = 1, which leaves the other columns as they are
+        Rule edited = RuleSetServiceTest.rule(1, "auto2000", "sponsorCode == 'HONDA'");
+        edited.setCheckedAst(saved.getCheckedAst());
+        edited.setEnvHash(saved.getEnvHash());
+        edited.setExpressionHash(saved.getExpressionHash());
+        write(edited);
+        assertNull(edited.getCheckedAst());
+
+        listener.apply(notifications.toArray(PGNotification[]::new));
+        CompiledRule recompiled = ruleSetService.current().rules().get(0);
+
+        assertEquals(edited.getVersion(), recompiled.version());
+        assertEquals(false, recompiled.program().eval(Map.of("sponsorCode", "AUTO2000")));
+        assertEquals(true, recompiled.program().eval(Map.of("sponsorCode", "HONDA")));
+    }
+
+    @Test
+    void testOwnWritesAndDuplicatesAreSkipped() {
+        RuleSet before = ruleSetService.current();
+
+        listener.apply(notification(1, 0, "UPDATE"), notification(2, 0, "UPDATE"), notification(9, 4, "DELETE"));
+
+        assertSame(before, ruleSetService.current());
+    }
+
+    @Test
+    void testReconcileCatchesMissedNotifications() throws Exception {
+        RuleSet before = ruleSetService.current();
+        assertSame(before, ruleSetService.reconcile().join());
+
+        write(RuleSetServiceTest.rule(1, "auto2000", "sponsorCode == 'HONDA'"));
+        table.remove(2L);
+        notifications.clear();
+
+        RuleSet reconciled = ruleSetService.reconcile().join();
+
+        assertEquals(before.version() + 1, reconciled.version());
+        assertEquals(1, reconciled.size());
+        assertEquals("sponsorCode == 'HONDA'", reconciled.rules().get(0).expression());
+        assertEquals(checksum(), reconciled.checksum());
+        assertFalse(reconciled.ruleVersions().containsKey(2L));
+        assertTrue(reconciled.errors().isEmpty());
+    }
+}
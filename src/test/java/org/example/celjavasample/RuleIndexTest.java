@@ -0,0 +1,104 @@
+package org.example.celjavasample;
+
+import dev.cel.runtime.CelVariableResolver;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.service.CompiledRule;
+import org.example.celjavasample.service.RuleCompiler;
+import org.example.celjavasample.service.RuleIndex;
+import org.example.celjavasample.utils.CelJsonUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RuleIndexTest {
+
+    private final CelConfig config = new CelConfig();
+    private final RuleCompiler ruleCompiler = RuleSetServiceTest.ruleCompiler(config, CelSchema.untyped());
+
+    static final String[] RULES = {
+            "sponsorCode == 'AUTO2000' && totalAmount >= 500000",
+            "sponsorCode == 'HONDA'",
+            "'In-Person' == additional_info.channel",
+            "sponsorCode in ['HONDA', 'YAMAHA'] && totalAmount < 100000",
+            "items.exists(i, i.sku == 'OLI123')",
+            "totalAmount > 1000000 && totalAmount <= 2000000",
+            "branch.code == 'AHASS-LBKBULUS' && branch.code.startsWith('AHASS') && size(branch.code) > 3",
+    };
+
+    private List<CompiledRule> compile() throws Exception {
+        List<CompiledRule> rules = new ArrayList<>();
+        for (int i = 0; i < RULES.length; i++) {
+            rules.add(ruleCompiler.compile(RuleSetServiceTest.rule(i + 1, "rule-" + (i + 1), RULES[i])));
+        }
+        return rules;
+    }
+
+    @Test
+    void testOnlyRulesWhoseGuardsCanHoldAreCandidates() throws Exception {
+        List<CompiledRule> rules = compile();
+        RuleIndex index = RuleIndex.build(rules);
+        System.out.println("Indexed " + index.indexedRules() + " rules on " + index.fields());
+        assertEquals(6, index.indexedRules());
+
+        Map<String, Object> input = CelJsonUtils.jsonToCelInput(RuleServiceTest.ORDER_JSON);
+        BitSet candidates = index.candidates(CelJsonUtils.variableResolver(input));
+
+        assertEquals(bits(0, 2, 4, 6), candidates);
+        assertSkippedRulesAreFalse(rules, candidates, input);
+        assertEquals(new RuleIndex.Stats(4, 3), index.stats());
+    }
+
+    @Test
+    void testOtherOrdersSelectOtherRules() throws Exception {
+        List<CompiledRule> rules = compile();
+        RuleIndex index = RuleIndex.build(rules);
+
+        Map<String, Object> input = new HashMap<>(CelJsonUtils.jsonToCelInput(RuleServiceTest.ORDER_JSON));
+        input.put("sponsorCode", "YAMAHA");
+        input.put("totalAmount", 1500000L);
+        input.put("additional_info", Map.of("channel", "Online"));
+        BitSet candidates = index.candidates(CelJsonUtils.variableResolver(input));
+
+        assertEquals(bits(4, 5, 6), candidates);
+        assertSkippedRulesAreFalse(rules, candidates, input);
+    }
+
+    @Test
+    void testMissingOrMistypedFieldsLeaveTheGuardToCel() throws Exception {
+        List<CompiledRule> rules = compile();
+        RuleIndex index = RuleIndex.build(rules);
+
+        Map<String, Object> input = new HashMap<>(CelJsonUtils.jsonToCelInput(RuleServiceTest.ORDER_JSON));
+        input.remove("sponsorCode");
+        input.put("totalAmount", "750000");
+        CelVariableResolver resolver = CelJsonUtils.variableResolver(input);
+
+        // Guards on sponsorCode pass for lack of a value, range guards on the string amount too
+        assertEquals(bits(0, 1, 2, 3, 4, 5, 6), index.candidates(resolver));
+    }
+
+    private static void assertSkippedRulesAreFalse(List<CompiledRule> rules, BitSet candidates, Map<String, Object> input) throws Exception {
+        for (int i = 0; i < rules.size(); i++) {
+            if (!candidates.get(i)) {
+                assertEquals(false, rules.get(i).program().eval(input), rules.get(i).expression());
+            }
+        }
+        assertTrue(candidates.cardinality() < rules.size());
+    }
+
+    private static BitSet bits(int... indices) {
+        BitSet bits = new BitSet();
+        for (int i : indices) {
+            bits.set(i);
+        }
+        return bits;
+    }
+}
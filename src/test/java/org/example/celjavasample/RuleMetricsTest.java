@@ -0,0 +1,76 @@
+package org.example.celjavasample;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.repository.RuleRepository;
+import org.example.celjavasample.service.EvaluationBudget;
+import org.example.celjavasample.service.OrderHistory;
+import org.example.celjavasample.service.ProgramCache;
+import org.example.celjavasample.service.RuleMetrics;
+import org.example.celjavasample.service.RuleResultCache;
+import org.example.celjavasample.service.RuleService;
+import org.example.celjavasample.service.RuleSetService;
+import org.example.celjavasample.utils.CelJsonReader;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RuleMetricsTest {
+
+    private final CelConfig config = new CelConfig();
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private RuleService ruleService(double sampleRate) {
+        RuleRepository repository = mock(RuleRepository.class);
+        RuleSetService ruleSetService = new RuleSetService(repository, RuleSetServiceTest.ruleCompiler(config, CelSchema.untyped()));
+        when(repository.findByActiveTrue()).thenReturn(List.of(
+                RuleServiceTest.rule(1, "auto2000", "sponsorCode == 'AUTO2000'", "FIXED", null, null, 1.0),
+                RuleServiceTest.rule(2, "oil-bonus", "items.exists(i, i.sku == 'OLI123')", "FIXED", null, null, 2.0),
+                RuleServiceTest.rule(3, "bad-field", "customer.loyaltyTier == 'GOLD'", "FIXED", null, null, 3.0)
+        ));
+        ruleSetService.loadOnStartup();
+        return new RuleService(config.celCompiler(CelSchema.untyped()), config.celRuntime(-1), new CelJsonReader(),
+                new ProgramCache(100), ruleSetService, new RuleMetrics(registry, sampleRate, Duration.ofMillis(50)),
+                EvaluationBudget.unlimited(), RuleResultCache.disabled(), OrderHistory.inMemory());
+    }
+
+    @Test
+    void testSampledEvaluationsAreTimedPerRule() throws Exception {
+        RuleService ruleService = ruleService(1.0);
+        for (int i = 0; i < 3; i++) {
+            ruleService.evaluateAll(RuleServiceTest.ORDER_JSON);
+        }
+
+        Timer oil = registry.find(RuleMetrics.EVALUATION_TIMER).tags("rule.id", "2", "rule.name", "oil-bonus").timer();
+        assertNotNull(oil);
+        assertEquals(3, oil.count());
+        assertTrue(oil.totalTime(TimeUnit.NANOSECONDS) > 0);
+
+        Counter errors = registry.find(RuleMetrics.ERROR_COUNTER).tags("rule.id", "3").counter();
+        assertNotNull(errors);
+        System.out.println("Error category: " + errors.getId().getTag("category"));
+        assertEquals(3.0, errors.count());
+    }
+
+    @Test
+    void testNothingIsTimedWhenSamplingIsOff() throws Exception {
+        RuleService ruleService = ruleService(0);
+        ruleService.evaluateAll(RuleServiceTest.ORDER_JSON);
+
+        assertNull(registry.find(RuleMetrics.EVALUATION_TIMER).timer());
+        // Errors are counted either way
+        assertEquals(1.0, registry.find(RuleMetrics.ERROR_COUNTER).counter().count());
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.celjavasample;
+
+import dev.cel.common.CelAbstractSyntaxTree;
+import dev.cel.common.CelValidationResult;
+import dev.cel.compiler.CelCompiler;
+import dev.cel.runtime.CelRuntime;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.entity.Rule;
+import org.example.celjavasample.service.CompiledRule;
+import org.example.celjavasample.service.RuleCompiler;
+import org.example.celjavasample.service.RuleOptimizer;
+import org.example.celjavasample.utils.CelJsonUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RuleOptimizerTest {
+
+    private final CelConfig config = new CelConfig();
+    private final CelCompiler compiler = config.celCompiler(CelSchema.untyped());
+    private final CelRuntime runtime = config.celRuntime(-1);
+    private final RuleOptimizer optimizer = new RuleOptimizer(compiler, runtime, true);
+
+    static final String[] RULES = {
+            "orderId != null && size(orderId) > 0",
+            "branch != null && branch.code != null && size(branch.code) > 0",
+            "size(items) > 0",
+            "items.all(i, i.quantity != null && i.quantity > 0 && i.quantity <= 10)",
+            "size(items.map(i, i.id)) == size(items.map(i, i.id))",
+            "paymentMethod.all(p, p.method in ['QRIS', 'CASH', 'CREDIT_CARD', 'DEBIT_CARD'])",
+            "sponsorCode != 'AUTO2000' || totalAmount >= 500000",
+            "paymentMethod.filter(p, p.method == 'CASH').all(p, p.amount <= 2000000)",
+            "items.map(i, i.price * i.quantity)[0] > 100000 && items.map(i, i.price * i.quantity)[1] > 100000",
+            "sponsorCode in ['AUTO' + '2000', 'HON' + 'DA'] && 60 * 60 * 24 > 0"
+    };
+
+    @Test
+    void testOptimizedRulesEvaluateTheSame() throws Exception {
+        Map<String, Object> input = CelJsonUtils.jsonToCelInput(RuleServiceTest.ORDER_JSON);
+
+        for (String rule : RULES) {
+            CelAbstractSyntaxTree ast = compiler.compile(rule).getAst();
+            RuleOptimizer.Result result = optimizer.optimize(ast);
+
+            System.out.println(rule + " -> " + result.nodesBefore() + " / " + result.nodesAfter() + " nodes");
+            assertTrue(result.nodesAfter() <= result.nodesBefore(), rule);
+            assertEquals(runtime.createProgram(ast).eval(input), runtime.createProgram(result.ast()).eval(input), rule);
+        }
+    }
+
+    @Test
+    void testFoldingAndSubexpressionEliminationShrinkTheAst() throws Exception {
+        CelValidationResult folded = compiler.compile("sponsorCode in ['AUTO' + '2000', 'HON' + 'DA'] && 60 * 60 * 24 > 0");
+        RuleOptimizer.Result constant = optimizer.optimize(folded.getAst());
+        assertTrue(constant.nodesAfter() < constant.nodesBefore());
+
+        CelValidationResult repeated = compiler.compile(
+                "items.map(i, i.price * i.quantity)[0] > 100000 && items.map(i, i.price * i.quantity)[1] > 100000");
+        RuleOptimizer.Result shared = optimizer.optimize(repeated.getAst());
+        assertTrue(shared.nodesAfter() < shared.nodesBefore());
+    }
+
+    @Test
+    void testStoredOptimizedAstRoundTrips() throws Exception {
+        RuleCompiler ruleCompiler = RuleSetServiceTest.ruleCompiler(config, CelSchema.untyped());
+        Rule rule = RuleSetServiceTest.rule(1, "shared",
+                "items.map(i, i.price * i.quantity)[0] > 100000 && items.map(i, i.price * i.quantity)[1] > 100000");
+
+        CompiledRule prepared = ruleCompiler.prepare(rule);
+        CompiledRule restored = ruleCompiler.compile(rule);
+        Map<String, Object> input = CelJsonUtils.jsonToCelInput(RuleServiceTest.ORDER_JSON);
+
+        assertEquals(Set.of("items"), restored.variables());
+        assertEquals(prepared.program().eval(input), restored.program().eval(input));
+        assertEquals(true, restored.program().eval(input));
+    }
+}
@@ -0,0 +1,51 @@
+package org.example.celjavasample;
+
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.service.RuleProfiler;
+import org.example.celjavasample.utils.CelJsonReader;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RuleProfilerTest {
+
+    private final CelConfig config = new CelConfig();
+    private final RuleProfiler profiler = new RuleProfiler(config.celCompiler(CelSchema.untyped()), config.celRuntime(-1), new CelJsonReader());
+
+    @Test
+    void testProfileMapsNodesBackToSource() throws Exception {
+        String expression = "totalAmount > 0 && items.map(i, i.price * i.quantity).exists(x, x > 500000)";
+        RuleProfiler.Profile profile = profiler.profile(expression, List.of(RuleServiceTest.ORDER_JSON, RuleServiceTest.ORDER_JSON));
+        System.out.println(profile.collapsed());
+
+        assertEquals(2, profile.orders());
+        assertEquals(0, profile.errors());
+
+        // The root is evaluated once per order and covers everything below it
+        RuleProfiler.NodeProfile root = profile.nodes().stream().filter(n -> n.depth() == 0).findFirst().orElseThrow();
+        assertEquals("&& @16", root.label());
+        assertEquals(2, root.count());
+        profile.nodes().forEach(n -> assertTrue(n.totalNanos() <= root.totalNanos(), n.label()));
+
+        RuleProfiler.NodeProfile map = profile.nodes().stream().filter(n -> n.label().startsWith(".map()")).findFirst().orElseThrow();
+        assertEquals(expression.indexOf(".map(") + 4, map.offset());
+        assertEquals(2, map.count());
+
+        // Two items per order, so the multiplication in the map step runs four times
+        RuleProfiler.NodeProfile product = profile.nodes().stream().filter(n -> n.label().equals("* @40")).findFirst().orElseThrow();
+        assertEquals(4, product.count());
+
+        assertTrue(profile.collapsed().lines().anyMatch(l -> l.startsWith("&& @16;.exists() @60;.map() @28;")));
+    }
+
+    @Test
+    void testErrorsAreCounted() throws Exception {
+        RuleProfiler.Profile profile = profiler.profile("customer.loyaltyTier == 'GOLD'", List.of(RuleServiceTest.ORDER_JSON));
+
+        assertEquals(1, profile.errors());
+    }
+}
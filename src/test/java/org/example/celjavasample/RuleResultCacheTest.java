@@ -0,0 +1,150 @@
+package org.example.celjavasample;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.repository.RuleRepository;
+import org.example.celjavasample.service.EvaluationBudget;
+import org.example.celjavasample.service.OrderHistory;
+import org.example.celjavasample.service.ProgramCache;
+import org.example.celjavasample.service.RuleEvaluation;
+import org.example.celjavasample.service.RuleMetrics;
+import org.example.celjavasample.service.RuleOutcome;
+import org.example.celjavasample.service.RuleResultCache;
+import org.example.celjavasample.service.RuleService;
+import org.example.celjavasample.service.RuleSetService;
+import org.example.celjavasample.utils.CelJsonReader;
+import org.example.celjavasample.utils.CelJsonUtils;
+import org.example.celjavasample.utils.InputFingerprint;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RuleResultCacheTest {
+
+    private final CelConfig config = new CelConfig();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final RuleRepository repository = mock(RuleRepository.class);
+    private RuleSetService ruleSetService;
+
+    @BeforeEach
+    void setUp() {
+        ruleSetService = new RuleSetService(repository, RuleSetServiceTest.ruleCompiler(config, CelSchema.untyped()));
+        when(repository.findByActiveTrue()).thenReturn(List.of(
+                RuleServiceTest.rule(1, "big-order", "totalAmount >= 500000", "MULTIPLIER", 0.01, null, null),
+                RuleServiceTest.rule(2, "oil", "items.exists(i, i.sku == 'OLI123' && i.quantity >= 2)", "FIXED", null, null, 5.0),
+                RuleServiceTest.rule(3, "known-payments", "paymentMethod.all(p, p.method in ['QRIS', 'CASH'])", "MULTIPLIER", 0.001, null, null),
+                RuleServiceTest.rule(4, "in-person", "additional_info.channel == 'In-Person'", "FIXED", null, null, 1.0)
+        ));
+        ruleSetService.loadOnStartup();
+    }
+
+    private RuleService ruleService(RuleResultCache cache) {
+        return new RuleService(config.celCompiler(CelSchema.untyped()), config.celRuntime(-1), new CelJsonReader(),
+                new ProgramCache(100), ruleSetService, RuleMetrics.disabled(), EvaluationBudget.unlimited(), cache,
+                OrderHistory.inMemory());
+    }
+
+    private String amend(Consumer<ObjectNode> change) throws Exception {
+        ObjectNode order = (ObjectNode) mapper.readTree(RuleServiceTest.ORDER_JSON);
+        change.accept(order);
+        return mapper.writeValueAsString(order);
+    }
+
+    @Test
+    void testFingerprintCoversOnlyReferencedValues() throws Exception {
+        String order = RuleServiceTest.ORDER_JSON;
+        String reordered = amend(o -> o.set("additional_info", mapper.createObjectNode()
+                .put("blahblah2", "other").put("channel", "In-Person")));
+        Set<String> paths = Set.of("additional_info.channel", "items[#]", "items[*].sku");
+
+        assertEquals(fingerprint(order, paths), fingerprint(reordered, paths));
+        assertNotEquals(fingerprint(order, Set.of("additional_info")), fingerprint(reordered, Set.of("additional_info")));
+        assertNotEquals(fingerprint(order, paths),
+                fingerprint(amend(o -> ((ObjectNode) o.get("items").get(1)).put("sku", "OLI123")), paths));
+        // A field the order does not have hashes what holds it, so adding it is a change
+        assertNotEquals(fingerprint(order, Set.of("branch.region")),
+                fingerprint(amend(o -> ((ObjectNode) o.get("branch")).put("region", "JKT")), Set.of("branch.region")));
+    }
+
+    private static Object fingerprint(String json, Set<String> paths) throws Exception {
+        return new InputFingerprint(CelJsonUtils.variableResolver(new CelJsonReader().readObject(json))).of(paths);
+    }
+
+    @Test
+    void testRetriesAndIrrelevantChangesHit() throws Exception {
+        RuleResultCache cache = new RuleResultCache(1000, Duration.ofMinutes(5));
+        RuleService ruleService = ruleService(cache);
+        RuleService uncached = ruleService(RuleResultCache.disabled());
+
+        RuleEvaluation first = ruleService.evaluateAll(RuleServiceTest.ORDER_JSON);
+        RuleEvaluation retry = ruleService.evaluateAll(RuleServiceTest.ORDER_JSON);
+        System.out.println("After retry: " + cache.stats());
+        assertEquals(first.outcomes(), retry.outcomes());
+        assertEquals(4, cache.stats().hits());
+
+        String noise = amend(o -> ((ObjectNode) o.get("additional_info")).put("blahblah2", "random 4"));
+        assertEquals(uncached.evaluateAll(noise).outcomes(), ruleService.evaluateAll(noise).outcomes());
+        assertEquals(8, cache.stats().hits());
+
+        // The payments rule reads methods, not amounts, so it still hits but is paid on the new total
+        String amended = amend(o -> {
+            o.put("totalAmount", 900000);
+            ((ObjectNode) o.get("paymentMethod").get(0)).put("amount", 1);
+        });
+        RuleEvaluation expected = uncached.evaluateAll(amended);
+        RuleEvaluation actual = ruleService.evaluateAll(amended);
+        System.out.println("After amendment: " + cache.stats());
+        assertEquals(expected.outcomes(), actual.outcomes());
+        assertEquals(900.0, actual.outcomes().get(2).reward());
+        assertEquals(11, cache.stats().hits());
+        assertEquals(5, cache.size());
+    }
+
+    @Test
+    void testChangedRulesMiss() throws Exception {
+        RuleResultCache cache = new RuleResultCache(1000, Duration.ofMinutes(5));
+        RuleService ruleService = ruleService(cache);
+        ruleService.evaluateAll(RuleServiceTest.ORDER_JSON);
+
+        when(repository.findByActiveTrue()).thenReturn(List.of(
+                RuleServiceTest.rule(1, "big-order", "totalAmount >= 1000000", "MULTIPLIER", 0.01, null, null),
+                RuleServiceTest.rule(4, "in-person", "additional_info.channel == 'In-Person'", "FIXED", null, null, 1.0)
+        ));
+        ruleSetService.reload().join();
+        RuleEvaluation evaluation = ruleService.evaluateAll(RuleServiceTest.ORDER_JSON);
+
+        // A reload recompiles every rule, so nothing stored before it is served after it
+        assertEquals(0, cache.stats().hits());
+        assertEquals(List.of(false, true), evaluation.outcomes().stream().map(RuleOutcome::matched).toList());
+        // The index rules out the edited rule, which leaves nothing to store for it
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testSizeAndTtlEviction() throws Exception {
+        RuleResultCache small = new RuleResultCache(3, Duration.ofMinutes(5));
+        ruleService(small).evaluateAll(RuleServiceTest.ORDER_JSON);
+        assertEquals(3, small.size());
+        assertEquals(1, small.stats().evictions());
+
+        RuleResultCache shortLived = new RuleResultCache(1000, Duration.ofMillis(20));
+        RuleService ruleService = ruleService(shortLived);
+        ruleService.evaluateAll(RuleServiceTest.ORDER_JSON);
+        Thread.sleep(50);
+        ruleService.evaluateAll(RuleServiceTest.ORDER_JSON);
+
+        assertEquals(0, shortLived.stats().hits());
+        assertEquals(4, shortLived.size());
+    }
+}
@@ -0,0 +1,134 @@
+package org.example.celjavasample;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.entity.Rule;
+import org.example.celjavasample.repository.RuleRepository;
+import org.example.celjavasample.service.EvaluationBudget;
+import org.example.celjavasample.service.OrderHistory;
+import org.example.celjavasample.service.ProgramCache;
+import org.example.celjavasample.service.RuleEvaluation;
+import org.example.celjavasample.service.RuleMetrics;
+import org.example.celjavasample.service.RuleOutcome;
+import org.example.celjavasample.service.RuleResultCache;
+import org.example.celjavasample.service.RuleService;
+import org.example.celjavasample.service.RuleSetService;
+import org.example.celjavasample.utils.CelJsonReader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RuleServiceTest {
+
+    static final String ORDER_JSON = """
+        {
+            "orderId": "ORD-001",
+            "sponsorCode": "AUTO2000",
+            "totalAmount": 750000,
+            "branch": { "code": "AHASS-LBKBULUS" },
+            "transactionDate": "2025-12-10",
+            "items": [
+                { "id": "ITM-001", "sku": "OLI123", "quantity": 2, "price": 300000 },
+                { "id": "ITM-002", "sku": "SERV001", "quantity": 1, "price": 150000 }
+            ],
+            "customer": { "phoneNumber": "081234567890" },
+            "paymentMethod": [
+                { "method": "QRIS", "amount": 70000 },
+                { "method": "CASH", "amount": 15000 }
+            ],
+            "additional_info": {
+                "source_sales_person_id": "AKG-1234",
+                "channel": "In-Person",
+                "blahblah1": "random",
+                "blahblah2": "random 3"
+            }
+        }
+        """;
+
+    private final CelConfig config = new CelConfig();
+    private final RuleRepository repository = mock(RuleRepository.class);
+    private RuleService ruleService;
+
+    static Rule rule(long id, String name, String expr, String rewardType, Double multiplier, Double maxCap, Double fixedAmount) {
+        Rule rule = new Rule();
+        rule.setId(id);
+        rule.setName(name);
+        rule.setCelExpression(expr);
+        rule.setRewardType(rewardType);
+        rule.setMultiplier(multiplier);
+        rule.setMaxCap(maxCap);
+        rule.setFixedAmount(fixedAmount);
+        return rule;
+    }
+
+    @BeforeEach
+    void setUp() {
+        var compiler = config.celCompiler(CelSchema.untyped());
+        var runtime = config.celRuntime(-1);
+        RuleSetService ruleSetService = new RuleSetService(repository, RuleSetServiceTest.ruleCompiler(config, CelSchema.untyped()));
+        when(repository.findByActiveTrue()).thenReturn(List.of(
+                rule(1, "auto2000-cashback", "sponsorCode == 'AUTO2000' && totalAmount >= 500000", "MULTIPLIER", 0.02, 10000.0, null),
+                rule(2, "oil-bonus", "items.exists(i, i.sku == 'OLI123')", "FIXED", null, null, 25000.0),
+                rule(3, "honda-only", "sponsorCode == 'HONDA'", "FIXED", null, null, 50000.0),
+                rule(4, "bad-field", "customer.loyaltyTier == 'GOLD'", "FIXED", null, null, 1.0)
+        ));
+        ruleSetService.loadOnStartup();
+        ruleService = new RuleService(compiler, runtime, new CelJsonReader(), new ProgramCache(100), ruleSetService, RuleMetrics.disabled(),
+                EvaluationBudget.unlimited(), RuleResultCache.disabled(), OrderHistory.inMemory());
+    }
+
+    @Test
+    void testEvaluateAllRulesAgainstOneOrder() throws Exception {
+        RuleEvaluation evaluation = ruleService.evaluateAll(ORDER_JSON);
+        List<RuleOutcome> outcomes = evaluation.outcomes();
+
+        assertEquals(4, outcomes.size());
+        assertTrue(outcomes.get(0).matched());
+        assertEquals(10000.0, outcomes.get(0).reward()); // 750000 * 0.02 capped at 10000
+        assertTrue(outcomes.get(1).matched());
+        assertEquals(25000.0, outcomes.get(1).reward());
+        assertFalse(outcomes.get(2).matched());
+        assertNull(outcomes.get(2).reward());
+
+        assertFalse(outcomes.get(3).matched());
+        assertNotNull(outcomes.get(3).error());
+
+        assertEquals(2, evaluation.matched().size());
+        assertEquals(35000.0, evaluation.totalReward());
+    }
+
+    @Test
+    void testEvaluateAllAgainstLazyJsonNode() throws Exception {
+        RuleEvaluation eager = ruleService.evaluateAll(ORDER_JSON);
+        RuleEvaluation lazy = ruleService.evaluateAll(new ObjectMapper().readTree(ORDER_JSON));
+
+        assertEquals(eager.matched(), lazy.matched());
+        assertEquals(eager.totalReward(), lazy.totalReward());
+    }
+
+    @Test
+    void testMultiplierRewardWhenNoRuleReadsTotalAmount() throws Exception {
+        RuleRepository repository = mock(RuleRepository.class);
+        when(repository.findByActiveTrue()).thenReturn(List.of(
+                rule(1, "oil-cashback", "items.exists(i, i.sku == 'OLI123')", "MULTIPLIER", 0.01, null, null)));
+        RuleSetService ruleSetService = new RuleSetService(repository, RuleSetServiceTest.ruleCompiler(config, CelSchema.untyped()));
+        ruleSetService.loadOnStartup();
+        RuleService ruleService = new RuleService(config.celCompiler(CelSchema.untyped()), config.celRuntime(-1), new CelJsonReader(),
+                new ProgramCache(100), ruleSetService, RuleMetrics.disabled(), EvaluationBudget.unlimited(),
+                RuleResultCache.disabled(), OrderHistory.inMemory());
+
+        // The payload is projected on the fields rules read, which must still keep the base amount
+        assertEquals(7500.0, ruleService.evaluateAll(ORDER_JSON).outcomes().get(0).reward());
+        assertEquals(7500.0, ruleService.evaluateAll(new ObjectMapper().readTree(ORDER_JSON)).outcomes().get(0).reward());
+    }
+}
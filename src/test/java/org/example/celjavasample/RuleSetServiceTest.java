@@ -0,0 +1,181 @@
+package org.example.celjavasample;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.cel.common.CelValidationException;
+import dev.cel.compiler.CelCompiler;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.entity.Rule;
+import org.example.celjavasample.repository.RuleRepository;
+import org.example.celjavasample.service.CompiledRule;
+import org.example.celjavasample.service.RuleCompiler;
+import org.example.celjavasample.service.RuleCostEstimator;
+import org.example.celjavasample.service.RuleOptimizer;
+import org.example.celjavasample.service.RuleSet;
+import org.example.celjavasample.service.RuleSetService;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RuleSetServiceTest {
+
+    private final CelConfig config = new CelConfig();
+    private final RuleRepository repository = mock(RuleRepository.class);
+    private final RuleCompiler ruleCompiler = ruleCompiler(config, CelSchema.untyped());
+    private final RuleSetService service = new RuleSetService(repository, ruleCompiler);
+
+    static RuleCompiler ruleCompiler(CelConfig config, CelSchema schema) {
+        var compiler = config.celCompiler(schema);
+        var runtime = config.celRuntime(-1);
+        return new RuleCompiler(compiler, runtime, schema, new RuleOptimizer(compiler, runtime, true), RuleCostEstimator.unlimited());
+    }
+
+    static Rule rule(long id, String name, String expr) {
+        Rule rule = new Rule();
+        rule.setId(id);
+        rule.setName(name);
+        rule.setCelExpression(expr);
+        rule.setRewardType("MULTIPLIER");
+        rule.setMultiplier(0.01);
+        rule.setMaxCap(10000.0);
+        return rule;
+    }
+
+    @Test
+    void testLoadCompilesActiveRulesAndReportsBrokenOnes() {
+        when(repository.findByActiveTrue()).thenReturn(List.of(
+                rule(1, "auto2000", "sponsorCode == 'AUTO2000'"),
+                rule(2, "broken", "sponsorCode == "),
+                rule(3, "big-order", "totalAmount >= 500000")
+        ));
+
+        service.loadOnStartup();
+        RuleSet ruleSet = service.current();
+
+        assertEquals(1, ruleSet.version());
+        assertEquals(2, ruleSet.size());
+        assertEquals(1, ruleSet.errors().size());
+        assertEquals(2L, ruleSet.errors().get(0).ruleId());
+        assertEquals(0.01, ruleSet.rules().get(0).multiplier());
+    }
+
+    @Test
+    void testReloadSwapsInNewSnapshot() {
+        when(repository.findByActiveTrue())
+                .thenReturn(List.of(rule(1, "auto2000", "sponsorCode == 'AUTO2000'")))
+                .thenReturn(List.of(
+                        rule(1, "auto2000", "sponsorCode == 'AUTO2000'"),
+                        rule(2, "big-order", "totalAmount >= 500000")));
+
+        service.loadOnStartup();
+        RuleSet first = service.current();
+        RuleSet second = service.reload().join();
+
+        assertNotSame(first, second);
+        assertEquals(1, first.size());
+        assertEquals(2, second.size());
+        assertEquals(2, service.current().version());
+    }
+
+    @Test
+    void testSaveRejectsBrokenExpression() {
+        assertThrows(CelValidationException.class, () -> service.save(rule(1, "broken", "items.all(i, ")));
+        verify(repository, never()).save(any());
+    }
+
+    @Test
+    void testSaveStoresCheckedAst() throws Exception {
+        when(repository.save(any())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(repository.findByActiveTrue()).thenReturn(List.of());
+
+        Rule saved = service.save(rule(1, "auto2000", "sponsorCode == 'AUTO2000'"));
+
+        assertNotNull(saved.getCheckedAst());
+        assertEquals(ruleCompiler.environmentHash(), saved.getEnvHash());
+        assertNotNull(saved.getExpressionHash());
+    }
+
+    @Test
+    void testLoadUsesStoredAstWhenEnvironmentMatches() throws Exception {
+        CelCompiler compiler = spy(config.celCompiler(CelSchema.untyped()));
+        var runtime = config.celRuntime(-1);
+        RuleCompiler spied = new RuleCompiler(compiler, runtime, CelSchema.untyped(),
+                new RuleOptimizer(compiler, runtime, true), RuleCostEstimator.unlimited());
+        Rule rule = rule(1, "auto2000", "sponsorCode == 'AUTO2000'");
+        spied.prepare(rule);
+        clearInvocations(compiler);
+
+        CompiledRule compiled = spied.compile(rule);
+
+        verify(compiler, never()).compile(anyString());
+        assertEquals(true, compiled.program().eval(Map.of("sponsorCode", "AUTO2000")));
+        assertEquals(Set.of("sponsorCode"), compiled.variables());
+    }
+
+    @Test
+    void testLoadRecompilesWhenExpressionChangedOutsidePrepare() throws Exception {
+        Rule rule = rule(1, "auto2000", "sponsorCode == 'AUTO2000'");
+        ruleCompiler.prepare(rule);
+        // As an UPDATE run straight against the table would leave it
+        rule.setCelExpression("sponsorCode == 'HONDA'");
+
+        CompiledRule compiled = ruleCompiler.compile(rule);
+
+        assertEquals(false, compiled.program().eval(Map.of("sponsorCode", "AUTO2000")));
+        assertEquals(true, compiled.program().eval(Map.of("sponsorCode", "HONDA")));
+    }
+
+    @Test
+    void testLoadRecompilesWhenEnvironmentChanged() throws Exception {
+        Rule rule = rule(1, "auto2000", "sponsorCode == 'AUTO2000'");
+        ruleCompiler.prepare(rule);
+        rule.setEnvHash("stale");
+        rule.setCelExpression("sponsorCode == 'HONDA'");
+
+        CompiledRule compiled = ruleCompiler.compile(rule);
+
+        assertEquals(false, compiled.program().eval(Map.of("sponsorCode", "AUTO2000")));
+    }
+
+    @Test
+    void testEnvironmentHash() throws Exception {
+        CelSchema typed = CelSchema.inferFromSamples("order",
+                List.of(new ObjectMapper().readTree(RuleServiceTest.ORDER_JSON)));
+        RuleCompiler same = ruleCompiler(config, CelSchema.untyped());
+        RuleCompiler other = ruleCompiler(config, typed);
+
+        assertEquals(ruleCompiler.environmentHash(), same.environmentHash());
+        assertNotEquals(ruleCompiler.environmentHash(), other.environmentHash());
+    }
+
+    @Test
+    void testLoadDropsOptimizedAstWhenOptimizerTurnedOff() throws Exception {
+        Rule rule = rule(1, "constant", "totalAmount > 100.0 * 5.0");
+        ruleCompiler.prepare(rule);
+
+        var compiler = config.celCompiler(CelSchema.untyped());
+        var runtime = config.celRuntime(-1);
+        RuleCompiler unoptimized = new RuleCompiler(compiler, runtime, CelSchema.untyped(),
+                new RuleOptimizer(compiler, runtime, false), RuleCostEstimator.unlimited());
+        CompiledRule compiled = unoptimized.compile(rule);
+
+        assertNotEquals(ruleCompiler.environmentHash(), unoptimized.environmentHash());
+        assertEquals(compiler.compile(rule.getCelExpression()).getAst().getExpr(), compiled.ast().getExpr());
+    }
+}
@@ -0,0 +1,96 @@
+package org.example.celjavasample;
+
+import dev.cel.runtime.CelEvaluationException;
+import dev.cel.runtime.CelVariableResolver;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.service.CompiledRule;
+import org.example.celjavasample.service.RuleCompiler;
+import org.example.celjavasample.service.SharedSubexpressions;
+import org.example.celjavasample.utils.CelJsonUtils;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SharedSubexpressionsTest {
+
+    private final CelConfig config = new CelConfig();
+    private final RuleCompiler ruleCompiler = RuleSetServiceTest.ruleCompiler(config, CelSchema.untyped());
+
+    private List<CompiledRule> compile(String... expressions) throws Exception {
+        List<CompiledRule> rules = new ArrayList<>();
+        for (int i = 0; i < expressions.length; i++) {
+            rules.add(ruleCompiler.compile(RuleSetServiceTest.rule(i + 1, "rule-" + (i + 1), expressions[i])));
+        }
+        return rules;
+    }
+
+    @Test
+    void testSharedValuesAreComputedOncePerEvaluation() throws Exception {
+        List<CompiledRule> rules = compile(
+                "size(items) > 1",
+                "size(items) < 10 && sponsorCode == 'AUTO2000'",
+                "items.map(i, i.price * i.quantity)[0] > 100000",
+                "items.map(x, x.price * x.quantity)[1] > 100000",
+                "sponsorCode == 'HONDA'");
+        SharedSubexpressions shared = ruleCompiler.share(rules);
+        System.out.println("Shared: " + shared.expressions());
+        assertEquals(2, shared.size());
+        assertEquals(4, shared.rewrittenRules());
+
+        Map<String, Object> input = CelJsonUtils.jsonToCelInput(RuleServiceTest.ORDER_JSON);
+        AtomicInteger itemReads = new AtomicInteger();
+        CelVariableResolver counting = name -> {
+            if (name.equals("items")) {
+                itemReads.incrementAndGet();
+            }
+            return CelJsonUtils.variableResolver(input).find(name);
+        };
+
+        CelVariableResolver memo = shared.bind(counting);
+        for (CompiledRule rule : rules) {
+            assertEquals(rule.program().eval(input), shared.program(rule).eval(memo), rule.expression());
+        }
+        assertEquals(2, itemReads.get());
+    }
+
+    @Test
+    void testFailingSharedValueBehavesLikeAnError() throws Exception {
+        List<CompiledRule> rules = compile(
+                "sponsorCode == 'HONDA' && 100 / (size(items) - 2) > 1",
+                "100 / (size(items) - 2) > 1 || sponsorCode == 'AUTO2000'",
+                "100 / (size(items) - 2) > 1 && sponsorCode == 'AUTO2000'");
+        SharedSubexpressions shared = ruleCompiler.share(rules);
+        assertTrue(shared.size() > 0);
+
+        Map<String, Object> input = CelJsonUtils.jsonToCelInput(RuleServiceTest.ORDER_JSON);
+        CelVariableResolver memo = shared.bind(CelJsonUtils.variableResolver(input));
+
+        assertEquals(false, shared.program(rules.get(0)).eval(memo));
+        assertEquals(true, shared.program(rules.get(1)).eval(memo));
+
+        CelEvaluationException error = assertThrows(CelEvaluationException.class, () -> shared.program(rules.get(2)).eval(memo));
+        assertTrue(SharedSubexpressions.isSharedFailure(error));
+        assertThrows(CelEvaluationException.class, () -> rules.get(2).program().eval(input));
+    }
+
+    @Test
+    void testRulesWithNothingInCommonAreLeftAlone() throws Exception {
+        List<CompiledRule> rules = compile(
+                "items.exists(i, i.sku == 'OLI123')",
+                "paymentMethod.exists(p, p.method == 'QRIS')",
+                "totalAmount >= 500000");
+        SharedSubexpressions shared = ruleCompiler.share(rules);
+
+        assertEquals(0, shared.size());
+        rules.forEach(rule -> assertSame(rule.program(), shared.program(rule)));
+    }
+}
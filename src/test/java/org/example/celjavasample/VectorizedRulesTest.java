@@ -0,0 +1,182 @@
+package org.example.celjavasample;
+
+import dev.cel.runtime.CelEvaluationException;
+import org.example.celjavasample.config.CelConfig;
+import org.example.celjavasample.config.CelSchema;
+import org.example.celjavasample.entity.Rule;
+import org.example.celjavasample.repository.RuleRepository;
+import org.example.celjavasample.service.CompiledRule;
+import org.example.celjavasample.service.EvaluationBudget;
+import org.example.celjavasample.service.OrderHistory;
+import org.example.celjavasample.service.ProgramCache;
+import org.example.celjavasample.service.RuleCompiler;
+import org.example.celjavasample.service.RuleEvaluation;
+import org.example.celjavasample.service.RuleMetrics;
+import org.example.celjavasample.service.RuleOutcome;
+import org.example.celjavasample.service.RuleResultCache;
+import org.example.celjavasample.service.RuleService;
+import org.example.celjavasample.service.RuleSet;
+import org.example.celjavasample.service.RuleSetService;
+import org.example.celjavasample.service.VectorizedRules;
+import org.example.celjavasample.utils.CelJsonReader;
+import org.example.celjavasample.utils.CelJsonUtils;
+import org.example.celjavasample.utils.ColumnarBatch;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class VectorizedRulesTest {
+
+    private final CelConfig config = new CelConfig();
+    private final RuleCompiler ruleCompiler = RuleSetServiceTest.ruleCompiler(config, CelSchema.untyped());
+
+    private static final Map<String, ColumnarBatch.Type> SCHEMA = Map.of(
+            "totalAmount", ColumnarBatch.Type.DOUBLE,
+            "channel", ColumnarBatch.Type.STRING,
+            "salespersonId", ColumnarBatch.Type.STRING);
+
+    static final String[] SUPPORTED = {
+            "totalAmount >= 500000.0",
+            "totalAmount == 5",
+            "totalAmount in [5, 6.5]",
+            "channel == 'Online' && totalAmount > 100.0",
+            "channel == 'Online' || totalAmount > 100.0",
+            "!(channel in ['Online', 'In-Person'])",
+            "salespersonId.startsWith('AKG') || channel.contains('Person')",
+            "totalAmount * 1.1 - 10.0 < 1000.0 && -totalAmount <= 0.0",
+            "totalAmount / 0.0 > 1.0",
+            "'J' > channel && channel != ''",
+    };
+
+    static final String[] UNSUPPORTED = {
+            // Fails at runtime: CEL does not order doubles against ints
+            "totalAmount >= 500000",
+            "items.exists(i, i.sku == 'OLI123')",
+            "channel + 'x' == 'Onlinex'",
+            "size(channel) > 3",
+            "additional_info.channel == 'In-Person'",
+    };
+
+    private List<CompiledRule> compile(String... expressions) throws Exception {
+        List<CompiledRule> rules = new ArrayList<>();
+        for (int i = 0; i < expressions.length; i++) {
+            rules.add(ruleCompiler.compile(RuleSetServiceTest.rule(i + 1, "rule-" + (i + 1), expressions[i])));
+        }
+        return rules;
+    }
+
+    static List<Map<String, Object>> orders(int count, long seed) {
+        Random random = new Random(seed);
+        Object[] amounts = {null, Double.NaN, -0.0, 0.0, 5.0, 6.5, 100.0, 7L, 499999.99, 500000.0, 2_000_000.0};
+        Object[] channels = {null, "Online", "In-Person", "Marketplace", "", 42L};
+        Object[] salespeople = {null, "AKG-1234", "BDG-77", "AK"};
+        List<Map<String, Object>> orders = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> order = new HashMap<>();
+            order.put("orderId", "ORD-" + i);
+            Object amount = amounts[random.nextInt(amounts.length)];
+            order.put("totalAmount", amount == null && random.nextBoolean() ? random.nextDouble() * 1_000_000 : amount);
+            order.put("channel", channels[random.nextInt(channels.length)]);
+            order.put("salespersonId", salespeople[random.nextInt(salespeople.length)]);
+            order.put("items", List.of());
+            order.put("additional_info", Map.of("channel", "In-Person"));
+            orders.add(order);
+        }
+        return orders;
+    }
+
+    @Test
+    void testOnlyTheScalarSubsetIsVectorized() throws Exception {
+        List<String> expressions = new ArrayList<>(List.of(SUPPORTED));
+        expressions.addAll(List.of(UNSUPPORTED));
+        VectorizedRules vectorized = VectorizedRules.compile(compile(expressions.toArray(String[]::new)), SCHEMA);
+
+        assertEquals(SUPPORTED.length, vectorized.size());
+        for (int i = 0; i < expressions.size(); i++) {
+            assertEquals(i < SUPPORTED.length, vectorized.supports(i), expressions.get(i));
+        }
+        // Without the column the rule reads, it stays on the runtime
+        assertEquals(0, VectorizedRules.compile(compile("totalAmount >= 500000.0"), Map.of()).size());
+    }
+
+    @Test
+    void testDecidedRowsAgreeWithTheRuntime() throws Exception {
+        List<CompiledRule> rules = compile(SUPPORTED);
+        List<Map<String, Object>> orders = orders(1_000, 42);
+        VectorizedRules.Result[] results = VectorizedRules.compile(rules, SCHEMA).evaluate(ColumnarBatch.of(orders, SCHEMA));
+
+        for (int r = 0; r < rules.size(); r++) {
+            VectorizedRules.Result result = results[r];
+            System.out.println(rules.get(r).expression() + ": " + result.matched().cardinality() + " matched, "
+                    + result.undecided().cardinality() + " undecided");
+            assertTrue(result.undecided().cardinality() < orders.size());
+            for (int row = 0; row < orders.size(); row++) {
+                if (result.undecided().get(row)) {
+                    continue;
+                }
+                Object expected = eval(rules.get(r), orders.get(row));
+                assertEquals(expected, result.matched().get(row), rules.get(r).expression() + " on " + orders.get(row));
+            }
+        }
+    }
+
+    private static Object eval(CompiledRule rule, Map<String, Object> order) {
+        try {
+            return rule.program().eval(CelJsonUtils.variableResolver(order));
+        } catch (CelEvaluationException e) {
+            return e.getMessage();
+        }
+    }
+
+    @Test
+    void testSettledBatchScoresLikeTheRuntime() throws Exception {
+        List<Rule> rules = new ArrayList<>();
+        for (int i = 0; i < SUPPORTED.length; i++) {
+            rules.add(i % 2 == 0
+                    ? RuleServiceTest.rule(i + 1, "fixed-" + i, SUPPORTED[i], "FIXED", null, null, 10.0 + i)
+                    : RuleServiceTest.rule(i + 1, "multiplier-" + i, SUPPORTED[i], "MULTIPLIER", 0.01, 5000.0, null));
+        }
+        for (int i = 0; i < UNSUPPORTED.length; i++) {
+            rules.add(RuleServiceTest.rule(100 + i, "runtime-" + i, UNSUPPORTED[i], "FIXED", null, null, 1.0));
+        }
+        RuleRepository repository = mock(RuleRepository.class);
+        when(repository.findByActiveTrue()).thenReturn(rules);
+        RuleSetService ruleSetService = new RuleSetService(repository, ruleCompiler);
+        ruleSetService.loadOnStartup();
+        RuleService ruleService = new RuleService(config.celCompiler(CelSchema.untyped()), config.celRuntime(-1),
+                new CelJsonReader(), new ProgramCache(100), ruleSetService, RuleMetrics.disabled(),
+                EvaluationBudget.unlimited(), RuleResultCache.disabled(), OrderHistory.inMemory());
+
+        RuleSet ruleSet = ruleSetService.current();
+        List<Map<String, Object>> orders = orders(500, 7);
+        RuleOutcome[][] settled = ruleService.settle(ruleSet, ColumnarBatch.of(orders, SCHEMA));
+
+        long decided = 0;
+        for (int row = 0; row < orders.size(); row++) {
+            RuleEvaluation expected = ruleService.evaluateAll(ruleSet, CelJsonUtils.variableResolver(orders.get(row)));
+            RuleEvaluation actual = ruleService.evaluateAll(ruleSet, CelJsonUtils.variableResolver(orders.get(row)), settled[row]);
+            assertEquals(summary(expected), summary(actual), orders.get(row).toString());
+            assertEquals(expected.totalReward(), actual.totalReward());
+            for (RuleOutcome outcome : settled[row]) {
+                decided += outcome == null ? 0 : 1;
+            }
+        }
+        System.out.println("Settled " + decided + " of " + orders.size() * rules.size() + " rule outcomes");
+        assertTrue(decided > orders.size() * SUPPORTED.length / 2);
+    }
+
+    private static List<String> summary(RuleEvaluation evaluation) {
+        return evaluation.outcomes().stream()
+                .map(o -> o.ruleId() + ":" + o.matched() + ":" + o.reward() + ":" + o.error())
+                .toList();
+    }
+}